@@ -38,4 +38,15 @@ public class DocLengthStore  {
   public long getDocLength(String fieldname, int docid) throws IOException {
     return values.get(fieldname).get(docid);
   }
+
+  /**
+   * Returns the lengths of the specified field, for callers that look
+   * up many documents' lengths in one field.
+   *
+   * @param fieldname Name of field to access lengths.
+   * @return The lengths, or null if the field has none.
+   */
+  public NumericDocValues getLengths(String fieldname) {
+    return values.get(fieldname);
+  }
 }
@@ -15,9 +15,11 @@
  * limitations under the License.
  */
 
+import java.io.IOException;
 import java.io.Reader;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.core.LowerCaseFilter;
@@ -29,6 +31,8 @@ import org.apache.lucene.analysis.miscellaneous.SetKeywordMarkerFilter;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.standard.StandardFilter;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.analysis.util.StopwordAnalyzerBase;
 import org.apache.lucene.util.Version;
@@ -46,6 +50,8 @@ public final class EnglishAnalyzerConfigurable extends StopwordAnalyzerBase {
   private Boolean doLowerCase = true;
   private Boolean doStopwordRemoval = true;
   private StemmerType stemmer = StemmerType.PORTER;
+  private int stemCacheSize = 1 << 16;
+  private final StemCache[] stemCaches = new StemCache[StemmerType.values().length];
 
   /**
    * Returns an unmodifiable instance of the default stop words set.
@@ -123,6 +129,26 @@ public final class EnglishAnalyzerConfigurable extends StopwordAnalyzerBase {
     this.stemmer = s;
   }
 
+  /**
+   * Set the number of entries in the stemmed-form cache of each stemmer.
+   * The size is rounded up to a power of two; 0 disables the cache.
+   * Caches that were already created keep their size.
+   */
+  public void setStemCacheSize(int size) {
+    this.stemCacheSize = size;
+  }
+
+  /**
+   * Returns the stemmed-form cache for a stemmer, creating it on first use.
+   */
+  private synchronized StemCache stemCache(StemmerType s) {
+    if (this.stemCacheSize <= 0)
+      return null;
+    if (this.stemCaches[s.ordinal()] == null)
+      this.stemCaches[s.ordinal()] = new StemCache(this.stemCacheSize);
+    return this.stemCaches[s.ordinal()];
+  }
+
   /**
    * Creates a {@link org.apache.lucene.analysis.Analyzer.TokenStreamComponents}
    * which tokenizes all the text in the provided {@link Reader}.
@@ -151,11 +177,162 @@ public final class EnglishAnalyzerConfigurable extends StopwordAnalyzerBase {
     if (!stemExclusionSet.isEmpty())
       result = new SetKeywordMarkerFilter(result, stemExclusionSet);
 
+    // The stem cache is consulted before the stemmer and filled in
+    // after it. Tokens found in the cache are marked as keywords so
+    // that the stemmer passes them through.
+    StemCache cache = (this.stemmer == StemmerType.NONE) ? null : stemCache(this.stemmer);
+    CachedToken cached = new CachedToken();
+    if (cache != null)
+      result = new StemCacheLookupFilter(result, cache, cached);
+
     if (this.stemmer == StemmerType.PORTER)
       result = new PorterStemFilter(result);
     else if (this.stemmer == StemmerType.KSTEM)
       result = new KStemFilter(result);
 
+    if (cache != null)
+      result = new StemCacheStoreFilter(result, cache, cached);
+
     return new TokenStreamComponents(source, result);
   }
+
+  /**
+   * A bounded, direct-mapped cache from surface tokens to stemmed forms.
+   * Each slot holds one immutable entry, and a colliding insert replaces
+   * it. Entries have only final fields, so they can be read and written
+   * by many threads without locks; a reader sees either a complete entry
+   * or a miss. Lookups take the token's char[] and do not allocate.
+   */
+  static final class StemCache {
+
+    private static final class Entry {
+      final char[] token;
+      final char[] stem;
+      final int hash;
+
+      Entry(char[] token, char[] stem, int hash) {
+        this.token = token;
+        this.stem = stem;
+        this.hash = hash;
+      }
+    }
+
+    private final Entry[] table;
+    private final int mask;
+
+    StemCache(int size) {
+      int n = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+      this.table = new Entry[n];
+      this.mask = n - 1;
+    }
+
+    private static int hash(char[] b, int length) {
+      int h = 0;
+      for (int i = 0; i < length; i++)
+        h = 31 * h + b[i];
+      return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the stem of token[0..length), or null if it is not cached.
+     */
+    char[] get(char[] token, int length) {
+      int h = hash(token, length);
+      Entry e = this.table[h & this.mask];
+      if (e == null || e.hash != h || e.token.length != length)
+        return null;
+      for (int i = 0; i < length; i++)
+        if (e.token[i] != token[i])
+          return null;
+      return e.stem;
+    }
+
+    /**
+     * Caches the stem of token[0..length).
+     */
+    void put(char[] token, int length, char[] stem, int stemLength) {
+      int h = hash(token, length);
+      char[] t = new char[length];
+      System.arraycopy(token, 0, t, 0, length);
+      char[] s = new char[stemLength];
+      System.arraycopy(stem, 0, s, 0, stemLength);
+      this.table[h & this.mask] = new Entry(t, s, h);
+    }
+  }
+
+  /**
+   * The state shared by the lookup and store filters of one token stream:
+   * the surface form of the current token and whether it was a cache hit.
+   */
+  private static final class CachedToken {
+    char[] surface = new char[32];
+    int length;
+    boolean hit;
+    boolean skip;
+  }
+
+  private static final class StemCacheLookupFilter extends TokenFilter {
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+    private final StemCache cache;
+    private final CachedToken cached;
+
+    StemCacheLookupFilter(TokenStream in, StemCache cache, CachedToken cached) {
+      super(in);
+      this.cache = cache;
+      this.cached = cached;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+      if (!input.incrementToken())
+        return false;
+
+      // Keywords are never stemmed, so they are never cached.
+      cached.hit = false;
+      cached.skip = keywordAtt.isKeyword();
+      if (cached.skip)
+        return true;
+
+      char[] buffer = termAtt.buffer();
+      int length = termAtt.length();
+      char[] stem = cache.get(buffer, length);
+      if (stem != null) {
+        termAtt.copyBuffer(stem, 0, stem.length);
+        keywordAtt.setKeyword(true);
+        cached.hit = true;
+      } else {
+        if (cached.surface.length < length)
+          cached.surface = new char[Math.max(length, cached.surface.length * 2)];
+        System.arraycopy(buffer, 0, cached.surface, 0, length);
+        cached.length = length;
+      }
+      return true;
+    }
+  }
+
+  private static final class StemCacheStoreFilter extends TokenFilter {
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+    private final StemCache cache;
+    private final CachedToken cached;
+
+    StemCacheStoreFilter(TokenStream in, StemCache cache, CachedToken cached) {
+      super(in);
+      this.cache = cache;
+      this.cached = cached;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+      if (!input.incrementToken())
+        return false;
+
+      if (cached.hit)
+        keywordAtt.setKeyword(false);
+      else if (!cached.skip)
+        cache.put(cached.surface, cached.length, termAtt.buffer(), termAtt.length());
+      return true;
+    }
+  }
 }
@@ -0,0 +1,340 @@
+/**
+ *  ExternalIdStore maps between internal docids and the "externalId"
+ *  stored field of every document in the index, in both directions.
+ *  Reading a stored field through IndexReader.document decompresses
+ *  the whole stored document, and finding a docid by external id
+ *  requires a search, which is expensive when it is done for every
+ *  document in a result list or a qrels file.  Instead, the external
+ *  ids are copied once into a file that is memory-mapped on later
+ *  runs.  The file layout is:
+ *
+ *    int    MAGIC
+ *    int    maxDoc
+ *    long   index version (0 if unknown)
+ *    int    count          number of documents that have an external id
+ *    int    unused
+ *    int[]  offsets        maxDoc+1 entries, relative to the id bytes
+ *    int[]  sorted         count docids, in external id order
+ *    byte[] id bytes       UTF-8, concatenated in docid order
+ *
+ *  The length of docid's external id is offsets[docid+1]-offsets[docid].
+ *  Deleted documents have an empty external id.  External ids are
+ *  found by binary search over the sorted docids.  All lookups use
+ *  absolute reads of the mapped buffer, so one store can be shared by
+ *  many threads, and neither direction allocates.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+
+public class ExternalIdStore {
+
+  private static final int MAGIC = 0x45494432;	// "EID2"
+  private static final int HEADER_LENGTH = 24;
+
+  private final MappedByteBuffer buffer;
+  private final int maxDoc;
+  private final int count;
+  private final int sortedStart;
+  private final int dataStart;
+
+  /**
+   *  Open the external id file for an index, building it first if it
+   *  does not exist or if it was built from a different index.
+   *  @param reader The index reader created in {@link QryEval}.
+   *  @param file The file that stores the external ids.
+   *  @return The external id store.
+   *  @throws IOException
+   */
+  public static ExternalIdStore open(IndexReader reader, File file) throws IOException {
+    if (! file.exists() || ! matches(file, reader))
+      build(reader, file);
+    return new ExternalIdStore(file);
+  }
+
+  /**
+   *  Map an existing external id file.
+   *  @param file The file that stores the external ids.
+   *  @throws IOException
+   */
+  public ExternalIdStore(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      raf.close();
+    }
+
+    if (this.buffer.getInt(0) != MAGIC)
+      throw new IOException("Not an external id file: " + file);
+
+    this.maxDoc = this.buffer.getInt(4);
+    this.count = this.buffer.getInt(16);
+    this.sortedStart = HEADER_LENGTH + 4 * (this.maxDoc + 1);
+    this.dataStart = this.sortedStart + 4 * this.count;
+  }
+
+  /**
+   *  Copy the external ids out of the index into a new file.
+   *  @param reader The index reader.
+   *  @param file The file to write.
+   *  @throws IOException
+   */
+  public static void build(IndexReader reader, File file) throws IOException {
+
+    int maxDoc = reader.maxDoc();
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+    int[] offsets = new int[maxDoc + 1];
+    final byte[][] idBytes = new byte[maxDoc][];
+    List<Integer> sorted = new ArrayList<Integer>(maxDoc);
+    ByteArrayOutputStream ids = new ByteArrayOutputStream(maxDoc * 32);
+
+    for (int i = 0; i < maxDoc; i++) {
+      offsets[i] = ids.size();
+      if (liveDocs != null && ! liveDocs.get(i))
+        continue;
+
+      Document d = reader.document(i);
+      String eid = d.get("externalId");
+      if (eid != null) {
+        idBytes[i] = eid.getBytes("UTF-8");
+        ids.write(idBytes[i], 0, idBytes[i].length);
+        sorted.add(i);
+      }
+    }
+    offsets[maxDoc] = ids.size();
+
+    Collections.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return compareBytes(idBytes[a], idBytes[b]);
+      }
+    });
+
+    //  Write to a temporary file and rename it, so that a partially
+    //  written file is never mistaken for a complete one.
+
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(maxDoc);
+      out.writeLong(indexVersion(reader));
+      out.writeInt(sorted.size());
+      out.writeInt(0);
+      for (int i = 0; i <= maxDoc; i++)
+        out.writeInt(offsets[i]);
+      for (int i = 0; i < sorted.size(); i++)
+        out.writeInt(sorted.get(i));
+      ids.writeTo(out);
+    } finally {
+      out.close();
+    }
+
+    if (file.exists() && ! file.delete())
+      throw new IOException("Can't replace " + file);
+    if (! tmp.renameTo(file))
+      throw new IOException("Can't create " + file);
+  }
+
+  /**
+   *  Check whether an existing file was built from this index.
+   */
+  private static boolean matches(File file, IndexReader reader) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return in.readInt() == MAGIC &&
+	in.readInt() == reader.maxDoc() &&
+	in.readLong() == indexVersion(reader);
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static int compareBytes(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    for (int i = 0; i < n; i++) {
+      int diff = (a[i] & 0xff) - (b[i] & 0xff);
+      if (diff != 0)
+        return diff;
+    }
+    return a.length - b.length;
+  }
+
+  private static long indexVersion(IndexReader reader) {
+    if (reader instanceof DirectoryReader)
+      return ((DirectoryReader) reader).getVersion();
+    return 0;
+  }
+
+  /**
+   *  The number of documents covered by this store.
+   *  @return The index's maxDoc when the store was built.
+   */
+  public int maxDoc() {
+    return this.maxDoc;
+  }
+
+  /**
+   *  Get the position of the first byte of a document's external id.
+   *  @param docid An internal document id.
+   *  @return An absolute offset into the mapped buffer.
+   */
+  int start(int docid) {
+    return this.dataStart + this.buffer.getInt(HEADER_LENGTH + 4 * docid);
+  }
+
+  /**
+   *  Get the length in bytes of a document's external id.
+   *  @param docid An internal document id.
+   *  @return The number of UTF-8 bytes in the external id.
+   */
+  public int length(int docid) {
+    return this.buffer.getInt(HEADER_LENGTH + 4 * (docid + 1)) -
+      this.buffer.getInt(HEADER_LENGTH + 4 * docid);
+  }
+
+  /**
+   *  Copy a document's external id into a buffer without creating
+   *  a String.
+   *  @param docid An internal document id.
+   *  @param dst The destination buffer.  It must have room for
+   *         {@link #length(int)} bytes.
+   */
+  public void copyTo(int docid, ByteBuffer dst) {
+    int start = start(docid);
+    int end = start + length(docid);
+    for (int i = start; i < end; i++)
+      dst.put(this.buffer.get(i));
+  }
+
+  /**
+   *  Get a document's external id.
+   *  @param docid An internal document id.
+   *  @return The external id, or null if the document has none.
+   */
+  public String get(int docid) {
+    int length = length(docid);
+    if (length == 0)
+      return null;
+
+    byte[] b = new byte[length];
+    int start = start(docid);
+    for (int i = 0; i < length; i++)
+      b[i] = this.buffer.get(start + i);
+    try {
+      return new String(b, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   *  Compare the external ids of two documents byte by byte.  For the
+   *  ASCII ids used in our collections this is the same order as
+   *  String.compareTo, which printResults uses to break score ties.
+   *  @param docA An internal document id.
+   *  @param docB An internal document id.
+   *  @return A negative number, zero, or a positive number if docA's
+   *          external id is less than, equal to, or greater than docB's.
+   */
+  public int compare(int docA, int docB) {
+    int a = start(docA);
+    int b = start(docB);
+    int lengthA = length(docA);
+    int lengthB = length(docB);
+    int n = Math.min(lengthA, lengthB);
+
+    for (int i = 0; i < n; i++) {
+      int diff = (this.buffer.get(a + i) & 0xff) - (this.buffer.get(b + i) & 0xff);
+      if (diff != 0)
+	return diff;
+    }
+    return lengthA - lengthB;
+  }
+
+  /**
+   *  Finds the internal document id for a document specified by its
+   *  external id.
+   *  @param externalId The external document id of a document.
+   *  @return The internal document id, or -1 if no document has
+   *          this external id.
+   */
+  public int getInternalDocid(String externalId) {
+    int lo = 0;
+    int hi = this.count - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int docid = this.buffer.getInt(this.sortedStart + 4 * mid);
+      int cmp = compare(docid, externalId);
+
+      if (cmp < 0)
+	lo = mid + 1;
+      else if (cmp > 0)
+	hi = mid - 1;
+      else
+	return docid;
+    }
+    return -1;
+  }
+
+  /**
+   *  Compare a document's external id to a string in UTF-8 byte
+   *  order.  ASCII characters are compared directly against the
+   *  mapped bytes; other characters are encoded one at a time.
+   */
+  private int compare(int docid, String key) {
+    int p = start(docid);
+    int end = p + length(docid);
+    int n = key.length();
+
+    for (int i = 0; i < n; i++) {
+      int c = key.charAt(i);
+
+      if (c < 0x80) {
+	if (p >= end)
+	  return -1;
+	int diff = (this.buffer.get(p++) & 0xff) - c;
+	if (diff != 0)
+	  return diff;
+	continue;
+      }
+
+      //  Encode one non-ASCII code point and compare its bytes.
+
+      int cp = Character.codePointAt(key, i);
+      if (Character.isSupplementaryCodePoint(cp))
+	i++;
+
+      int len = (cp < 0x800) ? 2 : (cp < 0x10000) ? 3 : 4;
+      for (int j = 0; j < len; j++) {
+	int b;
+	if (j == 0)
+	  b = (len == 2) ? 0xc0 | (cp >> 6) :
+	      (len == 3) ? 0xe0 | (cp >> 12) : 0xf0 | (cp >> 18);
+	else
+	  b = 0x80 | ((cp >> (6 * (len - 1 - j))) & 0x3f);
+
+	if (p >= end)
+	  return -1;
+	int diff = (this.buffer.get(p++) & 0xff) - b;
+	if (diff != 0)
+	  return diff;
+      }
+    }
+    return (p < end) ? 1 : 0;
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ *  FieldWeights lists the fields that a fielded retrieval model
+ *  scores a query term in, and the weight of each field.  It is
+ *  written in the parameter file as field:weight pairs, e.g.,
+ *
+ *    BM25F:fields=body:1.0,title:2.0,url:1.0,inlink:1.0
+ */
+
+public class FieldWeights {
+
+  private final String[] fields;
+  private final double[] weights;
+
+  /**
+   *  @param spec The fields and weights, "field:weight,...".  A field
+   *         without a weight has weight 1.
+   *  @throws IllegalArgumentException if the list is empty or a
+   *          weight is not a non-negative number.
+   */
+  public FieldWeights(String spec) {
+    String[] entries = spec.split(",");
+    this.fields = new String[entries.length];
+    this.weights = new double[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      String[] pair = entries[i].trim().split(":");
+      this.fields[i] = pair[0].trim();
+      try {
+	this.weights[i] = (pair.length > 1) ? Double.parseDouble(pair[1].trim()) : 1.0;
+      } catch (NumberFormatException e) {
+	this.weights[i] = -1;
+      }
+      if (this.fields[i].length() == 0 || this.weights[i] < 0)
+	throw new IllegalArgumentException("Invalid field weight: " + entries[i]);
+    }
+  }
+
+  private FieldWeights(String[] fields, double[] weights) {
+    this.fields = fields;
+    this.weights = weights;
+  }
+
+  /**
+   *  The same fields, with weights that sum to 1.
+   *  @return The normalized weights.
+   */
+  public FieldWeights normalize() {
+    double sum = 0.0;
+    for (double w : this.weights)
+      sum += w;
+    double[] w = new double[this.weights.length];
+    for (int i = 0; i < w.length; i++)
+      w[i] = (sum > 0) ? this.weights[i] / sum : 1.0 / w.length;
+    return new FieldWeights(this.fields, w);
+  }
+
+  public int size() {
+    return this.fields.length;
+  }
+
+  public String getField(int i) {
+    return this.fields[i];
+  }
+
+  public double getWeight(int i) {
+    return this.weights[i];
+  }
+
+  public String toString() {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < this.fields.length; i++) {
+      if (i > 0)
+	b.append(',');
+      b.append(this.fields[i]).append(':').append(this.weights[i]);
+    }
+    return b.toString();
+  }
+}
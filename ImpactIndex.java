@@ -0,0 +1,517 @@
+/**
+ *  ImpactIndex is an impact-ordered copy of one field's postings, for
+ *  score-at-a-time BM25 evaluation ({@link QryopSlSaat}).  Each
+ *  posting's BM25 term score,
+ *
+ *    log((N-df+0.5)/(df+0.5)) * tf / (tf + k1*(1-b+b*doclen/avglen))
+ *
+ *  is quantized to an integer impact, round(score * scale), where
+ *  scale maps the largest |score| in the field to 2^bits-1.  A term's
+ *  postings are grouped into segments of equal impact, highest impact
+ *  first; a segment's docids are in increasing order.  Postings with
+ *  impact 0 are left out.
+ *
+ *  The index is built from the Lucene index once, and memory-mapped
+ *  on later runs.  The file layout is:
+ *
+ *    int    MAGIC
+ *    int    maxDoc
+ *    long   index version (0 if unknown)
+ *    double k1
+ *    double b
+ *    double scale
+ *    int    termCount
+ *    int    bits
+ *    int    field length, then the field name in UTF-8, padded to 4 bytes
+ *    int[]  termStart       termCount+1 offsets into the term bytes
+ *    int[]  postingsStart   termCount offsets into the file
+ *    byte[] term bytes      UTF-8, sorted, padded to 4 bytes
+ *    postings               for each term:
+ *                             int segments
+ *                             {int impact, int count} for each segment
+ *                             int[] docids, segment by segment
+ *
+ *  Like {@link ExternalIdStore}, the file is one mapping, so it is
+ *  limited to 2 GB, and all reads are absolute, so one index can be
+ *  shared by many threads.
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+public class ImpactIndex {
+
+  private static final int MAGIC = 0x494d5031;	// "IMP1"
+  private static final int HEADER_LENGTH = 52;
+
+  private final File file;
+  private final MappedByteBuffer buffer;
+  private final int maxDoc;
+  private final double k1;
+  private final double b;
+  private final double scale;
+  private final int termCount;
+  private final int bits;
+  private final String field;
+  private final int termStartStart;
+  private final int postingsStartStart;
+  private final int termBytesStart;
+
+  /**
+   *  Open the impact index of a field, building it first if it does
+   *  not exist, or if it was built from a different index or with
+   *  different parameters.
+   *  @param reader The index reader created in {@link QryEval}.
+   *  @param file The file that stores the impact index.
+   *  @param field The field.
+   *  @param k1 BM25 k1.
+   *  @param b BM25 b.
+   *  @param bits The number of bits of an impact, not counting its sign.
+   *  @return The impact index.
+   *  @throws IOException
+   */
+  public static ImpactIndex open(IndexReader reader, File file, String field,
+				 double k1, double b, int bits) throws IOException {
+    if (! file.exists() || ! matches(file, reader, field, k1, b, bits))
+      build(reader, file, field, k1, b, bits);
+    return new ImpactIndex(file);
+  }
+
+  /**
+   *  Map an existing impact index file.
+   *  @param file The file that stores the impact index.
+   *  @throws IOException
+   */
+  public ImpactIndex(File file) throws IOException {
+    this.file = file;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      raf.close();
+    }
+
+    if (this.buffer.getInt(0) != MAGIC)
+      throw new IOException("Not an impact index file: " + file);
+
+    this.maxDoc = this.buffer.getInt(4);
+    this.k1 = this.buffer.getDouble(16);
+    this.b = this.buffer.getDouble(24);
+    this.scale = this.buffer.getDouble(32);
+    this.termCount = this.buffer.getInt(40);
+    this.bits = this.buffer.getInt(44);
+
+    int fieldLength = this.buffer.getInt(48);
+    byte[] f = new byte[fieldLength];
+    for (int i = 0; i < fieldLength; i++)
+      f[i] = this.buffer.get(HEADER_LENGTH + i);
+    this.field = new String(f, "UTF-8");
+
+    this.termStartStart = HEADER_LENGTH + pad(fieldLength);
+    this.postingsStartStart = this.termStartStart + 4 * (this.termCount + 1);
+    this.termBytesStart = this.postingsStartStart + 4 * this.termCount;
+  }
+
+  /**
+   *  The impact index for a reader that replaces the one this index
+   *  was built from: this index if it still matches, else one that
+   *  is rebuilt in the same file with the same field and parameters.
+   *  The file is replaced by a rename, so this index stays readable.
+   *  @param reader The new index reader.
+   *  @return The impact index for the new reader.
+   *  @throws IOException
+   */
+  public ImpactIndex reopen(IndexReader reader) throws IOException {
+    if (this.file.exists() &&
+	matches(this.file, reader, this.field, this.k1, this.b, this.bits))
+      return this;
+    return open(reader, this.file, this.field, this.k1, this.b, this.bits);
+  }
+
+  private static int pad(int n) {
+    return (n + 3) & ~3;
+  }
+
+  /**
+   *  Build the impact index of a field.
+   *  @param reader The index reader.
+   *  @param file The file to write.
+   *  @param field The field.
+   *  @param k1 BM25 k1.
+   *  @param b BM25 b.
+   *  @param bits The number of bits of an impact, not counting its sign.
+   *  @throws IOException
+   */
+  public static void build(IndexReader reader, File file, String field,
+			   double k1, double b, int bits) throws IOException {
+
+    if (bits < 1 || bits > 16)
+      throw new IllegalArgumentException("impact bits must be 1..16: " + bits);
+
+    //  Scores are computed exactly as QryopSlScore computes them, so
+    //  that the quantized scores rank like the exact ones.
+
+    int N = reader.getDocCount(field);
+    double avglen = reader.getSumTotalTermFreq(field) / (float) reader.getDocCount(field);
+    NumericDocValues lengths = new DocLengthStore(reader).getLengths(field);
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+    Terms terms = MultiFields.getTerms(reader, field);
+
+    //  Pass 1 finds the largest |score|, which sets the scale.
+
+    Postings p = new Postings();
+    double max = 0.0;
+    if (terms != null) {
+      TermsEnum te = terms.iterator(null);
+      while (te.next() != null) {
+	p.read(te, liveDocs);
+	for (int i = 0; i < p.df; i++)
+	  max = Math.max(max, Math.abs(p.score(i, N, avglen, lengths, k1, b)));
+      }
+    }
+    int levels = (1 << bits) - 1;
+    double scale = (max > 0) ? levels / max : 1.0;
+
+    //  Pass 2 writes each term's segments to a temporary postings
+    //  file, and keeps the term dictionary in memory.
+
+    File postingsTmp = new File(file.getPath() + ".postings.tmp");
+    DataOutputStream postings =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(postingsTmp), 1 << 16));
+    ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+    int[] termStart = new int[1024];
+    int[] postingsStart = new int[1024];
+    int termCount = 0;
+    long postingsLength = 0;
+
+    try {
+      if (terms != null) {
+	TermsEnum te = terms.iterator(null);
+	BytesRef text;
+	long[] keys = new long[64];
+	while ((text = te.next()) != null) {
+	  p.read(te, liveDocs);
+
+	  //  Sort by impact, highest first, then by docid.
+
+	  int n = 0;
+	  if (keys.length < p.df)
+	    keys = new long[Math.max(p.df, keys.length * 2)];
+	  for (int i = 0; i < p.df; i++) {
+	    long impact = Math.round(p.score(i, N, avglen, lengths, k1, b) * scale);
+	    if (impact != 0)
+	      keys[n++] = ((levels - impact) << 32) | p.docs[i];
+	  }
+	  if (n == 0)
+	    continue;
+	  Arrays.sort(keys, 0, n);
+
+	  if (termCount + 1 >= termStart.length) {
+	    termStart = Arrays.copyOf(termStart, termStart.length * 2);
+	    postingsStart = Arrays.copyOf(postingsStart, postingsStart.length * 2);
+	  }
+	  termStart[termCount] = termBytes.size();
+	  termBytes.write(text.bytes, text.offset, text.length);
+	  if (postingsLength > Integer.MAX_VALUE)
+	    throw new IOException("The impact index is larger than 2 GB");
+	  postingsStart[termCount] = (int) postingsLength;
+	  termCount++;
+
+	  int segments = 0;
+	  for (int i = 0; i < n; i++)
+	    if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32))
+	      segments++;
+	  postings.writeInt(segments);
+	  for (int i = 0; i < n; ) {
+	    int j = i;
+	    while (j < n && (keys[j] >>> 32) == (keys[i] >>> 32))
+	      j++;
+	    postings.writeInt((int) (levels - (keys[i] >>> 32)));
+	    postings.writeInt(j - i);
+	    i = j;
+	  }
+	  for (int i = 0; i < n; i++)
+	    postings.writeInt((int) keys[i]);
+	  postingsLength += 4 + 8 * segments + 4 * n;
+	}
+      }
+      termStart[termCount] = termBytes.size();
+    } finally {
+      postings.close();
+    }
+
+    //  Assemble the file.  Like ExternalIdStore, write to a temporary
+    //  file and rename it, so that a partially written file is never
+    //  mistaken for a complete one.
+
+    byte[] fieldBytes = field.getBytes("UTF-8");
+    long base = HEADER_LENGTH + pad(fieldBytes.length) + 4 * (termCount + 1) + 4 * termCount +
+      pad(termBytes.size());
+    if (base + postingsLength > Integer.MAX_VALUE)
+      throw new IOException("The impact index is larger than 2 GB");
+
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(reader.maxDoc());
+      out.writeLong(indexVersion(reader));
+      out.writeDouble(k1);
+      out.writeDouble(b);
+      out.writeDouble(scale);
+      out.writeInt(termCount);
+      out.writeInt(bits);
+      out.writeInt(fieldBytes.length);
+      out.write(fieldBytes);
+      out.write(new byte[pad(fieldBytes.length) - fieldBytes.length]);
+      for (int i = 0; i <= termCount; i++)
+	out.writeInt(termStart[i]);
+      for (int i = 0; i < termCount; i++)
+	out.writeInt((int) (base + postingsStart[i]));
+      termBytes.writeTo(out);
+      out.write(new byte[pad(termBytes.size()) - termBytes.size()]);
+
+      InputStream in = new BufferedInputStream(new FileInputStream(postingsTmp), 1 << 16);
+      try {
+	byte[] buf = new byte[1 << 16];
+	int r;
+	while ((r = in.read(buf)) > 0)
+	  out.write(buf, 0, r);
+      } finally {
+	in.close();
+      }
+    } finally {
+      out.close();
+      postingsTmp.delete();
+    }
+
+    if (file.exists() && ! file.delete())
+      throw new IOException("Can't replace " + file);
+    if (! tmp.renameTo(file))
+      throw new IOException("Can't create " + file);
+  }
+
+  //  One term's live postings, reused from term to term.
+
+  private static class Postings {
+    int[] docs = new int[64];
+    int[] tfs = new int[64];
+    int df;
+    DocsEnum de;
+
+    void read(TermsEnum te, Bits liveDocs) throws IOException {
+      this.de = te.docs(liveDocs, this.de, DocsEnum.FLAG_FREQS);
+      this.df = 0;
+      for (int d = this.de.nextDoc(); d != DocIdSetIterator.NO_MORE_DOCS; d = this.de.nextDoc()) {
+	if (this.df == this.docs.length) {
+	  this.docs = Arrays.copyOf(this.docs, this.df * 2);
+	  this.tfs = Arrays.copyOf(this.tfs, this.df * 2);
+	}
+	this.docs[this.df] = d;
+	this.tfs[this.df] = this.de.freq();
+	this.df++;
+      }
+    }
+
+    double score(int i, int N, double avglen, NumericDocValues lengths, double k1, double b) {
+      long doclen = lengths.get(this.docs[i]);
+      int tf = this.tfs[i];
+      return Math.log((N-this.df+0.5)/(this.df+0.5))*tf*1.0/(tf+k1*(1-b+b*doclen/avglen));
+    }
+  }
+
+  private static boolean matches(File file, IndexReader reader, String field,
+				 double k1, double b, int bits) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      if (in.readInt() != MAGIC ||
+	  in.readInt() != reader.maxDoc() ||
+	  in.readLong() != indexVersion(reader) ||
+	  in.readDouble() != k1 ||
+	  in.readDouble() != b)
+	return false;
+      in.readDouble();		// scale
+      in.readInt();		// termCount
+      if (in.readInt() != bits)
+	return false;
+      byte[] f = new byte[in.readInt()];
+      in.readFully(f);
+      return field.equals(new String(f, "UTF-8"));
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static long indexVersion(IndexReader reader) {
+    if (reader instanceof DirectoryReader)
+      return ((DirectoryReader) reader).getVersion();
+    return 0;
+  }
+
+  /**
+   *  @return The field that this index covers.
+   */
+  public String field() {
+    return this.field;
+  }
+
+  /**
+   *  @return The index's maxDoc when the impact index was built.
+   */
+  public int maxDoc() {
+    return this.maxDoc;
+  }
+
+  /**
+   *  @return The number of impact levels above 0, 2^bits-1.
+   */
+  public int levels() {
+    return (1 << this.bits) - 1;
+  }
+
+  /**
+   *  An impact divided by scale is the BM25 score it stands for.
+   *  @return The scale.
+   */
+  public double scale() {
+    return this.scale;
+  }
+
+  /**
+   *  Find a term's postings.
+   *  @param term The term.
+   *  @return The file offset of the term's postings, or -1 if the
+   *          term has none.
+   */
+  public int find(BytesRef term) {
+    int lo = 0, hi = this.termCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = compare(mid, term);
+      if (c < 0)
+	lo = mid + 1;
+      else if (c > 0)
+	hi = mid - 1;
+      else
+	return this.buffer.getInt(this.postingsStartStart + 4 * mid);
+    }
+    return -1;
+  }
+
+  private int compare(int i, BytesRef term) {
+    int start = this.termBytesStart + this.buffer.getInt(this.termStartStart + 4 * i);
+    int length = this.termBytesStart + this.buffer.getInt(this.termStartStart + 4 * (i + 1)) - start;
+    int n = Math.min(length, term.length);
+    for (int j = 0; j < n; j++) {
+      int diff = (this.buffer.get(start + j) & 0xff) - (term.bytes[term.offset + j] & 0xff);
+      if (diff != 0)
+	return diff;
+    }
+    return length - term.length;
+  }
+
+  /**
+   *  @param postings The offset returned by {@link #find(BytesRef)}.
+   *  @return The number of segments of the term.
+   */
+  public int segments(int postings) {
+    return this.buffer.getInt(postings);
+  }
+
+  /**
+   *  @return The impact of segment s of the term.
+   */
+  public int impact(int postings, int s) {
+    return this.buffer.getInt(postings + 4 + 8 * s);
+  }
+
+  /**
+   *  @return The number of docids in segment s of the term.
+   */
+  public int count(int postings, int s) {
+    return this.buffer.getInt(postings + 8 + 8 * s);
+  }
+
+  /**
+   *  @return The file offset of the term's first docid.  The docids
+   *          of segment s follow those of segments 0..s-1.
+   */
+  public int docs(int postings) {
+    return postings + 4 + 8 * segments(postings);
+  }
+
+  /**
+   *  @param offset The file offset of a docid.
+   *  @return The docid.
+   */
+  public int doc(int offset) {
+    return this.buffer.getInt(offset);
+  }
+
+  /**
+   *  Build an impact index offline.
+   *
+   *    java ImpactIndex indexPath=DIR [impactIndexPath=FILE] [impactField=body]
+   *         [impactBits=8] [BM25:k_1=1.2] [BM25:b=0.75]
+   *
+   *  The file defaults to impact.idx in java.io.tmpdir, as for
+   *  QryEval.
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq > 0)
+	params.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+    if (! params.containsKey("indexPath")) {
+      System.err.println("Usage:  java ImpactIndex indexPath=DIR [impactIndexPath=FILE]" +
+			 " [impactField=body] [impactBits=8] [BM25:k_1=1.2] [BM25:b=0.75]");
+      System.exit(1);
+    }
+
+    IndexReader reader = DirectoryReader.open(
+      org.apache.lucene.store.FSDirectory.open(new File(params.get("indexPath"))));
+    File file = file(params);
+    long start = System.currentTimeMillis();
+    build(reader, file,
+	  params.containsKey("impactField") ? params.get("impactField") : "body",
+	  params.containsKey("BM25:k_1") ? Double.parseDouble(params.get("BM25:k_1")) : 1.2,
+	  params.containsKey("BM25:b") ? Double.parseDouble(params.get("BM25:b")) : 0.75,
+	  params.containsKey("impactBits") ? Integer.parseInt(params.get("impactBits")) : 8);
+    ImpactIndex index = new ImpactIndex(file);
+    System.out.println("Built " + file + ": " + index.termCount + " terms, " +
+		       file.length() / 1024 + " KB in " +
+		       (System.currentTimeMillis() - start) + " ms");
+    reader.close();
+  }
+
+  /**
+   *  The impact index file: impactIndexPath, or impact.idx in
+   *  java.io.tmpdir under a name that is unique to the index.
+   *  @param params The parameters.
+   *  @return The impact index file.
+   */
+  static File file(Map<String, String> params) {
+    if (params.containsKey("impactIndexPath"))
+      return new File(params.get("impactIndexPath"));
+    return QryEval.indexCacheFile(params.get("indexPath"), "impact.idx");
+  }
+}
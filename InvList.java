@@ -129,6 +129,29 @@ public class InvList {
     return true;
   }
 
+  /**
+   *  Append a posting to the posting list.  Posting must be appended
+   *  in docid order, otherwise this method fails.
+   *  @param docid The posting internal document id.
+   *  @param positions An array that starts with the positions where
+   *         the term occurs.
+   *  @param n The number of positions to use.
+   *  @result true if the posting was added successfully, otherwise false.
+   */
+  public boolean appendPosting (int docid, int[] positions, int n) {
+
+    if ((this.df > 1) &&
+	(this.postings.get(this.df-1).docid >= docid))
+      return false;
+
+    DocPosting p = new DocPosting (docid, Arrays.copyOf(positions, n));
+
+    this.postings.add (p);
+    this.df ++;
+    this.ctf += p.tf;
+    return true;
+  }
+
   /**
    *  Get the n'th document id from the inverted list.
    *  @param n The index of the requested document.
@@ -0,0 +1,126 @@
+/**
+ *  LatencyHistogram counts non-negative long values (usually
+ *  nanoseconds, but any count works) in log-linear buckets, in the
+ *  style of HdrHistogram.  Values below 128 have their own buckets;
+ *  larger values share a bucket with values that have the same
+ *  highest 7 bits, so a reported percentile is within 1/64 (1.6%) of
+ *  the true value.  The histogram has a fixed size of about 30 KB,
+ *  recording is a few shifts and one atomic increment, and many
+ *  threads may record at once.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKETS = 128;
+  private static final int HALF = SUB_BUCKETS / 2;
+  private static final int BUCKETS = SUB_BUCKETS + (63 - 7) * HALF;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   *  Record one value.
+   *  @param value The value.  Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0)
+      value = 0;
+    this.counts.incrementAndGet(index(value));
+    this.count.incrementAndGet();
+    this.sum.addAndGet(value);
+
+    long m;
+    while (value > (m = this.max.get()) && ! this.max.compareAndSet(m, value))
+      ;
+  }
+
+  /**
+   *  Add every value recorded in another histogram to this one.
+   *  @param h The other histogram.
+   */
+  public void add(LatencyHistogram h) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long c = h.counts.get(i);
+      if (c != 0)
+	this.counts.addAndGet(i, c);
+    }
+    this.count.addAndGet(h.count.get());
+    this.sum.addAndGet(h.sum.get());
+    long m;
+    long v = h.max.get();
+    while (v > (m = this.max.get()) && ! this.max.compareAndSet(m, v))
+      ;
+  }
+
+  /**
+   *  Forget all values.  Values recorded while reset runs may be lost.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++)
+      this.counts.set(i, 0);
+    this.count.set(0);
+    this.sum.set(0);
+    this.max.set(0);
+  }
+
+  public long getCount() {
+    return this.count.get();
+  }
+
+  public long getMax() {
+    return this.max.get();
+  }
+
+  public double getMean() {
+    long n = this.count.get();
+    return (n == 0) ? 0.0 : this.sum.get() / (double) n;
+  }
+
+  /**
+   *  Get a percentile.
+   *  @param p The percentile, from 0 to 100.
+   *  @return The smallest recorded value such that p percent of the
+   *          values are at most it, rounded to its bucket's midpoint;
+   *          0 if nothing was recorded.
+   */
+  public long getPercentile(double p) {
+    long n = this.count.get();
+    if (n == 0)
+      return 0;
+
+    long target = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts.get(i);
+      if (seen >= target)
+	return Math.min(midpoint(i), this.max.get());
+    }
+    return this.max.get();
+  }
+
+  /**
+   *  The bucket of a value.
+   */
+  static int index(long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - 6;	// value >>> shift is in [64, 128)
+    return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+  }
+
+  /**
+   *  The middle of the range of values that share a bucket.
+   */
+  static long midpoint(int index) {
+    if (index < SUB_BUCKETS)
+      return index;
+    int shift = (index - SUB_BUCKETS) / HALF + 1;
+    long low = ((long) ((index - SUB_BUCKETS) % HALF + HALF)) << shift;
+    return low + (1L << shift) / 2;
+  }
+}
@@ -0,0 +1,335 @@
+/**
+ *  LtrFeatures computes the feature vectors of the learning-to-rank
+ *  stage ({@link LtrReranker}) for a set of candidate documents.  The
+ *  features are, for each field f of ltrFields:
+ *
+ *    bm25.f      the BM25 score of the query terms in f
+ *    indri.f     the Indri #AND score of the query terms in f
+ *    len.f       the length of f
+ *
+ *  and, from the body term vector:
+ *
+ *    near        #NEAR/1 matches of adjacent query terms
+ *    uw          #UW/ltrWindow matches of adjacent query terms
+ *    coverage    the fraction of the query terms that occur
+ *    tv.unique   the number of distinct terms
+ *    tv.ratio    distinct terms / length
+ *    tv.first    the first position of a query term / length, or 1
+ *
+ *  and stage1, the first-stage score.
+ *
+ *  Work is shared between features.  Each query term's postings in a
+ *  field are read once, frequencies only, by advancing to the
+ *  candidates in docid order; the frequencies feed both bm25.f and
+ *  indri.f, and each field's lengths are read once per candidate.
+ *  Each candidate's body term vector is read once, and one scan of
+ *  its positions finds the query terms' positions for all of the
+ *  proximity and term-vector features.  Feature groups that the model
+ *  doesn't use aren't computed, e.g., term vectors aren't read for a
+ *  model that only uses bm25.body.  Term statistics are cached across
+ *  queries in a {@link TermStatsCache}.  The collection statistics
+ *  belong to one reader, and are replaced when the index is reopened.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+public class LtrFeatures {
+
+  static final String TV_FIELD = "body";
+
+  private static final String[] DOC_FEATURES =
+    { "near", "uw", "coverage", "tv.unique", "tv.ratio", "tv.first", "stage1" };
+
+  //  Feature positions: field i's bm25, indri and len are at 3*i,
+  //  3*i+1 and 3*i+2, and the document features follow.
+
+  private final String[] fields;
+  private final String[] names;
+  private final int docBase;
+
+  //  Which groups are computed.
+
+  private final boolean[] scoreField;
+  private final boolean[] lengthField;
+  private final boolean termVectors;
+
+  private final double k1, b, lambda;
+  private final int mu;
+  private final int window;
+
+  //  The collection statistics of one reader: per field, and cached
+  //  per term.
+
+  private static class CollectionStats {
+    final int[] N;
+    final double[] avglen;
+    final double[] C;
+    final TermStatsCache stats = new TermStatsCache();
+
+    CollectionStats(String[] fields) throws IOException {
+      int n = fields.length;
+      this.N = new int[n];
+      this.avglen = new double[n];
+      this.C = new double[n];
+      for (int i = 0; i < n; i++) {
+	this.N[i] = QryEval.READER.getDocCount(fields[i]);
+	this.C[i] = QryEval.READER.getSumTotalTermFreq(fields[i]);
+	this.avglen[i] = (this.N[i] > 0) ? this.C[i] / this.N[i] : 0.0;
+      }
+    }
+  }
+
+  private CollectionStats collection;
+
+  /**
+   *  @param fields The fields of the per-field features.
+   *  @param used The features to compute, or null for all of them.
+   *  @param k1 BM25 k1.
+   *  @param b BM25 b.
+   *  @param mu Indri mu.
+   *  @param lambda Indri lambda.
+   *  @param window The size of the unordered windows of uw.
+   *  @throws IOException
+   */
+  public LtrFeatures(String[] fields, Set<String> used, double k1, double b,
+		     int mu, double lambda, int window) throws IOException {
+    this.fields = fields;
+    this.k1 = k1;
+    this.b = b;
+    this.mu = mu;
+    this.lambda = lambda;
+    this.window = window;
+
+    int n = fields.length;
+    this.docBase = 3 * n;
+    this.names = new String[this.docBase + DOC_FEATURES.length];
+    for (int i = 0; i < n; i++) {
+      this.names[3 * i] = "bm25." + fields[i];
+      this.names[3 * i + 1] = "indri." + fields[i];
+      this.names[3 * i + 2] = "len." + fields[i];
+    }
+    System.arraycopy(DOC_FEATURES, 0, this.names, this.docBase, DOC_FEATURES.length);
+
+    this.scoreField = new boolean[n];
+    this.lengthField = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      this.scoreField[i] = used(used, 3 * i) || used(used, 3 * i + 1);
+      this.lengthField[i] = this.scoreField[i] || used(used, 3 * i + 2);
+    }
+    this.collection = new CollectionStats(fields);
+
+    boolean tv = false;
+    for (int j = 0; j < 6; j++)
+      tv |= used(used, this.docBase + j);
+    this.termVectors = tv;
+  }
+
+  /**
+   *  Read the collection statistics again, from the reader that
+   *  replaced the old one, and drop the cached term statistics.
+   *  @throws IOException
+   */
+  public void reopen() throws IOException {
+    this.collection = new CollectionStats(this.fields);
+  }
+
+  private boolean used(Set<String> used, int feature) {
+    return used == null || used.contains(this.names[feature]);
+  }
+
+  /**
+   *  @return The names of the features, in vector order.
+   */
+  public String[] names() {
+    return this.names;
+  }
+
+  /**
+   *  @return The number of features in a vector.
+   */
+  public int size() {
+    return this.names.length;
+  }
+
+  /**
+   *  Compute the feature vectors of the candidates.
+   *  @param terms The query terms, in query order.
+   *  @param docs The candidates, in increasing docid order.
+   *  @param stage1 The first-stage score of each candidate.
+   *  @param n The number of candidates.
+   *  @param x The vector of candidate i is x[i*size()..(i+1)*size()).
+   *  @param stopAt The System.nanoTime() after which to give up.
+   *  @return false if the time ran out, or the query's deadline
+   *          passed, before the vectors were done.
+   *  @throws IOException
+   */
+  public boolean extract(String[] terms, int[] docs, double[] stage1, int n, double[] x,
+			 long stopAt) throws IOException {
+
+    int size = size();
+    Arrays.fill(x, 0, n * size, 0.0);
+    CollectionStats cs = this.collection;
+
+    //  The distinct terms, and the slot of each query term.
+
+    List<String> distinct = new ArrayList<String>();
+    int[] slot = new int[terms.length];
+    for (int t = 0; t < terms.length; t++) {
+      slot[t] = distinct.indexOf(terms[t]);
+      if (slot[t] < 0) {
+	slot[t] = distinct.size();
+	distinct.add(terms[t]);
+      }
+    }
+    BytesRef[] bytes = new BytesRef[distinct.size()];
+    for (int s = 0; s < bytes.length; s++)
+      bytes[s] = new BytesRef(distinct.get(s));
+
+    //  Per-field features.
+
+    long[] len = new long[n];
+    double[] logIndri = new double[n];
+    int[] tf = new int[n];
+
+    for (int f = 0; f < this.fields.length; f++) {
+      if (! this.lengthField[f])
+	continue;
+      NumericDocValues lengths = QryEval.dls.getLengths(this.fields[f]);
+      if (lengths == null)
+	continue;
+      for (int i = 0; i < n; i++) {
+	len[i] = lengths.get(docs[i]);
+	x[i * size + 3 * f + 2] = len[i];
+      }
+      if (! this.scoreField[f] || cs.N[f] == 0)
+	continue;
+
+      Arrays.fill(logIndri, 0, n, 0.0);
+      int indriTerms = 0;
+
+      for (int s = 0; s < bytes.length; s++) {
+	if (System.nanoTime() > stopAt || QryDeadline.stop())
+	  return false;
+
+	long ctf = cs.stats.ctf(this.fields[f], bytes[s]);
+	if (ctf == 0)
+	  continue;		// No tf, and no Indri background either.
+	int df = cs.stats.df(this.fields[f], bytes[s]);
+	postings(this.fields[f], bytes[s], docs, n, tf);
+
+	double idf = Math.log((cs.N[f] - df + 0.5) / (df + 0.5));
+	double mle = ctf / cs.C[f];
+	for (int i = 0; i < n; i++) {
+	  if (tf[i] > 0)
+	    x[i * size + 3 * f] +=
+	      idf * tf[i] / (tf[i] + this.k1 * (1 - this.b + this.b * len[i] / cs.avglen[f]));
+	  logIndri[i] += Math.log(this.lambda * (tf[i] + this.mu * mle) / (len[i] + this.mu) +
+				  (1 - this.lambda) * mle);
+	}
+	indriTerms++;
+      }
+
+      if (indriTerms > 0)
+	for (int i = 0; i < n; i++)
+	  x[i * size + 3 * f + 1] = Math.exp(logIndri[i] / indriTerms);
+    }
+
+    //  Term-vector features.
+
+    if (this.termVectors) {
+      Map<BytesRef, Integer> slots = new HashMap<BytesRef, Integer>();
+      for (int s = 0; s < bytes.length; s++)
+	slots.put(bytes[s], s);
+      int[][] pos = new int[bytes.length][16];
+      int[] count = new int[bytes.length];
+      BytesRef ref = new BytesRef();
+
+      for (int i = 0; i < n; i++) {
+	if ((i & 15) == 0 && (System.nanoTime() > stopAt || QryDeadline.stop()))
+	  return false;
+
+	TermVector tv = new TermVector(docs[i], TV_FIELD, cs.stats);
+	int[] stemSlot = new int[tv.stemsLength()];
+	for (int j = 1; j < stemSlot.length; j++) {
+	  Integer s = slots.get(tv.stemBytes(j, ref));
+	  stemSlot[j] = (s == null) ? -1 : s;
+	}
+
+	//  One scan of the positions collects every query term's
+	//  positions, in order.
+
+	Arrays.fill(count, 0);
+	int first = -1;
+	int length = tv.positionsLength();
+	for (int p = 0; p < length; p++) {
+	  int stem = tv.stemAt(p);
+	  if (stem <= 0 || stemSlot[stem] < 0)
+	    continue;
+	  int s = stemSlot[stem];
+	  if (count[s] == pos[s].length)
+	    pos[s] = Arrays.copyOf(pos[s], count[s] * 2);
+	  pos[s][count[s]++] = p;
+	  if (first < 0)
+	    first = p;
+	}
+
+	int near = 0, uw = 0;
+	for (int t = 0; t + 1 < terms.length; t++) {
+	  int a = slot[t], c = slot[t + 1];
+	  if (count[a] == 0 || count[c] == 0)
+	    continue;
+	  near += QryopSlSdm.countOrdered(pos[a], count[a], pos[c], count[c]);
+	  uw += QryopSlSdm.countUnordered(pos[a], count[a], pos[c], count[c], this.window);
+	}
+	int covered = 0;
+	for (int s = 0; s < count.length; s++)
+	  if (count[s] > 0)
+	    covered++;
+
+	int o = i * size + this.docBase;
+	x[o] = near;
+	x[o + 1] = uw;
+	x[o + 2] = (count.length > 0) ? covered / (double) count.length : 0.0;
+	x[o + 3] = stemSlot.length - 1;
+	x[o + 4] = (length > 0) ? (stemSlot.length - 1) / (double) length : 0.0;
+	x[o + 5] = (first >= 0 && length > 0) ? first / (double) length : 1.0;
+      }
+    }
+
+    for (int i = 0; i < n; i++)
+      x[i * size + this.docBase + 6] = stage1[i];
+
+    return true;
+  }
+
+  /**
+   *  Read a term's frequency in each candidate, advancing its postings
+   *  from candidate to candidate.
+   */
+  private static void postings(String field, BytesRef term, int[] docs, int n, int[] tf)
+    throws IOException {
+    Arrays.fill(tf, 0, n, 0);
+    DocsEnum d = MultiFields.getTermDocsEnum(QryEval.READER,
+					     MultiFields.getLiveDocs(QryEval.READER),
+					     field, term, DocsEnum.FLAG_FREQS);
+    if (d == null)
+      return;
+
+    int doc = -1;
+    for (int i = 0; i < n; i++) {
+      if (doc < docs[i])
+	doc = d.advance(docs[i]);
+      if (doc == DocIdSetIterator.NO_MORE_DOCS)
+	return;
+      if (doc == docs[i])
+	tf[i] = d.freq();
+    }
+  }
+}
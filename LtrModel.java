@@ -0,0 +1,278 @@
+/**
+ *  LtrModel scores the feature vectors of the learning-to-rank stage
+ *  ({@link LtrReranker}).  A model is read from a text file whose
+ *  first line names its kind.  Blank lines and lines that start with
+ *  '#' are ignored, and features are named as in {@link LtrFeatures}.
+ *
+ *  A linear model is a weight per feature, and an optional bias:
+ *
+ *    linear
+ *    bias 0.1
+ *    bm25.body 0.8
+ *    near 0.05
+ *
+ *  A tree ensemble is a list of weighted regression trees.  Nodes are
+ *  numbered within their tree, node 0 is the root, and a node's
+ *  children have larger numbers than the node.  A split sends a
+ *  document left if its feature value is <= the threshold:
+ *
+ *    trees
+ *    tree 0.5
+ *    0 split bm25.body 2.5 1 2
+ *    1 leaf -0.3
+ *    2 split near 0 3 4
+ *    3 leaf 0.1
+ *    4 leaf 0.6
+ *
+ *  The score is the weighted sum of the leaves that the document
+ *  reaches.  Trees are stored in flat arrays, so scoring a document
+ *  doesn't follow object references.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public abstract class LtrModel {
+
+  /**
+   *  @return The names of the features the model reads.
+   */
+  public abstract Set<String> features();
+
+  /**
+   *  Resolve feature names to positions in a feature vector.  This
+   *  must be called once before {@link #score(double[], int)}.
+   *  @param names The names of the features, in vector order.
+   *  @throws IllegalArgumentException if the model reads a feature
+   *          that isn't in names.
+   */
+  public abstract void bind(String[] names);
+
+  /**
+   *  Score one feature vector.
+   *  @param x The feature vectors.
+   *  @param offset The first feature of the vector to score.
+   *  @return The score.
+   */
+  public abstract double score(double[] x, int offset);
+
+  /**
+   *  Read a model file.
+   *  @param file The file.
+   *  @return The model.
+   *  @throws IOException
+   *  @throws IllegalArgumentException if the file is malformed.
+   */
+  public static LtrModel read(File file) throws IOException {
+    List<String[]> lines = new ArrayList<String[]>();
+    List<Integer> numbers = new ArrayList<Integer>();
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      for (int n = 1; (line = br.readLine()) != null; n++) {
+	line = line.trim();
+	if (line.length() == 0 || line.charAt(0) == '#')
+	  continue;
+	lines.add(line.split("\\s+"));
+	numbers.add(n);
+      }
+    } finally {
+      br.close();
+    }
+
+    if (lines.isEmpty())
+      throw new IllegalArgumentException("empty model");
+    String kind = lines.get(0)[0];
+    if (kind.equals("linear"))
+      return new Linear(lines, numbers);
+    if (kind.equals("trees"))
+      return new Trees(lines, numbers);
+    throw new IllegalArgumentException("line " + numbers.get(0) +
+				       ": unknown model kind " + kind);
+  }
+
+  private static double number(String s, int line) {
+    try {
+      return Double.parseDouble(s);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("line " + line + ": bad number " + s);
+    }
+  }
+
+  private static int index(String[] names, String name) {
+    for (int i = 0; i < names.length; i++)
+      if (names[i].equals(name))
+	return i;
+    throw new IllegalArgumentException("unknown feature " + name);
+  }
+
+  //  A weighted sum of features.
+
+  static class Linear extends LtrModel {
+    private final String[] names;
+    private final double[] weights;
+    private double bias = 0.0;
+    private int[] at;
+
+    Linear(List<String[]> lines, List<Integer> numbers) {
+      int n = lines.size() - 1;
+      this.names = new String[n];
+      this.weights = new double[n];
+      int size = 0;
+      for (int i = 1; i < lines.size(); i++) {
+	String[] l = lines.get(i);
+	if (l.length != 2)
+	  throw new IllegalArgumentException("line " + numbers.get(i) +
+					     ": expected \"feature weight\"");
+	double w = number(l[1], numbers.get(i));
+	if (l[0].equals("bias"))
+	  this.bias += w;
+	else {
+	  this.names[size] = l[0];
+	  this.weights[size] = w;
+	  size++;
+	}
+      }
+      this.at = new int[size];
+    }
+
+    public Set<String> features() {
+      Set<String> s = new HashSet<String>();
+      for (int i = 0; i < this.at.length; i++)
+	s.add(this.names[i]);
+      return s;
+    }
+
+    public void bind(String[] names) {
+      for (int i = 0; i < this.at.length; i++)
+	this.at[i] = index(names, this.names[i]);
+    }
+
+    public double score(double[] x, int offset) {
+      double s = this.bias;
+      for (int i = 0; i < this.at.length; i++)
+	s += this.weights[i] * x[offset + this.at[i]];
+      return s;
+    }
+  }
+
+  //  Regression trees.  Node j of the ensemble is a leaf if
+  //  feature[j] < 0, and then value[j] is its output; otherwise
+  //  value[j] is the threshold, and left[j] and right[j] are the
+  //  children.  featureNames[j] is resolved to feature[j] by bind.
+
+  static class Trees extends LtrModel {
+    private int[] roots = new int[8];
+    private double[] treeWeights = new double[8];
+    private int trees = 0;
+
+    private String[] featureNames = new String[64];
+    private int[] feature;
+    private double[] value = new double[64];
+    private int[] left = new int[64];
+    private int[] right = new int[64];
+    private int nodes = 0;
+
+    Trees(List<String[]> lines, List<Integer> numbers) {
+      int i = 1;
+      while (i < lines.size()) {
+	String[] l = lines.get(i);
+	int line = numbers.get(i);
+	if (! l[0].equals("tree") || l.length != 2)
+	  throw new IllegalArgumentException("line " + line + ": expected \"tree weight\"");
+	double weight = number(l[1], line);
+	i++;
+
+	int start = i;
+	while (i < lines.size() && ! lines.get(i)[0].equals("tree"))
+	  i++;
+	addTree(weight, lines.subList(start, i), numbers.subList(start, i), line);
+      }
+      if (this.trees == 0)
+	throw new IllegalArgumentException("no trees");
+      this.feature = new int[this.nodes];
+    }
+
+    private void addTree(double weight, List<String[]> lines, List<Integer> numbers,
+			 int treeLine) {
+      int n = lines.size();
+      if (n == 0)
+	throw new IllegalArgumentException("line " + treeLine + ": tree has no nodes");
+
+      int base = this.nodes;
+      grow(base + n);
+      boolean[] seen = new boolean[n];
+
+      for (int i = 0; i < n; i++) {
+	String[] l = lines.get(i);
+	int line = numbers.get(i);
+	int id = (int) number(l[0], line);
+	if (id < 0 || id >= n || seen[id])
+	  throw new IllegalArgumentException("line " + line + ": bad node number " + l[0]);
+	seen[id] = true;
+
+	int j = base + id;
+	if (l.length == 3 && l[1].equals("leaf")) {
+	  this.featureNames[j] = null;
+	  this.value[j] = number(l[2], line);
+	} else if (l.length == 6 && l[1].equals("split")) {
+	  int a = (int) number(l[4], line);
+	  int b = (int) number(l[5], line);
+	  if (a <= id || b <= id || a >= n || b >= n)
+	    throw new IllegalArgumentException("line " + line +
+					       ": children must be later nodes of the tree");
+	  this.featureNames[j] = l[2];
+	  this.value[j] = number(l[3], line);
+	  this.left[j] = base + a;
+	  this.right[j] = base + b;
+	} else
+	  throw new IllegalArgumentException("line " + line +
+					     ": expected \"id leaf value\" or" +
+					     " \"id split feature threshold left right\"");
+      }
+
+      if (this.trees == this.roots.length) {
+	this.roots = Arrays.copyOf(this.roots, this.trees * 2);
+	this.treeWeights = Arrays.copyOf(this.treeWeights, this.trees * 2);
+      }
+      this.roots[this.trees] = base;
+      this.treeWeights[this.trees] = weight;
+      this.trees++;
+      this.nodes = base + n;
+    }
+
+    private void grow(int size) {
+      if (size <= this.value.length)
+	return;
+      int n = Math.max(size, this.value.length * 2);
+      this.featureNames = Arrays.copyOf(this.featureNames, n);
+      this.value = Arrays.copyOf(this.value, n);
+      this.left = Arrays.copyOf(this.left, n);
+      this.right = Arrays.copyOf(this.right, n);
+    }
+
+    public Set<String> features() {
+      Set<String> s = new HashSet<String>();
+      for (int j = 0; j < this.nodes; j++)
+	if (this.featureNames[j] != null)
+	  s.add(this.featureNames[j]);
+      return s;
+    }
+
+    public void bind(String[] names) {
+      for (int j = 0; j < this.nodes; j++)
+	this.feature[j] = (this.featureNames[j] == null) ? -1 : index(names, this.featureNames[j]);
+    }
+
+    public double score(double[] x, int offset) {
+      double s = 0.0;
+      for (int t = 0; t < this.trees; t++) {
+	int j = this.roots[t];
+	while (this.feature[j] >= 0)
+	  j = (x[offset + this.feature[j]] <= this.value[j]) ? this.left[j] : this.right[j];
+	s += this.treeWeights[t] * this.value[j];
+      }
+      return s;
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/**
+ *  LtrReranker is a learning-to-rank stage that re-ranks the top
+ *  ltrDepth documents of the first-stage ranking (BM25, Indri, or
+ *  feedback) with a model read from ltrModel ({@link LtrModel}).  The
+ *  features are computed for all candidates at once by
+ *  {@link LtrFeatures}.  Only the re-ranked documents are returned.
+ *
+ *  Each stage has a latency budget.  If the first stage took longer
+ *  than ltrFirstStageBudget milliseconds, the query isn't re-ranked.
+ *  If features and scoring take longer than ltrBudget milliseconds,
+ *  or the query's deadline passes in partial mode, re-ranking stops
+ *  and the first-stage ranking is returned.  A summary of the stage
+ *  times is printed at the end of the run.
+ *
+ *  With ltrFeatureFile, the candidates' feature vectors are also
+ *  written in the SVMlight/RankLib format, with label 0 and the
+ *  external id as a comment, for training models.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LtrReranker {
+
+  static final String DEFAULT_FIELDS = "body,title,url,inlink";
+
+  private final int depth;
+  private final LtrModel model;
+  private final LtrFeatures features;
+  private final long firstStageBudget;	// nanoseconds, 0 for none
+  private final long budget;		// nanoseconds, 0 for none
+  private BufferedWriter featureWriter = null;
+
+  private final LatencyHistogram extractTimes = new LatencyHistogram();
+  private final LatencyHistogram scoreTimes = new LatencyHistogram();
+  private final AtomicLong reranked = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong overBudget = new AtomicLong();
+
+  /**
+   *  Configure the stage from the parameter file.
+   *  @param params The parameters.  ltrModel is required unless
+   *         ltrFeatureFile is given; ltrDepth, ltrFields, ltrWindow,
+   *         ltrFirstStageBudget and ltrBudget are optional.  The BM25
+   *         and Indri features use the BM25: and Indri: parameters
+   *         if they are given.
+   *  @throws Exception
+   */
+  public LtrReranker(Map<String, String> params) throws Exception {
+
+    if (! params.containsKey("ltrModel") && ! params.containsKey("ltrFeatureFile"))
+      QryEval.fatalError("Error: ltr=true requires ltrModel or ltrFeatureFile.");
+
+    this.depth = intParam(params, "ltrDepth", 100);
+    this.firstStageBudget = millis(params, "ltrFirstStageBudget");
+    this.budget = millis(params, "ltrBudget");
+    if (this.depth < 1)
+      QryEval.fatalError("Error: Invalid ltrDepth.");
+
+    LtrModel model = null;
+    if (params.containsKey("ltrModel")) {
+      try {
+	model = LtrModel.read(new File(params.get("ltrModel")));
+      } catch (IllegalArgumentException e) {
+	QryEval.fatalError("Error: ltrModel: " + e.getMessage());
+      }
+    }
+    this.model = model;
+
+    String[] fields = (params.containsKey("ltrFields") ?
+		       params.get("ltrFields") : DEFAULT_FIELDS).split(",");
+    for (int i = 0; i < fields.length; i++)
+      fields[i] = fields[i].trim();
+
+    //  Writing training data needs every feature; otherwise only
+    //  the model's features are computed.
+
+    Set<String> used = params.containsKey("ltrFeatureFile") ? null : model.features();
+    this.features = new LtrFeatures(fields, used,
+				    doubleParam(params, "BM25:k_1", 1.2),
+				    doubleParam(params, "BM25:b", 0.75),
+				    intParam(params, "Indri:mu", 2500),
+				    doubleParam(params, "Indri:lambda", 0.4),
+				    intParam(params, "ltrWindow", 8));
+
+    if (this.model != null) {
+      try {
+	this.model.bind(this.features.names());
+      } catch (IllegalArgumentException e) {
+	QryEval.fatalError("Error: ltrModel: " + e.getMessage());
+      }
+    }
+
+    if (params.containsKey("ltrFeatureFile")) {
+      this.featureWriter = new BufferedWriter(new FileWriter(new File(params.get("ltrFeatureFile"))));
+      String[] names = this.features.names();
+      StringBuilder b = new StringBuilder("#");
+      for (int i = 0; i < names.length; i++)
+	b.append(' ').append(i + 1).append(':').append(names[i]);
+      this.featureWriter.write(b.append('\n').toString());
+    }
+  }
+
+  private static int intParam(Map<String, String> params, String key, int defaultValue) {
+    return params.containsKey(key) ? Integer.parseInt(params.get(key)) : defaultValue;
+  }
+
+  private static double doubleParam(Map<String, String> params, String key, double defaultValue) {
+    return params.containsKey(key) ? Double.parseDouble(params.get(key)) : defaultValue;
+  }
+
+  private static long millis(Map<String, String> params, String key) {
+    return TimeUnit.NANOSECONDS.convert(intParam(params, key, 0), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   *  Re-rank the top of a first-stage ranking.
+   *  @param queryno The query id.
+   *  @param qTree The query, which supplies the query terms.
+   *  @param initial The first-stage result.
+   *  @param firstStageNanos The time the first stage took.
+   *  @return The re-ranked documents, or initial if the query was
+   *          skipped or went over budget.
+   *  @throws IOException
+   */
+  public QryResult rerank(int queryno, Qryop qTree, QryResult initial, long firstStageNanos)
+    throws IOException {
+
+    ScoreList ranking = initial.docScores;
+    if (ranking.scores.size() == 0)
+      return initial;
+
+    if (this.firstStageBudget > 0 && firstStageNanos > this.firstStageBudget) {
+      this.skipped.incrementAndGet();
+      return initial;
+    }
+
+    long start = System.nanoTime();
+    long stopAt = (this.budget > 0) ? start + this.budget : Long.MAX_VALUE;
+
+    //  The candidates, in docid order.
+
+    int[] top = ranking.top(this.depth, QryEval.eids, null);
+    int n = Math.min(this.depth, ranking.scores.size());
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++)
+      order[i] = ((long) ranking.getDocid(top[i]) << 32) | top[i];
+    Arrays.sort(order);
+
+    int[] docs = new int[n];
+    double[] stage1 = new double[n];
+    for (int i = 0; i < n; i++) {
+      docs[i] = (int) (order[i] >>> 32);
+      stage1[i] = ranking.getDocidScore((int) order[i]);
+    }
+
+    int size = this.features.size();
+    double[] x = new double[n * size];
+    if (! this.features.extract(terms(qTree), docs, stage1, n, x, stopAt)) {
+      this.overBudget.incrementAndGet();
+      return initial;
+    }
+    long extracted = System.nanoTime();
+    this.extractTimes.record(extracted - start);
+
+    if (this.featureWriter != null)
+      writeFeatures(queryno, docs, n, x, size);
+    if (this.model == null)
+      return initial;
+
+    QryResult result = new QryResult();
+    for (int i = 0; i < n; i++)
+      result.docScores.add(docs[i], this.model.score(x, i * size));
+
+    long scored = System.nanoTime();
+    this.scoreTimes.record(scored - extracted);
+    if (this.budget > 0 && scored > stopAt) {
+      this.overBudget.incrementAndGet();
+      return initial;
+    }
+
+    this.reranked.incrementAndGet();
+    return result;
+  }
+
+  /**
+   *  The terms of a query, in query order.
+   */
+  static String[] terms(Qryop q) {
+    List<String> terms = new ArrayList<String>();
+    addTerms(q, terms);
+    return terms.toArray(new String[terms.size()]);
+  }
+
+  private static void addTerms(Qryop q, List<String> terms) {
+    if (q instanceof QryopIlTerm)
+      terms.add(((QryopIlTerm) q).getTerm());
+    else
+      for (int i = 0; i < q.args.size(); i++)
+	addTerms(q.args.get(i), terms);
+  }
+
+  private void writeFeatures(int queryno, int[] docs, int n, double[] x, int size)
+    throws IOException {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      b.append("0 qid:").append(queryno);
+      for (int j = 0; j < size; j++)
+	b.append(' ').append(j + 1).append(':').append((float) x[i * size + j]);
+      b.append(" # ").append(QryEval.getExternalDocid(docs[i])).append('\n');
+    }
+    synchronized (this.featureWriter) {
+      this.featureWriter.write(b.toString());
+    }
+  }
+
+  /**
+   *  Print how many queries were re-ranked and the stage times.
+   *  @param out Where to print.
+   */
+  public void printSummary(PrintStream out) {
+    out.println("LTR: " + this.reranked.get() + " re-ranked, " +
+		this.skipped.get() + " skipped (first stage over budget), " +
+		this.overBudget.get() + " over budget");
+    out.println("  features ms  p50 " + ms(this.extractTimes.getPercentile(50)) +
+		"  p99 " + ms(this.extractTimes.getPercentile(99)) +
+		"  max " + ms(this.extractTimes.getMax()));
+    out.println("  scoring ms   p50 " + ms(this.scoreTimes.getPercentile(50)) +
+		"  p99 " + ms(this.scoreTimes.getPercentile(99)) +
+		"  max " + ms(this.scoreTimes.getMax()));
+  }
+
+  private static double ms(long nanos) {
+    return Math.round(nanos / 1e3) / 1e3;
+  }
+
+  /**
+   *  The index was reopened: compute features from the new reader's
+   *  collection statistics.
+   *  @throws IOException
+   */
+  public void reopen() throws IOException {
+    this.features.reopen();
+  }
+
+  /**
+   *  Close the feature file.
+   *  @throws IOException
+   */
+  public void close() throws IOException {
+    if (this.featureWriter != null)
+      this.featureWriter.close();
+  }
+}
@@ -0,0 +1,200 @@
+/**
+ *  QryDeadline is the time limit of the query that the current thread
+ *  is evaluating.  Query operators call {@link #check()} as they work;
+ *  once the deadline has passed, or the query was cancelled, check
+ *  throws a {@link QryTimeoutException} that unwinds the evaluation.
+ *  Cancellation is cooperative: an operator that doesn't call check
+ *  runs to completion.
+ *
+ *  In partial mode a passed deadline doesn't throw.  Instead, the
+ *  document loop that notices it stops, and the operator that was
+ *  running returns the documents it has scored so far.  Their scores
+ *  are exact for that operator.  No other operator is evaluated after
+ *  that: the operator's parent calls {@link #finish(QryResult)}, which
+ *  throws a {@link QryTruncatedException} that carries the partial
+ *  result up to {@link QryEval#evaluateQuery}.  A partial result is
+ *  therefore ranked by the operator that was running, which may be a
+ *  part of the query, and not by a merge of lists that were cut off
+ *  at different places.
+ *
+ *  The deadline is kept in a ThreadLocal so that it doesn't have to
+ *  be passed to every operator, in the same way that the index is a
+ *  global in {@link QryEval}.  A thread with no deadline is never
+ *  cancelled.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+public class QryDeadline {
+
+  //  Document loops call stop() when (count & CHECK_MASK) == 0.
+
+  static final int CHECK_INTERVAL = 1024;
+  static final int CHECK_MASK = CHECK_INTERVAL - 1;
+
+  private static final ThreadLocal<QryDeadline> CURRENT = new ThreadLocal<QryDeadline>();
+
+  private final long timeoutMillis;
+  private final long deadline;		// System.nanoTime() value
+  private final boolean partial;
+  private volatile boolean cancelled = false;
+  private volatile boolean truncated = false;
+
+  /**
+   *  Create a deadline in abort mode.
+   *  @param timeoutMillis The time limit in milliseconds, starting now.
+   */
+  public QryDeadline(long timeoutMillis) {
+    this(timeoutMillis, false);
+  }
+
+  /**
+   *  @param timeoutMillis The time limit in milliseconds, starting now.
+   *  @param partial True to return partial results when the deadline
+   *         passes, false to abort the query.
+   */
+  public QryDeadline(long timeoutMillis, boolean partial) {
+    this.timeoutMillis = timeoutMillis;
+    this.partial = partial;
+    this.deadline = System.nanoTime() + TimeUnit.NANOSECONDS.convert(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   *  Make a deadline the current thread's deadline.
+   *  @param d The deadline, or null to remove the current one.
+   */
+  public static void set(QryDeadline d) {
+    if (d == null)
+      CURRENT.remove();
+    else
+      CURRENT.set(d);
+  }
+
+  /**
+   *  @return The current thread's deadline, or null.
+   */
+  public static QryDeadline current() {
+    return CURRENT.get();
+  }
+
+  /**
+   *  Throw if the current thread's query must be aborted.  In partial
+   *  mode a passed deadline doesn't throw; it is left for the next
+   *  document loop to notice, so that the operator that stops has a
+   *  partial result to return.
+   *  @throws QryTimeoutException if the query was cancelled, or if
+   *          the deadline has passed in abort mode.
+   */
+  public static void check() throws QryTimeoutException {
+    QryDeadline d = CURRENT.get();
+    if (d == null)
+      return;
+    if (! d.partial)
+      d.expired();
+    else if (d.cancelled)
+      throw new QryTimeoutException("Query cancelled");
+  }
+
+  /**
+   *  Decide whether the current thread's document loop should stop.
+   *  @return true if the deadline has passed in partial mode.
+   *  @throws QryTimeoutException if the query was cancelled, or if
+   *          the deadline has passed in abort mode.
+   */
+  public static boolean stop() throws QryTimeoutException {
+    QryDeadline d = CURRENT.get();
+    return (d != null) && d.expired();
+  }
+
+  /**
+   *  Called by an operator after it evaluates an argument.  If the
+   *  current thread's query was truncated, the argument's result is
+   *  the partial result of the query.
+   *  @param result The argument's result.
+   *  @throws QryTruncatedException if a loop stopped early.
+   */
+  public static void finish(QryResult result) throws QryTruncatedException {
+    QryDeadline d = CURRENT.get();
+    if (d != null && d.truncated)
+      throw new QryTruncatedException(result);
+  }
+
+  /**
+   *  @return true if the current thread's query was truncated.
+   */
+  public static boolean truncated() {
+    QryDeadline d = CURRENT.get();
+    return (d != null) && d.truncated;
+  }
+
+  /**
+   *  Check this deadline.
+   *  @return true if it has passed in partial mode.
+   *  @throws QryTimeoutException if the query was cancelled, or if
+   *          the deadline has passed in abort mode.
+   */
+  public boolean expired() throws QryTimeoutException {
+    if (this.cancelled)
+      throw new QryTimeoutException("Query cancelled");
+    if (this.truncated)
+      return true;
+    if (System.nanoTime() - this.deadline <= 0)
+      return false;
+    if (! this.partial)
+      throw new QryTimeoutException("Query exceeded " + this.timeoutMillis + " ms");
+    this.truncated = true;
+    return true;
+  }
+
+  /**
+   *  @return true if some loop stopped early, so the result is partial.
+   */
+  public boolean isTruncated() {
+    return this.truncated;
+  }
+
+  /**
+   *  Parse a timeout mode parameter.
+   *  @param mode "abort" or "partial".
+   *  @return true for partial.
+   */
+  public static boolean isPartialMode(String mode) {
+    if (mode == null || mode.equals("abort"))
+      return false;
+    if (mode.equals("partial"))
+      return true;
+    QryEval.fatalError("Error: queryTimeoutAction must be abort or partial.");
+    return false;
+  }
+
+  /**
+   *  Split an optional per-query timeout off a query id.  "10@250"
+   *  is query 10 with a 250 ms limit.
+   *  @param id The text before the ':' of a query line.
+   *  @param timeoutMillis The default timeout.
+   *  @return {queryno, timeout in ms}.
+   *  @throws NumberFormatException if the id is malformed.
+   */
+  public static long[] parseQueryId(String id, long timeoutMillis) {
+    int at = id.indexOf('@');
+    if (at < 0)
+      return new long[] { Integer.parseInt(id.trim()), timeoutMillis };
+    return new long[] { Integer.parseInt(id.substring(0, at).trim()),
+			Long.parseLong(id.substring(at + 1).trim()) };
+  }
+
+  /**
+   *  Ask the thread evaluating this query to stop at its next check.
+   */
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  /**
+   *  @return The time left in milliseconds; 0 if it has passed.
+   */
+  public long remainingMillis() {
+    long left = this.deadline - System.nanoTime();
+    return (left <= 0) ? 0 : TimeUnit.MILLISECONDS.convert(left, TimeUnit.NANOSECONDS);
+  }
+}
@@ -11,11 +11,12 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
@@ -36,6 +37,19 @@ public class QryEval {
 
 	public static IndexReader READER;
 	public static DocLengthStore dls;
+	public static ExternalIdStore eids;
+
+	//  Per-query profiles are collected only if profile=true.
+
+	static QryProfiler profiler = null;
+
+	//  Latency and allocation of every query.
+
+	static QryStats stats = null;
+
+	//  The learning-to-rank stage, if ltr=true.
+
+	static LtrReranker reranker = null;
 
 	//  Create and configure an English analyzer that will be used for
 	//  query parsing.
@@ -48,6 +62,14 @@ public class QryEval {
 		analyzer.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
 	}
 
+	//  Recently tokenized query terms.  The cache is cleared when it
+	//  reaches STEM_CACHE_SIZE entries, which keeps it bounded without
+	//  any bookkeeping on hits.
+
+	static final int STEM_CACHE_SIZE = 100000;
+	static final ConcurrentHashMap<String, String[]> stemCache =
+			new ConcurrentHashMap<String, String[]>();
+
 	/**
 	 *  @param args The only argument is the path to the parameter file.
 	 *  @throws Exception
@@ -71,14 +93,30 @@ public class QryEval {
 		} while (scan.hasNext());
 		scan.close();
 
-		// parameters required for this example to run
+		// parameters required for this example to run; a server reads
+		// queries from clients instead of a query file
+		boolean server = params.containsKey("server");
 		if (!params.containsKey("indexPath") || !params.containsKey("retrievalAlgorithm")
-				||!params.containsKey("queryFilePath")||!params.containsKey("trecEvalOutputPath")) {
+				|| (!server && (!params.containsKey("queryFilePath")
+						|| !params.containsKey("trecEvalOutputPath")))) {
 			System.err.println("Error: Parameters were missing.");
 			System.exit(1);
 		}
 
 
+		if (params.containsKey("stemCacheSize"))
+			analyzer.setStemCacheSize(Integer.parseInt(params.get("stemCacheSize")));
+
+		// #SCORE scores blocks of postings with the vector kernel if the
+		// JVM has the Vector API, else the scalar one
+		if (params.containsKey("scoreKernel")) {
+			try {
+				ScoreKernel.select(params.get("scoreKernel"));
+			} catch (IllegalArgumentException e) {
+				fatalError("Error: scoreKernel: " + e.getMessage());
+			}
+		}
+
 		// open the index
 		READER = DirectoryReader.open(FSDirectory.open(new File(params.get("indexPath"))));
 
@@ -89,6 +127,9 @@ public class QryEval {
 
 		dls = new DocLengthStore(READER);
 
+		// external ids are copied out of the index once and memory-mapped
+		eids = ExternalIdStore.open(READER, externalIdFile(params));
+
 		//Decide model
 		RetrievalModel model;
 		if(params.get("retrievalAlgorithm").equals("UnrankedBoolean"))
@@ -101,6 +142,57 @@ public class QryEval {
 			double b = Double.parseDouble(params.get("BM25:b"));
 			double k3 = Double.parseDouble(params.get("BM25:k_3"));
 			model = new RetrievalModelBM25(k1,b,k3);
+			// bag-of-words queries may be evaluated score-at-a-time over an
+			// impact-ordered index, which is built if it is missing or stale
+			if (params.containsKey("BM25:saat") && params.get("BM25:saat").equalsIgnoreCase("true")) {
+				String stop = params.containsKey("BM25:saat.stop") ? params.get("BM25:saat.stop") : "set";
+				if (!stop.equals("set") && !stop.equals("order") && !stop.equals("none"))
+					fatalError("Error: BM25:saat.stop must be set, order or none.");
+				int k = params.containsKey("BM25:saat.k") ? Integer.parseInt(params.get("BM25:saat.k")) : 100;
+				long postings = params.containsKey("BM25:saat.postings") ?
+						Long.parseLong(params.get("BM25:saat.postings")) : 0;
+				int bits = params.containsKey("impactBits") ? Integer.parseInt(params.get("impactBits")) : 8;
+				ImpactIndex index = null;
+				try {
+					index = ImpactIndex.open(READER, ImpactIndex.file(params), "body", k1, b, bits);
+				} catch (IllegalArgumentException e) {
+					fatalError("Error: " + e.getMessage());
+				}
+				((RetrievalModelBM25) model).setSaat(index, stop.equals("none") ? 0 : k,
+						stop.equals("order"), postings);
+			}
+			// term scores may be quantized to integer impacts, which #SUM adds as ints
+			if (params.containsKey("BM25:quantize") && params.get("BM25:quantize").equalsIgnoreCase("true")) {
+				int bits = params.containsKey("BM25:quantize.bits") ?
+						Integer.parseInt(params.get("BM25:quantize.bits")) : 16;
+				int lengthBits = params.containsKey("BM25:quantize.lengthBits") ?
+						Integer.parseInt(params.get("BM25:quantize.lengthBits")) : 6;
+				try {
+					((RetrievalModelBM25) model).setQuantizer(new QuantizedBM25(k1, b, bits, lengthBits));
+				} catch (IllegalArgumentException e) {
+					fatalError("Error: BM25:quantize: " + e.getMessage());
+				}
+			}
+		}
+		else if(params.get("retrievalAlgorithm").toLowerCase().equals("bm25f")){
+			double k1 = Double.parseDouble(params.get("BM25:k_1"));
+			double b = Double.parseDouble(params.get("BM25:b"));
+			double k3 = Double.parseDouble(params.get("BM25:k_3"));
+			FieldWeights fields = fieldWeights(params, "BM25F:fields",
+					RetrievalModelBM25F.DEFAULT_FIELDS);
+			model = new RetrievalModelBM25F(k1,b,k3,fields);
+			// a field may have its own b, e.g., BM25F:b.title=0.5
+			for (int i = 0; i < fields.size(); i++) {
+				String key = "BM25F:b." + fields.getField(i);
+				if (params.containsKey(key))
+					model.setParameter("b." + fields.getField(i), Double.parseDouble(params.get(key)));
+			}
+		}
+		else if(params.get("retrievalAlgorithm").toLowerCase().equals("indrifielded")){
+			int mu = Integer.parseInt(params.get("Indri:mu"));
+			double lambda = Double.parseDouble(params.get("Indri:lambda"));
+			model = new RetrievalModelIndriFielded(mu, lambda, fieldWeights(params,
+					"IndriFielded:fields", RetrievalModelIndriFielded.DEFAULT_FIELDS));
 		}
 		else if(params.get("retrievalAlgorithm").toLowerCase().equals("indri")){
 			int mu = Integer.parseInt(params.get("Indri:mu"));
@@ -113,6 +205,11 @@ public class QryEval {
 				System.err.println("Error: Unknown Indri smoothing type.");
 				System.exit(1);
 			}
+			// unstructured queries may be expanded with the sequential dependence model
+			if (params.containsKey("Indri:sdm") && params.get("Indri:sdm").equalsIgnoreCase("true"))
+				((RetrievalModelIndri) model).setSdm(sdmWeights(params),
+						params.containsKey("Indri:sdm.window") ?
+						Integer.parseInt(params.get("Indri:sdm.window")) : 8);
 		}
 		else{
 			model = null;
@@ -121,6 +218,40 @@ public class QryEval {
 		}
 
 
+		stats = new QryStats(params.containsKey("reportInterval") ?
+				Long.parseLong(params.get("reportInterval")) : 0);
+		if (params.containsKey("profile") && params.get("profile").equalsIgnoreCase("true"))
+			profiler = new QryProfiler(params);
+
+		// pseudo-relevance feedback is optional
+		RelevanceFeedback feedback = null;
+		if (params.containsKey("fb") && params.get("fb").equalsIgnoreCase("true"))
+			feedback = new RelevanceFeedback(params);
+
+		// the top documents may be re-ranked by a learned model
+		if (params.containsKey("ltr") && params.get("ltr").equalsIgnoreCase("true"))
+			reranker = new LtrReranker(params);
+
+		if (server) {
+			new QryServer(params, model, feedback).serve(params.get("server"));
+			if (feedback != null)
+				feedback.close();
+			if (profiler != null) {
+				profiler.printSummary(System.err);
+				profiler.close();
+			}
+			stats.printSummary(System.err);
+			if (reranker != null) {
+				reranker.printSummary(System.err);
+				reranker.close();
+			}
+			if (params.containsKey("statsFile"))
+				stats.write(new File(params.get("statsFile")));
+			stats.close();
+			READER.close();
+			return;
+		}
+
 		//Read from query file
 		BufferedReader br = null;
 		try{
@@ -131,32 +262,45 @@ public class QryEval {
 			System.exit(1);
 		}
 
-		BufferedWriter writer = null;
+		TrecWriter writer = null;
 
 		try{
-			writer = new BufferedWriter(new FileWriter(new File(params.get("trecEvalOutputPath"))));
+			writer = new TrecWriter(new File(params.get("trecEvalOutputPath")), eids, "run-1");
 		}
 		catch(IOException e){
 			System.err.println("Error: Result file can't be created");
 			System.exit(1);
 		}
-		String singleLine;
-		while ((singleLine = br.readLine()) != null) {
-			// process the line.
-			Qryop qTree;
-			int tempindex = singleLine.indexOf(":");
-			if(tempindex == -1) continue;
-			int queryno = Integer.parseInt(singleLine.substring(0,tempindex).trim());
-			String query = singleLine.substring(tempindex+1).trim();
-			System.out.println(queryno + " : [" + query + "] start");
-			qTree = parseQuery (query, model);
-			QryResult res= qTree.evaluate(model);
-			printResults (queryno, query, res,writer);
-			System.out.println(queryno + " : [" + query + "] done");
-			writer.write("\n");
-		}
+
+		// queries are parsed, evaluated and written by overlapping stages
+		int evalThreads = params.containsKey("evalThreads") ?
+				Integer.parseInt(params.get("evalThreads")) :
+				Runtime.getRuntime().availableProcessors();
+		int pipelineDepth = params.containsKey("pipelineDepth") ?
+				Integer.parseInt(params.get("pipelineDepth")) : 4 * evalThreads;
+		QryopSlSaat.setPoolSize(evalThreads);
+		QryPipeline pipeline = new QryPipeline(model, feedback, writer, evalThreads, pipelineDepth);
+		if (params.containsKey("queryTimeout"))
+			pipeline.setTimeout(Long.parseLong(params.get("queryTimeout")),
+					QryDeadline.isPartialMode(params.get("queryTimeoutAction")));
+		pipeline.run(br);
+		pipeline.printTimes(System.out);
 		br.close();
 		writer.close();
+		if (feedback != null)
+			feedback.close();
+		if (profiler != null) {
+			profiler.printSummary(System.out);
+			profiler.close();
+		}
+		stats.printSummary(System.out);
+		if (reranker != null) {
+			reranker.printSummary(System.out);
+			reranker.close();
+		}
+		if (params.containsKey("statsFile"))
+			stats.write(new File(params.get("statsFile")));
+		stats.close();
 
 		// Later HW assignments will use more RAM, so you want to be aware
 		// of how much memory your program uses.
@@ -166,6 +310,136 @@ public class QryEval {
 
 	}
 
+	/**
+	 *  The file that stores the index's external ids: externalIdPath,
+	 *  or a file in java.io.tmpdir (see indexCacheFile).
+	 *  @param params The parameters.
+	 *  @return The external id file.
+	 */
+	static File externalIdFile (Map<String, String> params) {
+		if (params.containsKey("externalIdPath"))
+			return new File(params.get("externalIdPath"));
+		return indexCacheFile(params.get("indexPath"), "externalId.map");
+	}
+
+	/**
+	 *  The default location of a file that is derived from the index.
+	 *  Nothing is written into the Lucene index directory; the file is
+	 *  kept in java.io.tmpdir under a name that is unique to the index
+	 *  path.  Its readers rebuild it if it belongs to another version
+	 *  of the index.
+	 *  @param indexPath The index directory.
+	 *  @param name The file name, e.g. externalId.map.
+	 *  @return The file.
+	 */
+	static File indexCacheFile (String indexPath, String name) {
+		String path = new File(indexPath).getAbsolutePath();
+		return new File(System.getProperty("java.io.tmpdir"),
+				"search-" + Integer.toHexString(path.hashCode()) + "-" + name);
+	}
+
+	/**
+	 *  The fields and weights of a fielded retrieval model.
+	 *  @param params The parameters.
+	 *  @param key The parameter that lists them, "field:weight,...".
+	 *  @param defaultFields The fields to use if the parameter is missing.
+	 *  @return The field weights.
+	 */
+	static FieldWeights fieldWeights (Map<String, String> params, String key, String defaultFields) {
+		String spec = params.containsKey(key) ? params.get(key) : defaultFields;
+		try {
+			return new FieldWeights(spec);
+		} catch (IllegalArgumentException e) {
+			fatalError("Error: " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 *  The weights of the unigram, ordered and unordered parts of a
+	 *  sequential dependence model, Indri:sdm.weights=0.85,0.10,0.05
+	 *  by default.
+	 *  @param params The parameters.
+	 *  @return The three weights.
+	 */
+	static double[] sdmWeights (Map<String, String> params) {
+		String spec = params.containsKey("Indri:sdm.weights") ?
+				params.get("Indri:sdm.weights") : "0.85,0.10,0.05";
+		String[] parts = spec.split(",");
+		double[] weights = new double[parts.length];
+		try {
+			for (int i = 0; i < parts.length; i++)
+				weights[i] = Double.parseDouble(parts[i].trim());
+		} catch (NumberFormatException e) {
+			fatalError("Error: Indri:sdm.weights: " + spec);
+		}
+		if (weights.length != 3)
+			fatalError("Error: Indri:sdm.weights needs 3 weights: " + spec);
+		for (double w : weights)
+			if (w < 0)
+				fatalError("Error: Indri:sdm.weights must not be negative: " + spec);
+		return weights;
+	}
+
+	/**
+	 *  Evaluate a parsed query, with relevance feedback and re-ranking
+	 *  if they are enabled.
+	 *  @param queryno The query id.
+	 *  @param qTree The query tree.
+	 *  @param model The retrieval model.
+	 *  @param feedback The relevance feedback stage, or null.
+	 *  @return The search results.
+	 *  @throws IOException
+	 */
+	static QryResult evaluateQuery (int queryno, Qryop qTree, RetrievalModel model,
+			RelevanceFeedback feedback) throws IOException {
+		QryProfile profile = null;
+		if (profiler != null) {
+			profile = new QryProfile(queryno);
+			QryProfile.set(profile);
+		}
+		long bytes = (stats != null) ? stats.allocatedBytes() : -1;
+		long start = System.nanoTime();
+		try {
+			return evaluateQueryTree(queryno, qTree, model, feedback);
+		} finally {
+			long nanos = System.nanoTime() - start;
+			if (stats != null)
+				stats.record(nanos, (bytes < 0) ? -1 : stats.allocatedBytes() - bytes);
+			if (profile != null) {
+				profile.nanos = nanos;
+				QryProfile.set(null);
+				profiler.add(profile);
+			}
+		}
+	}
+
+	/**
+	 *  Evaluate a query's stages.  If the query's deadline passes in
+	 *  partial mode, no further stage is started, and the result is
+	 *  the partial result of the operator that was running
+	 *  ({@link QryDeadline}).
+	 */
+	private static QryResult evaluateQueryTree (int queryno, Qryop qTree, RetrievalModel model,
+			RelevanceFeedback feedback) throws IOException {
+		long start = System.nanoTime();
+		try {
+			QryResult result = null;
+			if (feedback == null || ! feedback.hasInitialRanking()) {
+				result = QryProfile.evaluate(qTree, model);
+				if (QryDeadline.truncated())
+					return result;
+			}
+			if (feedback != null)
+				result = feedback.evaluate(queryno, qTree, result, model);
+			if (reranker != null && ! QryDeadline.truncated())
+				result = reranker.rerank(queryno, qTree, result, System.nanoTime() - start);
+			return result;
+		} catch (QryTruncatedException e) {
+			return e.getResult();
+		}
+	}
+
 	/**
 	 *  Write an error message and exit.  This can be done in other
 	 *  ways, but I wanted something that takes just one statement so
@@ -186,6 +460,8 @@ public class QryEval {
 	 * @throws IOException 
 	 */
 	static String getExternalDocid (int iid) throws IOException {
+		if (eids != null && iid < eids.maxDoc())
+			return eids.get(iid);
 		Document d = QryEval.READER.document (iid);
 		String eid = d.get ("externalId");
 		return eid;
@@ -201,6 +477,13 @@ public class QryEval {
 	 * @throws Exception
 	 */
 	static int getInternalDocid (String externalId) throws Exception {
+		if (eids != null) {
+			int iid = eids.getInternalDocid(externalId);
+			if (iid < 0)
+				throw new Exception("External id not found.");
+			return iid;
+		}
+
 		Query q = new TermQuery(new Term("externalId", externalId));
 
 		IndexSearcher searcher = new IndexSearcher(QryEval.READER);
@@ -220,141 +503,14 @@ public class QryEval {
 	 * 
 	 * @param qString
 	 *          A string containing a query.
-	 * @param qTree
-	 *          A query tree
+	 * @param r
+	 *          The retrieval model, which determines default operators.
+	 * @return A query tree
+	 * @throws QrySyntaxException if the query is malformed.
 	 * @throws IOException
 	 */
 	static Qryop parseQuery(String qString, RetrievalModel r) throws IOException {
-
-		Qryop currentOp = null;
-		Stack<Qryop> stack = new Stack<Qryop>();
-
-		// Add a default query operator to an unstructured query. This
-		// is a tiny bit easier if unnecessary whitespace is removed.
-
-		qString = qString.trim();
-
-		if (qString.charAt(0) != '#') {
-			if(r instanceof RetrievalModelRankedBoolean ||
-					r instanceof RetrievalModelUnrankedBoolean){
-				qString = "#or(" + qString + ")";
-			}
-			else if(r instanceof RetrievalModelBM25){
-				qString = "#sum(" + qString + ")";
-			}
-			else if(r instanceof RetrievalModelIndri){
-				qString = "#and(" + qString + ")";
-			}
-			else{}
-		}
-		if(r instanceof RetrievalModelBM25 && !qString.startsWith("#SUM") && !qString.startsWith("#sum")){
-			qString = "#sum(" + qString + ")";
-		}
-		if(r instanceof RetrievalModelIndri && !qString.startsWith("#AND") && !qString.startsWith("#and")){
-			qString = "#and(" + qString + ")";
-		}
-		// Tokenize the query.
-
-		StringTokenizer tokens = new StringTokenizer(qString, "\t\n\r ,()", true);
-		String token = null;
-
-		// Each pass of the loop processes one token. To improve
-		// efficiency and clarity, the query operator on the top of the
-		// stack is also stored in currentOp.
-
-		while (tokens.hasMoreTokens()) {
-
-			token = tokens.nextToken();
-
-			if (token.matches("[ ,(\t\n\r]")) {
-				// Ignore most delimiters.
-			} else if (token.equalsIgnoreCase("#and")) {
-				if(r instanceof RetrievalModelIndri){
-					currentOp = new QryopSlIndriAnd();
-					stack.push(currentOp);
-				}
-				else{
-					currentOp = new QryopSlAnd();
-					stack.push(currentOp);
-				}
-			} else if (token.equalsIgnoreCase("#or")) {
-				currentOp = new QryopSlOr();
-				stack.push(currentOp);
-			} else if (token.equalsIgnoreCase("#syn")) {
-				currentOp = new QryopIlSyn();
-				stack.push(currentOp);
-			} else if (token.equalsIgnoreCase("#sum")) {
-
-				currentOp = new QryopSlSum();
-				stack.push(currentOp);
-			}else if (token.length()>6 && token.substring(0, 6).equalsIgnoreCase("#near/") && isInt(token.substring(6))){
-				currentOp = new QryopIlNear(Integer.parseInt(token.substring(6)));
-				stack.push(currentOp);
-			}
-			else if (token.startsWith(")")) { // Finish current query operator.
-				// If the current query operator is not an argument to
-				// another query operator (i.e., the stack is empty when it
-				// is removed), we're done (assuming correct syntax - see
-				// below). Otherwise, add the current operator as an
-				// argument to the higher-level operator, and shift
-				// processing back to the higher-level operator.
-
-				stack.pop();
-
-				if (stack.empty())
-					break;
-
-				Qryop arg = currentOp;
-				currentOp = stack.peek();
-				currentOp.add(arg);
-			} else {
-
-				// NOTE: You should do lexical processing of the token before
-				// creating the query term, and you should check to see whether
-				// the token specifies a particular field (e.g., apple.title).
-				int indexTmp = token.lastIndexOf(".");
-				if(indexTmp != -1){	
-					String curField = token.substring(indexTmp+1);
-					String[] tokenArray = tokenizeQuery(token.substring(0, indexTmp));
-					for(int j=0;j<tokenArray.length;j++)
-						currentOp.add(new QryopIlTerm(tokenArray[j], curField));
-				}
-				else{
-					String[] tokenArray = tokenizeQuery(token);
-					for(int j=0;j<tokenArray.length;j++)
-						currentOp.add(new QryopIlTerm(tokenArray[j]));
-				}
-			}
-		}
-
-		// A broken structured query can leave unprocessed tokens on the
-		// stack, so check for that.
-
-		if (tokens.hasMoreTokens()) {
-			System.err.println("Error:  Query syntax is incorrect.  " + qString);
-			return null;
-		}
-		if(currentOp instanceof QryopIl){
-			if(r instanceof RetrievalModelRankedBoolean ||
-					r instanceof RetrievalModelUnrankedBoolean){
-				Qryop opnew = currentOp;
-				currentOp = new QryopSlScore();
-				currentOp.add(opnew);
-			}
-			else if(r instanceof RetrievalModelBM25){
-				Qryop opnew = currentOp;
-				currentOp = new QryopSlSum();
-				currentOp.add(opnew);
-			}
-			else if(r instanceof RetrievalModelIndri){
-				Qryop opnew = currentOp;
-				currentOp = new QryopSlIndriAnd();
-				currentOp.add(opnew);
-			}
-			else{}
-
-		}
-		return currentOp;
+		return QryParser.parse(qString, r);
 	}
 
 	/**
@@ -378,19 +534,25 @@ public class QryEval {
 	}
 
 	/**
-	 * Print the query results. 
-	 * 
-	 * THIS IS NOT THE CORRECT OUTPUT FORMAT.  YOU MUST CHANGE THIS
-	 * METHOD SO THAT IT OUTPUTS IN THE FORMAT SPECIFIED IN THE HOMEWORK
-	 * PAGE, WHICH IS:
+	 * Print the query results in the trec_eval format:
 	 * 
 	 * QueryID Q0 DocID Rank Score RunID
 	 * 
+	 * The top 100 documents are written, ranked by score with ties
+	 * broken by external id.  If writer is null, the results are
+	 * printed to stdout in a readable format instead.
+	 * 
+	 * @param queryno The query id.
 	 * @param queryName Original query.
 	 * @param result Result object generated by {@link Qryop#evaluate()}.
+	 * @param writer The result file writer, or null.
 	 * @throws IOException 
 	 */
-	static void printResults(int queryno, String queryName, QryResult result, BufferedWriter writer) throws IOException {
+	static void printResults(int queryno, String queryName, QryResult result, TrecWriter writer) throws IOException {
+		if(writer != null){
+			writer.write(queryno, result.docScores, 100);
+			return;
+		}
 		class Entry{
 			public String exID;
 			public double score;
@@ -421,28 +583,6 @@ public class QryEval {
 				}
 			}
 		});
-		/*Collections.sort(result.docScores.scores, new Comparator() 
-	    {
-			public int compare(Object str1, Object str2)
-			{
-				double score1 = ((ScoreList.ScoreListEntry)str1).getScore();
-				double score2 = ((ScoreList.ScoreListEntry)str2).getScore();
-				if(score1 > score2) return -1;
-				else if(score1 < score2) return 1;
-				else{
-					String exid1 = "Not found";
-					String exid2 = "Not found";
-					try{
-						exid1 = getExternalDocid(((ScoreList.ScoreListEntry)str1).getDocID());
-						exid2 = getExternalDocid(((ScoreList.ScoreListEntry)str2).getDocID());
-					}
-					catch(IOException e){}
-
-					return exid1.compareTo(exid2);
-				}
-			}
-	    });*/
-		if(writer == null){
 	    System.out.println(queryName + ":  ");
 	    if (scores.size() < 1) {
 	      System.out.println("\tNo results.");
@@ -454,22 +594,6 @@ public class QryEval {
 				   + scores.get(i).score);
 	      }
 	    }
-		}
-		else{
-			//writer.write(queryName + ":  ");
-		    if (scores.size() < 1) {
-		    	writer.write("10 Q0 dummy 1 0 run-1");
-		    } else {
-		      for (int i = 0; i < Math.min(result.docScores.scores.size(),100); i++) {
-		    	  String temp = queryno + "  Q0 "
-						   + scores.get(i).exID
-						   + " "+ (i+1) + " "
-						   + scores.get(i).score + " run-1";
-		    	  if(i==0) writer.write(temp);
-		    	  else writer.write("\n" + temp);
-		      }
-		    }
-		}
 	}
 
 	/**
@@ -484,20 +608,86 @@ public class QryEval {
 	 */
 	static String[] tokenizeQuery(String query) throws IOException {
 
-		TokenStreamComponents comp = analyzer.createComponents("dummy", new StringReader(query));
-		TokenStream tokenStream = comp.getTokenStream();
-
+		// tokenStream reuses this thread's analysis components, so the
+		// tokenizer and filter chain are built once per thread.
+		TokenStream tokenStream = analyzer.tokenStream("dummy", new StringReader(query));
 		CharTermAttribute charTermAttribute = tokenStream.addAttribute(CharTermAttribute.class);
-		tokenStream.reset();
 
 		List<String> tokens = new ArrayList<String>();
-		while (tokenStream.incrementToken()) {
-			String term = charTermAttribute.toString();
-			tokens.add(term);
+		try {
+			tokenStream.reset();
+			while (tokenStream.incrementToken()) {
+				String term = charTermAttribute.toString();
+				tokens.add(term);
+			}
+			tokenStream.end();
+		} finally {
+			tokenStream.close();
 		}
 		return tokens.toArray(new String[tokens.size()]);
 	}
 
+	/**
+	 *  Tokenize several query terms with one pass of the analyzer.
+	 *  Terms that were seen recently are served from a bounded cache;
+	 *  the rest are joined with newlines, analyzed together, and each
+	 *  token is assigned back to its term by its start offset.
+	 * 
+	 *  @param terms The raw query terms.
+	 *  @param n The number of terms to use.
+	 *  @return The stems of each term.  A stopword has no stems.
+	 *  @throws IOException
+	 */
+	static String[][] tokenizeTerms(String[] terms, int n) throws IOException {
+
+		String[][] stems = new String[n][];
+		StringBuilder text = new StringBuilder();
+		int[] missStart = new int[n];
+		int[] missTerm = new int[n];
+		int misses = 0;
+
+		for (int i = 0; i < n; i++) {
+			stems[i] = stemCache.get(terms[i]);
+			if (stems[i] == null) {
+				missStart[misses] = text.length();
+				missTerm[misses++] = i;
+				text.append(terms[i]).append('\n');
+			}
+		}
+		if (misses == 0)
+			return stems;
+
+		List<List<String>> found = new ArrayList<List<String>>(misses);
+		for (int i = 0; i < misses; i++)
+			found.add(new ArrayList<String>(2));
+
+		TokenStream tokenStream = analyzer.tokenStream("dummy", new StringReader(text.toString()));
+		CharTermAttribute charTermAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+		OffsetAttribute offsetAttribute = tokenStream.addAttribute(OffsetAttribute.class);
+		try {
+			tokenStream.reset();
+			while (tokenStream.incrementToken()) {
+				int m = Arrays.binarySearch(missStart, 0, misses, offsetAttribute.startOffset());
+				if (m < 0)
+					m = -m - 2;	// the term that contains the offset
+				found.get(m).add(charTermAttribute.toString());
+			}
+			tokenStream.end();
+		} finally {
+			tokenStream.close();
+		}
+
+		if (stemCache.size() + misses > STEM_CACHE_SIZE)
+			stemCache.clear();
+		for (int i = 0; i < misses; i++) {
+			List<String> f = found.get(i);
+			String[] s = f.toArray(new String[f.size()]);
+			stems[missTerm[i]] = s;
+			stemCache.put(terms[missTerm[i]], s);
+		}
+		return stems;
+	}
+
 	public static boolean isInt(String str){
 		try{
 			Integer.parseInt(str);
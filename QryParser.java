@@ -0,0 +1,405 @@
+/**
+ *  QryParser converts a query string into a query tree.  It is a
+ *  recursive-descent parser that scans the query's characters
+ *  directly; operator names are matched in place, and nothing is
+ *  allocated for operators or delimiters.  The query syntax is:
+ *
+ *    query    := arg*
+ *    arg      := operator '(' arg* ')'  |  term
+ *    operator := #and | #or | #syn | #sum | #near/N | #uw/N
+ *    weighted := (#wand | #wsum) '(' (weight arg)* ')'
+ *    term     := text, optionally followed by .field
+ *
+ *  Whitespace and commas separate arguments.  Syntax errors are
+ *  reported with a {@link QrySyntaxException} that gives the position
+ *  of the error.
+ *
+ *  The query is parsed twice.  The first pass checks the syntax and
+ *  collects the raw terms, which are then analyzed together with one
+ *  call to {@link QryEval#tokenizeTerms}.  The second pass builds the
+ *  query tree from the stems.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class QryParser {
+
+  private final String query;
+  private final char[] q;
+  private final int end;
+  private int p = 0;
+  private final RetrievalModel r;
+
+  //  Raw terms found by the first pass, and their stems.
+
+  private boolean collecting = true;
+  private String[] terms = new String[8];
+  private int termCount = 0;
+  private String[][] stems;
+
+  private QryParser(String query, RetrievalModel r) {
+    this.query = query;
+    this.q = query.toCharArray();
+    this.end = this.q.length;
+    this.r = r;
+  }
+
+  /**
+   *  Parse a query.  An unstructured query is wrapped in the
+   *  retrieval model's default operator, and the query is wrapped in
+   *  #SUM for BM25 or #AND for Indri unless it already is one.
+   *  @param query A string containing a query.
+   *  @param r The retrieval model, which determines default operators.
+   *  @return A query tree.
+   *  @throws QrySyntaxException if the query is malformed.
+   *  @throws IOException
+   */
+  public static Qryop parse(String query, RetrievalModel r) throws IOException {
+    QryParser parser = new QryParser(query, r);
+    parser.parseQuery();
+
+    parser.stems = QryEval.tokenizeTerms(parser.terms, parser.termCount);
+    parser.collecting = false;
+    parser.termCount = 0;
+    parser.p = 0;
+    return parser.parseQuery();
+  }
+
+  private Qryop parseQuery() throws IOException {
+
+    skipSeparators();
+    if (this.p == this.end)
+      throw error("Empty query");
+
+    //  A query that is one operator is used as is.  Anything else is
+    //  a list of arguments to the default operator.
+
+    Qryop top = null;
+    boolean unstructured = false;
+    if (this.q[this.p] == '#') {
+      Qryop op = parseOperator();
+      skipSeparators();
+      if (this.p == this.end)
+	top = op;
+      else {
+	top = defaultOperator();
+	addArg(top, op, 1.0);
+      }
+    } else {
+      top = defaultOperator();
+      unstructured = true;
+    }
+
+    if (this.p < this.end) {
+      parseArgs(top, false);
+      if (this.p < this.end)
+	throw error("Unbalanced ')'");
+    }
+
+    if (unstructured && ! this.collecting)
+      top = sdm(top);
+
+    //  BM25 and Indri queries always have a #SUM or #AND at the top.
+
+    if (this.r instanceof RetrievalModelBM25 && top.getClass() != QryopSlSum.class)
+      top = new QryopSlSum(top);
+    else if (this.r instanceof RetrievalModelIndri && top.getClass() != QryopSlIndriAnd.class &&
+	     top.getClass() != QryopSlSdm.class)
+      top = new QryopSlIndriAnd(top);
+
+    if (! this.collecting && this.r instanceof RetrievalModelBM25 &&
+	top.getClass() == QryopSlSum.class)
+      top = saat(top);
+
+    if (top instanceof QryopIl)
+      top = QryopSl.score(top, this.r);
+
+    return top;
+  }
+
+  /**
+   *  Expand an unstructured Indri query with the sequential dependence
+   *  model if the retrieval model asks for it.  Only queries of two or
+   *  more terms in one field are expanded.
+   *  @param top The default operator and its terms.
+   *  @return The expanded query, or top.
+   */
+  private Qryop sdm(Qryop top) {
+    if (! (this.r instanceof RetrievalModelIndri) ||
+	((RetrievalModelIndri) this.r).getSdmWeights() == null ||
+	top.args.size() < 2)
+      return top;
+
+    String field = null;
+    for (Qryop arg : top.args) {
+      if (! (arg instanceof QryopIlTerm))
+	return top;
+      String f = ((QryopIlTerm) arg).getField();
+      if (field != null && ! field.equals(f))
+	return top;
+      field = f;
+    }
+
+    RetrievalModelIndri r = (RetrievalModelIndri) this.r;
+    QryopSlSdm op = new QryopSlSdm(r.getSdmWeights(), r.getSdmWindow());
+    for (Qryop arg : top.args)
+      op.add(arg);
+    return op;
+  }
+
+  /**
+   *  Evaluate a BM25 bag-of-words query score-at-a-time if the
+   *  retrieval model has an impact index, and every argument is a
+   *  term in the index's field.
+   *  @param top A #SUM.
+   *  @return The #SAAT query, or top.
+   */
+  private Qryop saat(Qryop top) {
+    ImpactIndex index = ((RetrievalModelBM25) this.r).getImpactIndex();
+    if (index == null || top.args.size() == 0)
+      return top;
+
+    for (Qryop arg : top.args)
+      if (! (arg instanceof QryopIlTerm) ||
+	  ! ((QryopIlTerm) arg).getField().equals(index.field()))
+	return top;
+
+    return new QryopSlSaat(top.args);
+  }
+
+  /**
+   *  The operator used for unstructured queries.
+   */
+  private Qryop defaultOperator() {
+    if (this.r instanceof RetrievalModelBM25)
+      return new QryopSlSum();
+    if (this.r instanceof RetrievalModelIndri)
+      return new QryopSlIndriAnd();
+    return new QryopSlOr();
+  }
+
+  /**
+   *  Parse "#name(args)" starting at the '#'.
+   */
+  private Qryop parseOperator() throws IOException {
+
+    int start = this.p++;
+    while (this.p < this.end && this.q[this.p] != '(' && ! isSeparator(this.q[this.p]))
+      this.p++;
+
+    //  Split "near/3" into the name and the distance.
+
+    int nameEnd = start + 1;
+    while (nameEnd < this.p && this.q[nameEnd] != '/')
+      nameEnd++;
+
+    int distance = -1;
+    if (nameEnd < this.p)
+      distance = parseInt(nameEnd + 1, this.p);
+
+    //  Operator names are matched in place, ignoring case.
+
+    int from = start + 1;
+    int length = nameEnd - from;
+    Qryop op;
+    boolean hasDistance = false;
+    if (isName(from, length, "and"))
+      op = (this.r instanceof RetrievalModelIndri) ? new QryopSlIndriAnd() : new QryopSlAnd();
+    else if (isName(from, length, "or"))
+      op = new QryopSlOr();
+    else if (isName(from, length, "syn"))
+      op = new QryopIlSyn();
+    else if (isName(from, length, "sum"))
+      op = new QryopSlSum();
+    else if (isName(from, length, "wand"))
+      op = new QryopSlWAnd();
+    else if (isName(from, length, "wsum"))
+      op = new QryopSlWSum();
+    else if (isName(from, length, "near")) {
+      op = new QryopIlNear(distance);
+      hasDistance = true;
+    } else if (isName(from, length, "uw")) {
+      op = new QryopIlUw(distance);
+      hasDistance = true;
+    } else {
+      this.p = start;
+      throw error("Unknown query operator");
+    }
+
+    if (hasDistance != (nameEnd < this.p)) {
+      this.p = start;
+      throw error(hasDistance ? "Missing /N distance" : "Unexpected /N distance");
+    }
+
+    skipSeparators();
+    if (this.p == this.end || this.q[this.p] != '(')
+      throw error("Expected '('");
+    this.p++;
+
+    double weightSum = parseArgs(op, true);
+
+    if (this.p == this.end)
+      throw error("Missing ')'");
+
+    //  #WAND and #WSUM divide by the sum of their weights.
+
+    if (op instanceof QryopSlWeighted && ! this.collecting &&
+	op.args.size() > 0 && weightSum == 0.0) {
+      this.p = start;
+      throw error("Weights sum to 0");
+    }
+
+    this.p++;				// Skip the ')'.
+    return op;
+  }
+
+  /**
+   *  Parse arguments until a ')' or the end of the query, and add
+   *  them to op.  The ')' is not consumed.
+   *  @return The sum of the weights of the arguments added.
+   */
+  private double parseArgs(Qryop op, boolean nested) throws IOException {
+
+    boolean weighted = op instanceof QryopSlWeighted;
+    double weightSum = 0.0;
+
+    while (true) {
+      skipSeparators();
+      if (this.p == this.end) {
+	if (nested)
+	  throw error("Missing ')'");
+	return weightSum;
+      }
+      if (this.q[this.p] == ')')
+	return weightSum;
+
+      double weight = 1.0;
+      if (weighted) {
+	int start = this.p;
+	skipToken();
+	weight = parseDouble(start, this.p);
+	skipSeparators();
+	if (this.p == this.end || this.q[this.p] == ')')
+	  throw error("Missing argument after weight");
+      }
+
+      if (this.q[this.p] == '#') {
+	addArg(op, parseOperator(), weight);
+	weightSum += weight;
+      } else {
+	int start = this.p;
+	skipToken();
+	weightSum += weight * parseTerm(op, start, this.p, weight);
+      }
+    }
+  }
+
+  /**
+   *  Tokenize a term and add its stems to op.  A term that tokenizes
+   *  into several stems gives each one the term's weight; a stopword
+   *  adds nothing.
+   *  @return The number of stems added; 0 in the first pass.
+   */
+  private int parseTerm(Qryop op, int start, int stop, double weight) throws IOException {
+
+    //  apple.title matches apple in the title field.
+
+    int dot = stop - 1;
+    while (dot >= start && this.q[dot] != '.')
+      dot--;
+
+    String field = null;
+    if (dot >= start) {
+      field = new String(this.q, dot + 1, stop - dot - 1);
+      stop = dot;
+    }
+
+    if (this.collecting) {
+      if (this.termCount == this.terms.length)
+	this.terms = Arrays.copyOf(this.terms, this.termCount * 2);
+      this.terms[this.termCount++] = new String(this.q, start, stop - start);
+      return 0;
+    }
+
+    String[] stems = this.stems[this.termCount++];
+    for (int j = 0; j < stems.length; j++)
+      addArg(op, (field == null) ? new QryopIlTerm(stems[j]) : new QryopIlTerm(stems[j], field),
+	     weight);
+    return stems.length;
+  }
+
+  private static void addArg(Qryop op, Qryop arg, double weight) throws IOException {
+    if (op instanceof QryopSlWeighted)
+      ((QryopSlWeighted) op).add(weight, arg);
+    else
+      op.add(arg);
+  }
+
+  private static boolean isSeparator(char c) {
+    switch (c) {
+      case ' ': case ',': case '\t': case '\n': case '\r':
+	return true;
+      default:
+	return false;
+    }
+  }
+
+  private void skipSeparators() {
+    while (this.p < this.end && isSeparator(this.q[this.p]))
+      this.p++;
+  }
+
+  /**
+   *  Move past a term or weight: everything up to a separator or
+   *  parenthesis.
+   */
+  private void skipToken() {
+    while (this.p < this.end) {
+      char c = this.q[this.p];
+      if (c == '(' || c == ')' || isSeparator(c))
+	break;
+      this.p++;
+    }
+  }
+
+  /**
+   *  Whether the length characters at from are name, ignoring case.
+   */
+  private boolean isName(int from, int length, String name) {
+    return length == name.length() && this.query.regionMatches(true, from, name, 0, length);
+  }
+
+  private int parseInt(int start, int stop) throws QrySyntaxException {
+    if (start == stop || stop - start > 9)
+      throw error("Invalid distance", start);
+    int v = 0;
+    for (int i = start; i < stop; i++) {
+      char c = this.q[i];
+      if (c < '0' || c > '9')
+	throw error("Invalid distance", start);
+      v = v * 10 + (c - '0');
+    }
+    return v;
+  }
+
+  private double parseDouble(int start, int stop) throws QrySyntaxException {
+    double weight;
+    try {
+      weight = Double.parseDouble(new String(this.q, start, stop - start));
+    } catch (NumberFormatException e) {
+      throw error("Expected a weight", start);
+    }
+    if (Double.isNaN(weight) || Double.isInfinite(weight))
+      throw error("Expected a weight", start);
+    return weight;
+  }
+
+  private QrySyntaxException error(String message) {
+    return error(message, this.p);
+  }
+
+  private QrySyntaxException error(String message, int position) {
+    return new QrySyntaxException(message, this.query, position);
+  }
+}
@@ -0,0 +1,316 @@
+/**
+ *  QryPipeline evaluates a query file in three overlapping stages:
+ *
+ *    read/parse:  the calling thread reads query lines and parses them.
+ *    evaluate:    a pool of threads evaluates the parsed queries.
+ *    write:       one thread writes results in query file order.
+ *
+ *  The stages are connected by bounded queues.  At most maxInFlight
+ *  queries are between the parse stage and the end of the write stage
+ *  at any time, so memory stays bounded no matter how long the query
+ *  file is; the reader blocks when the evaluators or the writer fall
+ *  behind.  The time spent working and waiting in each stage is
+ *  reported at the end.
+ *
+ *  Queries may have a time limit (see {@link #setTimeout}), which
+ *  starts when a query's evaluation starts.  A query that runs out of
+ *  time is either skipped or written with the results found so far,
+ *  and the number of each is reported.
+ */
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class QryPipeline {
+
+  //  One query on its way through the pipeline.
+
+  static class Job {
+    final long seq;
+    final int queryno;
+    final String query;
+    final long timeout;
+    Qryop qTree;
+    QryResult result;
+    boolean truncated = false;
+    Throwable error;
+
+    Job(long seq, int queryno, String query, long timeout) {
+      this.seq = seq;
+      this.queryno = queryno;
+      this.query = query;
+      this.timeout = timeout;
+    }
+  }
+
+  private static final Job END = new Job(-1, -1, null, 0);
+
+  private final RetrievalModel model;
+  private final RelevanceFeedback feedback;
+  private final TrecWriter writer;
+  private final int threads;
+  private final int maxInFlight;
+
+  private long timeout = 0;
+  private boolean partialResults = false;
+
+  private final BlockingQueue<Job> evalQueue;
+  private final Semaphore inFlight;
+
+  //  Finished jobs wait in a ring, indexed by seq % maxInFlight,
+  //  until the writer reaches them.  inFlight guarantees that no two
+  //  unwritten jobs share a slot.
+
+  private final Job[] done;
+
+  //  Per-stage timing, in nanoseconds.
+
+  private long parseNanos = 0;
+  private long readerBlockedNanos = 0;
+  private final AtomicLong evalNanos = new AtomicLong();
+  private final AtomicLong evalIdleNanos = new AtomicLong();
+  private long writeNanos = 0;
+  private long writerIdleNanos = 0;
+  private long queries = 0;
+  private long aborted = 0;
+  private long partial = 0;
+
+  //  The first evaluation or write failure, set by the writer.
+
+  private volatile Throwable error = null;
+
+  /**
+   *  @param model The retrieval model.
+   *  @param feedback The relevance feedback stage, or null.
+   *  @param writer The result writer.
+   *  @param threads The number of evaluator threads.
+   *  @param maxInFlight The maximum number of queries in the pipeline.
+   */
+  public QryPipeline(RetrievalModel model, RelevanceFeedback feedback, TrecWriter writer,
+		     int threads, int maxInFlight) {
+    this.model = model;
+    this.feedback = feedback;
+    this.writer = writer;
+    this.threads = Math.max(1, threads);
+    this.maxInFlight = Math.max(this.threads, maxInFlight);
+    this.evalQueue = new ArrayBlockingQueue<Job>(this.maxInFlight + this.threads);
+    this.inFlight = new Semaphore(this.maxInFlight);
+    this.done = new Job[this.maxInFlight];
+  }
+
+  /**
+   *  Limit the time each query may take.  A query line may set its
+   *  own limit, e.g., "10@250: query".
+   *  @param timeoutMillis The default limit in milliseconds; 0 for none.
+   *  @param partialResults True to write the results found so far when
+   *         the limit is reached, false to skip the query.
+   */
+  public void setTimeout(long timeoutMillis, boolean partialResults) {
+    this.timeout = timeoutMillis;
+    this.partialResults = partialResults;
+  }
+
+  /**
+   *  Evaluate every query in a query file.  Each line has the form
+   *  "queryno: query".  Lines without a ':' are skipped.
+   *  @param br The query file.
+   *  @throws Exception if a query could not be evaluated or written.
+   */
+  public void run(BufferedReader br) throws Exception {
+
+    Thread[] evaluators = new Thread[this.threads];
+    for (int i = 0; i < this.threads; i++) {
+      evaluators[i] = new Thread(new Runnable() {
+	public void run() {
+	  evaluate();
+	}
+      }, "evaluator-" + i);
+      evaluators[i].start();
+    }
+
+    Thread writerThread = new Thread(new Runnable() {
+      public void run() {
+	write();
+      }
+    }, "writer");
+    writerThread.start();
+
+    //  Read and parse.
+
+    long seq = 0;
+    try {
+      String singleLine;
+      while ((singleLine = br.readLine()) != null) {
+	long t0 = System.nanoTime();
+	int tempindex = singleLine.indexOf(":");
+	if (tempindex == -1) continue;
+	long[] id = QryDeadline.parseQueryId(singleLine.substring(0,tempindex), this.timeout);
+	int queryno = (int) id[0];
+	String query = singleLine.substring(tempindex+1).trim();
+
+	System.out.println(queryno + " : [" + query + "] start");
+	Job job = new Job(seq++, queryno, query, id[1]);
+	try {
+	  job.qTree = QryEval.parseQuery(query, this.model);
+	} catch (QrySyntaxException e) {
+	  System.err.println(queryno + " : " + e.getMessage());
+	}
+	long t1 = System.nanoTime();
+
+	this.inFlight.acquire();
+	this.evalQueue.put(job);
+	long t2 = System.nanoTime();
+
+	this.parseNanos += t1 - t0;
+	this.readerBlockedNanos += t2 - t1;
+      }
+    } finally {
+      for (int i = 0; i < this.threads; i++)
+	this.evalQueue.put(END);
+      for (int i = 0; i < this.threads; i++)
+	evaluators[i].join();
+      finish(seq);
+      writerThread.join();
+    }
+
+    if (this.error instanceof Exception)
+      throw (Exception) this.error;
+    if (this.error != null)
+      throw new RuntimeException(this.error);
+  }
+
+  /**
+   *  The evaluate stage.  Queries that fail are passed on with their
+   *  error so that the writer can report them in order.
+   */
+  private void evaluate() {
+    while (true) {
+      Job job;
+      long t0 = System.nanoTime();
+      try {
+	job = this.evalQueue.take();
+      } catch (InterruptedException e) {
+	return;
+      }
+      long t1 = System.nanoTime();
+      this.evalIdleNanos.addAndGet(t1 - t0);
+
+      if (job == END)
+	return;
+
+      if (job.qTree != null) {
+	QryDeadline deadline =
+	  (job.timeout > 0) ? new QryDeadline(job.timeout, this.partialResults) : null;
+	QryDeadline.set(deadline);
+	try {
+	  job.result = QryEval.evaluateQuery(job.queryno, job.qTree, this.model, this.feedback);
+	  job.truncated = (deadline != null) && deadline.isTruncated();
+	} catch (Throwable e) {
+	  job.error = e;
+	} finally {
+	  QryDeadline.set(null);
+	}
+	job.qTree = null;		// Let the query tree be collected.
+      }
+      this.evalNanos.addAndGet(System.nanoTime() - t1);
+      complete(job);
+    }
+  }
+
+  private synchronized void complete(Job job) {
+    this.done[(int) (job.seq % this.maxInFlight)] = job;
+    notifyAll();
+  }
+
+  //  The number of jobs the reader produced, or -1 while it is running.
+
+  private long total = -1;
+
+  private synchronized void finish(long total) {
+    this.total = total;
+    notifyAll();
+  }
+
+  /**
+   *  Wait for the job with the given sequence number.
+   *  @return The job, or null if the reader produced fewer jobs.
+   */
+  private synchronized Job next(long seq) throws InterruptedException {
+    int slot = (int) (seq % this.maxInFlight);
+    while (this.done[slot] == null || this.done[slot].seq != seq) {
+      if (this.total >= 0 && seq >= this.total)
+	return null;
+      wait();
+    }
+    Job job = this.done[slot];
+    this.done[slot] = null;
+    return job;
+  }
+
+  /**
+   *  The write stage.  Results are written in query file order.  After
+   *  the first failure nothing more is written, but the remaining jobs
+   *  are still drained so that the reader and evaluators can finish.
+   */
+  private void write() {
+    for (long seq = 0; ; seq++) {
+      long t0 = System.nanoTime();
+      Job job;
+      try {
+	job = next(seq);
+      } catch (InterruptedException e) {
+	this.error = e;
+	return;
+      }
+      long t1 = System.nanoTime();
+      this.writerIdleNanos += t1 - t0;
+
+      if (job == null)
+	return;
+
+      try {
+	if (job.error instanceof QryTimeoutException) {
+	  System.err.println(job.queryno + " : " + job.error.getMessage());
+	  this.aborted++;
+	} else if (this.error == null && job.error != null) {
+	  this.error = job.error;
+	}
+	if (this.error == null && job.result != null) {
+	  QryEval.printResults(job.queryno, job.query, job.result, this.writer);
+	  if (job.truncated) {
+	    System.out.println(job.queryno + " : [" + job.query + "] done (partial)");
+	    this.partial++;
+	  } else {
+	    System.out.println(job.queryno + " : [" + job.query + "] done");
+	  }
+	  this.queries++;
+	}
+      } catch (Throwable e) {
+	this.error = e;
+      } finally {
+	this.inFlight.release();
+      }
+      this.writeNanos += System.nanoTime() - t1;
+    }
+  }
+
+  /**
+   *  Print the time each stage spent working and waiting.
+   */
+  public void printTimes(PrintStream out) {
+    out.println("Pipeline: " + this.queries + " queries, " + this.threads + " evaluators");
+    out.println("  parse:     " + ms(this.parseNanos) + " ms, blocked " +
+		ms(this.readerBlockedNanos) + " ms");
+    out.println("  evaluate:  " + ms(this.evalNanos.get()) + " ms, idle " +
+		ms(this.evalIdleNanos.get()) + " ms (summed over evaluators)");
+    out.println("  write:     " + ms(this.writeNanos) + " ms, idle " +
+		ms(this.writerIdleNanos) + " ms");
+    if (this.aborted > 0 || this.partial > 0)
+      out.println("  timeouts:  " + this.aborted + " aborted, " + this.partial + " partial");
+  }
+
+  private static long ms(long nanos) {
+    return TimeUnit.MILLISECONDS.convert(nanos, TimeUnit.NANOSECONDS);
+  }
+}
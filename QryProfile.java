@@ -0,0 +1,189 @@
+/**
+ *  QryProfile records where one query spends its time.  It has a node
+ *  for every query operator that was evaluated, with
+ *
+ *    ms          wall-clock time, including the operator's arguments
+ *    selfMs      time not spent evaluating arguments
+ *    results     documents in the operator's result
+ *    postings    postings in the inverted list (QryopIl operators),
+ *                e.g., the postings decoded for a term
+ *    positions   positions in those postings
+ *    candidates  documents examined by the operator's scoring loop
+ *    defaults    default scores computed for documents that an
+ *                argument doesn't match
+ *
+ *  Profiling is opt-in.  Operators evaluate their arguments through
+ *  {@link #evaluate(Qryop, RetrievalModel)}, which only records
+ *  anything while the current thread has a profile, and scoring loops
+ *  report their counts once, when they finish.  Without a profile the
+ *  cost is one ThreadLocal lookup per operator.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class QryProfile {
+
+  private static final ThreadLocal<QryProfile> CURRENT = new ThreadLocal<QryProfile>();
+
+  //  One evaluated query operator.
+
+  static class Node {
+    final String op;
+    final String term;		// For QryopIlTerm, else null
+    final List<Node> children = new ArrayList<Node>(4);
+    long nanos;
+    long results;
+    long postings;
+    long positions;
+    long candidates;
+    long defaults;
+
+    Node(Qryop q) {
+      this.op = q.getClass().getName();
+      this.term = (q instanceof QryopIlTerm) ? q.toString() : null;
+    }
+
+    long selfNanos() {
+      long self = this.nanos;
+      for (int i = 0; i < this.children.size(); i++)
+	self -= this.children.get(i).nanos;
+      return Math.max(0, self);
+    }
+  }
+
+  final int queryno;
+  final List<Node> roots = new ArrayList<Node>(1);
+  private Node open = null;
+  long nanos = 0;
+
+  /**
+   *  @param queryno The id of the query being profiled.
+   */
+  public QryProfile(int queryno) {
+    this.queryno = queryno;
+  }
+
+  /**
+   *  Make a profile the current thread's profile.
+   *  @param p The profile, or null to stop profiling.
+   */
+  public static void set(QryProfile p) {
+    if (p == null)
+      CURRENT.remove();
+    else
+      CURRENT.set(p);
+  }
+
+  /**
+   *  Evaluate a query operator, recording it in the current thread's
+   *  profile, if there is one.
+   *  @param q The query operator.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the operator.
+   *  @throws IOException
+   */
+  public static QryResult evaluate(Qryop q, RetrievalModel r) throws IOException {
+    QryProfile p = CURRENT.get();
+    if (p == null)
+      return q.evaluate(r);
+
+    Node parent = p.open;
+    Node n = new Node(q);
+    if (parent == null)
+      p.roots.add(n);
+    else
+      parent.children.add(n);
+
+    p.open = n;
+    long start = System.nanoTime();
+    try {
+      QryResult result = q.evaluate(r);
+      if (result != null) {
+	n.results = result.docScores.scores.size();
+	n.postings = result.invertedList.df;
+	n.positions = result.invertedList.ctf;
+      }
+      return result;
+    } finally {
+      n.nanos = System.nanoTime() - start;
+      p.open = parent;
+    }
+  }
+
+  /**
+   *  Record the work done by the scoring loop of the operator that is
+   *  being evaluated.
+   *  @param candidates The number of documents examined.
+   *  @param defaults The number of default scores computed.
+   */
+  public static void scored(long candidates, long defaults) {
+    QryProfile p = CURRENT.get();
+    if (p != null && p.open != null) {
+      p.open.candidates += candidates;
+      p.open.defaults += defaults;
+    }
+  }
+
+  /**
+   *  Write the profile as one line of JSON.
+   *  @param b The buffer to append to.
+   */
+  public void toJson(StringBuilder b) {
+    b.append("{\"query\":").append(this.queryno);
+    b.append(",\"ms\":").append(ms(this.nanos));
+    b.append(",\"ops\":[");
+    for (int i = 0; i < this.roots.size(); i++) {
+      if (i > 0)
+	b.append(',');
+      toJson(this.roots.get(i), b);
+    }
+    b.append("]}");
+  }
+
+  private static void toJson(Node n, StringBuilder b) {
+    b.append("{\"op\":\"").append(n.op).append('"');
+    if (n.term != null) {
+      b.append(",\"term\":\"");
+      escape(n.term, b);
+      b.append('"');
+    }
+    b.append(",\"ms\":").append(ms(n.nanos));
+    b.append(",\"selfMs\":").append(ms(n.selfNanos()));
+    b.append(",\"results\":").append(n.results);
+    if (n.postings > 0) {
+      b.append(",\"postings\":").append(n.postings);
+      b.append(",\"positions\":").append(n.positions);
+    }
+    if (n.candidates > 0)
+      b.append(",\"candidates\":").append(n.candidates);
+    if (n.defaults > 0)
+      b.append(",\"defaults\":").append(n.defaults);
+    if (! n.children.isEmpty()) {
+      b.append(",\"children\":[");
+      for (int i = 0; i < n.children.size(); i++) {
+	if (i > 0)
+	  b.append(',');
+	toJson(n.children.get(i), b);
+      }
+      b.append(']');
+    }
+    b.append('}');
+  }
+
+  private static void escape(String s, StringBuilder b) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\')
+	b.append('\\').append(c);
+      else if (c < 0x20)
+	b.append(String.format("\\u%04x", (int) c));
+      else
+	b.append(c);
+    }
+  }
+
+  static double ms(long nanos) {
+    return Math.round(nanos / 1000.0) / 1000.0;
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ *  QryProfiler collects the {@link QryProfile}s of a run.  Each
+ *  profile is written as one line of JSON to profileFile, if it is
+ *  given, and is added to per-operator histograms of time, self time,
+ *  postings and candidates, which {@link #printSummary} reports as
+ *  p50/p95/p99.  Profiling is enabled with profile=true.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class QryProfiler {
+
+  //  The histograms of one operator class.
+
+  private static class OpStats {
+    final LatencyHistogram nanos = new LatencyHistogram();
+    final LatencyHistogram selfNanos = new LatencyHistogram();
+    final LatencyHistogram postings = new LatencyHistogram();
+    final LatencyHistogram candidates = new LatencyHistogram();
+    final LatencyHistogram results = new LatencyHistogram();
+  }
+
+  private final ConcurrentHashMap<String, OpStats> ops = new ConcurrentHashMap<String, OpStats>();
+  private final LatencyHistogram queries = new LatencyHistogram();
+  private final Writer json;
+
+  /**
+   *  @param params The parameters.  profileFile is optional.
+   *  @throws IOException
+   */
+  public QryProfiler(Map<String, String> params) throws IOException {
+    this.json = params.containsKey("profileFile") ?
+      new BufferedWriter(new FileWriter(params.get("profileFile"))) : null;
+  }
+
+  /**
+   *  Add one query's profile.
+   *  @param p The profile.
+   *  @throws IOException
+   */
+  public void add(QryProfile p) throws IOException {
+    this.queries.record(p.nanos);
+    for (int i = 0; i < p.roots.size(); i++)
+      add(p.roots.get(i));
+
+    if (this.json != null) {
+      StringBuilder b = new StringBuilder(256);
+      p.toJson(b);
+      b.append('\n');
+      synchronized (this.json) {
+	this.json.write(b.toString());
+      }
+    }
+  }
+
+  private void add(QryProfile.Node n) {
+    OpStats s = this.ops.get(n.op);
+    if (s == null) {
+      s = new OpStats();
+      OpStats old = this.ops.putIfAbsent(n.op, s);
+      if (old != null)
+	s = old;
+    }
+
+    s.nanos.record(n.nanos);
+    s.selfNanos.record(n.selfNanos());
+    s.results.record(n.results);
+    if (n.postings > 0)
+      s.postings.record(n.postings);
+    if (n.candidates > 0)
+      s.candidates.record(n.candidates);
+
+    for (int i = 0; i < n.children.size(); i++)
+      add(n.children.get(i));
+  }
+
+  /**
+   *  Print the p50/p95/p99 of each operator's statistics.  Times are
+   *  in milliseconds.
+   *  @param out Where to print.
+   */
+  public void printSummary(PrintStream out) {
+    out.println("Profile: " + this.queries.getCount() + " queries, ms " +
+		percentiles(this.queries, true));
+
+    List<String> names = new ArrayList<String>(this.ops.keySet());
+    Collections.sort(names);
+    for (String name : names) {
+      OpStats s = this.ops.get(name);
+      out.println("  " + name + " (" + s.nanos.getCount() + ")");
+      out.println("    ms         " + percentiles(s.nanos, true));
+      out.println("    self ms    " + percentiles(s.selfNanos, true));
+      out.println("    results    " + percentiles(s.results, false));
+      if (s.postings.getCount() > 0)
+	out.println("    postings   " + percentiles(s.postings, false));
+      if (s.candidates.getCount() > 0)
+	out.println("    candidates " + percentiles(s.candidates, false));
+    }
+  }
+
+  private static String percentiles(LatencyHistogram h, boolean nanos) {
+    return "p50 " + format(h.getPercentile(50), nanos) +
+      "  p95 " + format(h.getPercentile(95), nanos) +
+      "  p99 " + format(h.getPercentile(99), nanos) +
+      "  max " + format(h.getMax(), nanos);
+  }
+
+  private static String format(long v, boolean nanos) {
+    return nanos ? String.valueOf(QryProfile.ms(v)) : String.valueOf(v);
+  }
+
+  /**
+   *  Close the JSON profile file.
+   *  @throws IOException
+   */
+  public void close() throws IOException {
+    if (this.json != null)
+      this.json.close();
+  }
+}
@@ -0,0 +1,456 @@
+/**
+ *  QryServer keeps the index open and answers queries until it is
+ *  stopped, so that small batches of queries don't pay for JVM
+ *  startup, opening the index, and warming the caches on every run.
+ *
+ *  Clients talk to the server over stdin/stdout (server=stdin) or
+ *  over a TCP connection to localhost (server=<port>).  Each request
+ *  is one line, and each response ends with a line containing only
+ *  ".":
+ *
+ *    queryno: query   The results in trec_eval format, or
+ *                     "ERROR <message>" if the query is malformed or
+ *                     ran out of time.  Results cut short by the
+ *                     time limit are preceded by a "PARTIAL" line.
+ *                     "queryno@ms: query" sets the query's own limit.
+ *    reopen           Reopen the index if it has changed.  The
+ *                     response is "OK reopened" or "OK current".
+ *    quit             Close the connection.  For stdin, stop the server.
+ *
+ *  Each connection, and each query, runs on its own thread.  These
+ *  are virtual threads when the JVM has them (Java 21 and later), so
+ *  a query that waits for the index to be paged in doesn't hold a
+ *  platform thread; otherwise they come from a cached thread pool.
+ *  A connection is a scope for its queries: the queries of one
+ *  connection run concurrently, their responses are written in
+ *  request order, and the connection is closed only after all of
+ *  them finish.
+ *
+ *  At most maxConcurrentQueries queries (default: the number of
+ *  processors) are evaluated at once, so CPU-bound scoring does not
+ *  oversubscribe the cores.  With queryTimeout (milliseconds), a
+ *  query that is not done by its deadline, including time spent
+ *  waiting for a turn, is cancelled cooperatively through
+ *  {@link QryDeadline}.  It is answered with an ERROR, or with the
+ *  results found so far if queryTimeoutAction=partial.
+ *
+ *  The index can also be reopened every reopenInterval seconds.
+ *  Queries hold a read lock on the index; reopening takes the write
+ *  lock, so the old reader is closed only after the queries using it
+ *  finish.
+ */
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.index.DirectoryReader;
+
+public class QryServer {
+
+  static final String END = ".";
+
+  //  The number of queries of one connection that may be waiting to
+  //  be answered before the server stops reading its requests.
+
+  static final int MAX_PENDING = 256;
+
+  private final Map<String, String> params;
+  private final RetrievalModel model;
+  private final RelevanceFeedback feedback;
+  private final String runId;
+
+  private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+  private final ExecutorService executor;
+  private final Semaphore permits;
+  private final long queryTimeout;
+  private final boolean partialResults;
+
+  /**
+   *  @param params The parameters.  runId, reopenInterval,
+   *         maxConcurrentQueries and queryTimeout are optional.
+   *  @param model The retrieval model.
+   *  @param feedback The relevance feedback stage, or null.
+   */
+  public QryServer(Map<String, String> params, RetrievalModel model, RelevanceFeedback feedback) {
+    this.params = params;
+    this.model = model;
+    this.feedback = feedback;
+    this.runId = params.containsKey("runId") ? params.get("runId") : "run-1";
+
+    int maxConcurrent = params.containsKey("maxConcurrentQueries") ?
+      Integer.parseInt(params.get("maxConcurrentQueries")) :
+      Runtime.getRuntime().availableProcessors();
+    this.permits = new Semaphore(Math.max(1, maxConcurrent));
+    QryopSlSaat.setPoolSize(maxConcurrent);
+    this.queryTimeout = params.containsKey("queryTimeout") ?
+      Long.parseLong(params.get("queryTimeout")) : 0;
+    this.partialResults = QryDeadline.isPartialMode(params.get("queryTimeoutAction"));
+    this.executor = newExecutor();
+  }
+
+  /**
+   *  A virtual thread per task if the JVM supports them, else a
+   *  cached pool of daemon threads.
+   */
+  private static ExecutorService newExecutor() {
+    try {
+      Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) m.invoke(null);
+    } catch (Exception e) {
+      return Executors.newCachedThreadPool(new ThreadFactory() {
+	public Thread newThread(Runnable r) {
+	  Thread t = new Thread(r, "query");
+	  t.setDaemon(true);
+	  return t;
+	}
+      });
+    }
+  }
+
+  /**
+   *  Serve requests until stdin is closed, or forever for a port.
+   *  @param server "stdin" or a port number.
+   *  @throws Exception
+   */
+  public void serve(String server) throws Exception {
+
+    if (this.params.containsKey("reopenInterval")) {
+      long seconds = Long.parseLong(this.params.get("reopenInterval"));
+      ScheduledExecutorService timer =
+	Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	  public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "reopen");
+	    t.setDaemon(true);
+	    return t;
+	  }
+	});
+      timer.scheduleWithFixedDelay(new Runnable() {
+	public void run() {
+	  try {
+	    reopen();
+	  } catch (IOException e) {
+	    System.err.println("Error: Can't reopen the index: " + e.getMessage());
+	  }
+	}
+      }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    if (server.equalsIgnoreCase("stdin")) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+      handle(in, Channels.newChannel(System.out));
+      return;
+    }
+
+    int port = 0;
+    try {
+      port = Integer.parseInt(server);
+    } catch (NumberFormatException e) {
+      QryEval.fatalError("Error: server must be stdin or a port number.");
+    }
+
+    ServerSocketChannel listener = ServerSocketChannel.open();
+    listener.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    System.err.println("Listening on port " + listener.socket().getLocalPort());
+
+    while (true) {
+      final SocketChannel client = listener.accept();
+      this.executor.execute(new Runnable() {
+	public void run() {
+	  try {
+	    handle(new BufferedReader(new InputStreamReader(Channels.newInputStream(client), "UTF-8")),
+		   client);
+	  } catch (IOException e) {
+	    System.err.println("Error: " + e.getMessage());
+	  } finally {
+	    try {
+	      client.close();
+	    } catch (IOException e) {
+	    }
+	  }
+	}
+      });
+    }
+  }
+
+  /**
+   *  Answer the requests of one client.  This thread reads requests
+   *  and starts a task for each query; a responder task writes the
+   *  responses in request order.
+   */
+  private void handle(BufferedReader in, WritableByteChannel out) throws IOException {
+
+    final TrecWriter writer = new TrecWriter(out, QryEval.eids, this.runId);
+    final BlockingQueue<Pending> pending = new ArrayBlockingQueue<Pending>(MAX_PENDING);
+
+    Future<?> responder = this.executor.submit(new Callable<Void>() {
+      public Void call() throws IOException {
+	respond(pending, writer);
+	return null;
+      }
+    });
+
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+	line = line.trim();
+	if (line.length() == 0)
+	  continue;
+
+	if (line.equals("quit"))
+	  break;
+
+	if (line.equals("reopen")) {
+	  put(pending, new Pending(new Response(reopen() ? "OK reopened" : "OK current")));
+	  continue;
+	}
+
+	int tempindex = line.indexOf(":");
+	if (tempindex == -1) {
+	  put(pending, new Pending(new Response("ERROR Expected \"queryno: query\"")));
+	  continue;
+	}
+
+	final int queryno;
+	final long timeout;
+	final String query = line.substring(tempindex + 1).trim();
+	final Qryop qTree;
+	try {
+	  long[] id = QryDeadline.parseQueryId(line.substring(0, tempindex), this.queryTimeout);
+	  queryno = (int) id[0];
+	  timeout = id[1];
+	  qTree = QryEval.parseQuery(query, this.model);
+	} catch (NumberFormatException e) {
+	  put(pending, new Pending(new Response("ERROR Invalid query id")));
+	  continue;
+	} catch (QrySyntaxException e) {
+	  put(pending, new Pending(new Response(e)));
+	  continue;
+	}
+
+	final QryDeadline deadline =
+	  (timeout > 0) ? new QryDeadline(timeout, this.partialResults) : null;
+	Future<Response> f = this.executor.submit(new Callable<Response>() {
+	  public Response call() {
+	    return query(queryno, query, qTree, deadline);
+	  }
+	});
+	put(pending, new Pending(f, deadline));
+      }
+    } finally {
+      put(pending, Pending.LAST);
+      wait(responder);
+    }
+  }
+
+  /**
+   *  Write responses in request order until the last one.  If the
+   *  client goes away, the remaining queries are cancelled.
+   */
+  private static void respond(BlockingQueue<Pending> pending, TrecWriter writer)
+    throws IOException {
+
+    IOException error = null;
+
+    while (true) {
+      Pending p;
+      try {
+	p = pending.take();
+      } catch (InterruptedException e) {
+	throw new InterruptedIOException();
+      }
+      if (p == Pending.LAST)
+	break;
+
+      if (error != null) {
+	p.cancel();
+	continue;
+      }
+
+      try {
+	p.get().write(writer);
+	writer.writeLine(END);
+	if (pending.isEmpty())
+	  writer.flush();
+      } catch (IOException e) {
+	error = e;
+      }
+    }
+
+    if (error != null)
+      throw error;
+    writer.flush();
+  }
+
+  /**
+   *  Evaluate one query on the calling thread.
+   */
+  private Response query(int queryno, String query, Qryop qTree, QryDeadline deadline) {
+
+    QryDeadline.set(deadline);
+    try {
+      if (deadline == null)
+	this.permits.acquireUninterruptibly();
+      else if (! this.permits.tryAcquire(deadline.remainingMillis(), TimeUnit.MILLISECONDS))
+	return new Response(new QryTimeoutException("Query exceeded its time limit" +
+						    " waiting to be evaluated"));
+
+      try {
+	this.indexLock.readLock().lock();
+	try {
+	  QryResult result = QryEval.evaluateQuery(queryno, qTree, this.model, this.feedback);
+	  Response response = new Response(queryno, query, result, QryEval.eids);
+	  response.partial = (deadline != null) && deadline.isTruncated();
+	  return response;
+	} finally {
+	  this.indexLock.readLock().unlock();
+	}
+      } finally {
+	this.permits.release();
+      }
+    } catch (InterruptedException e) {
+      return new Response(new QryTimeoutException("Query interrupted"));
+    } catch (IOException e) {
+      return new Response(e);
+    } finally {
+      QryDeadline.set(null);
+    }
+  }
+
+  private static void put(BlockingQueue<Pending> pending, Pending p) throws IOException {
+    try {
+      pending.put(p);
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+
+  private static void wait(Future<?> f) throws IOException {
+    try {
+      f.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+	throw (IOException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   *  Reopen the index if it has changed since it was opened.  The
+   *  document lengths and external ids are reloaded for the new
+   *  reader, the retrieval model and the re-ranker rebuild what they
+   *  derived from the old reader, and the old reader is closed.
+   *  @return true if the index was reopened.
+   *  @throws IOException
+   */
+  public boolean reopen() throws IOException {
+    this.indexLock.writeLock().lock();
+    try {
+      DirectoryReader current = (DirectoryReader) QryEval.READER;
+      DirectoryReader reader = DirectoryReader.openIfChanged(current);
+      if (reader == null)
+	return false;
+
+      QryEval.READER = reader;
+      QryEval.dls = new DocLengthStore(reader);
+      QryEval.eids = ExternalIdStore.open(reader, QryEval.externalIdFile(this.params));
+      this.model.reopen(reader);
+      if (QryEval.reranker != null)
+	QryEval.reranker.reopen();
+      current.close();
+      System.err.println("Reopened the index, version " + reader.getVersion());
+      return true;
+    } finally {
+      this.indexLock.writeLock().unlock();
+    }
+  }
+
+  //  The answer to one request.  Results keep the external ids of the
+  //  reader that produced them, in case the index is reopened before
+  //  they are written.
+
+  private static class Response {
+    int queryno;
+    String query;
+    QryResult result;
+    ExternalIdStore eids;
+    String message;
+    boolean partial = false;
+
+    Response(int queryno, String query, QryResult result, ExternalIdStore eids) {
+      this.queryno = queryno;
+      this.query = query;
+      this.result = result;
+      this.eids = eids;
+    }
+
+    Response(String message) {
+      this.message = message;
+    }
+
+    Response(IOException e) {
+      this("ERROR " + String.valueOf(e.getMessage()).replace('\n', ' '));
+    }
+
+    void write(TrecWriter writer) throws IOException {
+      if (this.message != null) {
+	writer.writeLine(this.message);
+      } else {
+	if (this.partial)
+	  writer.writeLine("PARTIAL");
+	writer.setExternalIds(this.eids);
+	QryEval.printResults(this.queryno, this.query, this.result, writer);
+      }
+    }
+  }
+
+  //  A response that may still be being computed.
+
+  private static class Pending {
+    static final Pending LAST = new Pending(null, null);
+
+    final Future<Response> future;
+    final Response response;
+    final QryDeadline deadline;
+
+    Pending(Future<Response> future, QryDeadline deadline) {
+      this.future = future;
+      this.response = null;
+      this.deadline = deadline;
+    }
+
+    Pending(Response response) {
+      this.future = null;
+      this.response = response;
+      this.deadline = null;
+    }
+
+    Response get() throws IOException {
+      if (this.future == null)
+	return this.response;
+      try {
+	return this.future.get();
+      } catch (InterruptedException e) {
+	throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+	return new Response("ERROR " + e.getCause());
+      }
+    }
+
+    void cancel() {
+      if (this.deadline != null)
+	this.deadline.cancel();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/**
+ *  QryStats records the latency and memory allocation of every query
+ *  in a run, and reports throughput (queries per second), latency
+ *  percentiles and allocation per query at the end.  Latency is the
+ *  time spent evaluating a query, from the parsed query tree to its
+ *  score list.  Allocation is measured per thread with
+ *  com.sun.management.ThreadMXBean, where the JVM supports it.
+ *
+ *  With reportInterval=N, a line with the queries, QPS and latency of
+ *  the last N seconds is also printed to stderr every N seconds.  With
+ *  statsFile, the summary is also written to that file as key=value
+ *  lines, for tools such as {@link RegressionHarness}.
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QryStats {
+
+  private final long start = System.nanoTime();
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LatencyHistogram allocation = new LatencyHistogram();
+
+  //  The queries since the last live report.
+
+  private final LatencyHistogram interval = new LatencyHistogram();
+  private final AtomicLong intervalStart = new AtomicLong(this.start);
+
+  private final com.sun.management.ThreadMXBean threads;
+  private ScheduledExecutorService reporter = null;
+
+  /**
+   *  @param reportSeconds The live report interval in seconds; 0 for none.
+   */
+  public QryStats(long reportSeconds) {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean threads = null;
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      threads = (com.sun.management.ThreadMXBean) bean;
+      if (threads.isThreadAllocatedMemorySupported())
+	threads.setThreadAllocatedMemoryEnabled(true);
+      else
+	threads = null;
+    }
+    this.threads = threads;
+
+    if (reportSeconds > 0) {
+      this.reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	public Thread newThread(Runnable r) {
+	  Thread t = new Thread(r, "stats");
+	  t.setDaemon(true);
+	  return t;
+	}
+      });
+      this.reporter.scheduleAtFixedRate(new Runnable() {
+	public void run() {
+	  printInterval(System.err);
+	}
+      }, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   *  The number of bytes the current thread has allocated so far.
+   *  @return The byte count, or -1 if it can't be measured.
+   */
+  public long allocatedBytes() {
+    if (this.threads == null)
+      return -1;
+    return this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   *  Record one query.
+   *  @param nanos The time the query took.
+   *  @param bytes The bytes allocated for the query, or -1 if unknown.
+   */
+  public void record(long nanos, long bytes) {
+    this.latency.record(nanos);
+    this.interval.record(nanos);
+    if (bytes >= 0)
+      this.allocation.record(bytes);
+  }
+
+  /**
+   *  Print throughput, latency percentiles and allocation per query
+   *  for the whole run.
+   *  @param out Where to print.
+   */
+  public void printSummary(PrintStream out) {
+    long n = this.latency.getCount();
+    double seconds = (System.nanoTime() - this.start) / 1e9;
+
+    out.println("Queries: " + n + " in " + round(seconds) + " s, " +
+		round(n / Math.max(seconds, 1e-9)) + " QPS");
+    out.println("  latency ms   p50 " + ms(this.latency.getPercentile(50)) +
+		"  p90 " + ms(this.latency.getPercentile(90)) +
+		"  p99 " + ms(this.latency.getPercentile(99)) +
+		"  max " + ms(this.latency.getMax()) +
+		"  mean " + round(this.latency.getMean() / 1e6));
+    if (this.allocation.getCount() > 0)
+      out.println("  allocated KB p50 " + kb(this.allocation.getPercentile(50)) +
+		  "  p99 " + kb(this.allocation.getPercentile(99)) +
+		  "  max " + kb(this.allocation.getMax()) +
+		  "  mean " + round(this.allocation.getMean() / 1024));
+  }
+
+  /**
+   *  Write the summary as key=value lines.  Times are in nanoseconds
+   *  and allocation is in bytes; allocation is omitted if it wasn't
+   *  measured.
+   *  @param file The file to write.
+   *  @throws IOException
+   */
+  public void write(File file) throws IOException {
+    long n = this.latency.getCount();
+    double seconds = (System.nanoTime() - this.start) / 1e9;
+
+    PrintWriter out = new PrintWriter(new FileWriter(file));
+    try {
+      out.println("queries=" + n);
+      out.println("seconds=" + round(seconds));
+      out.println("qps=" + round(n / Math.max(seconds, 1e-9)));
+      out.println("latencyP50=" + this.latency.getPercentile(50));
+      out.println("latencyP90=" + this.latency.getPercentile(90));
+      out.println("latencyP99=" + this.latency.getPercentile(99));
+      out.println("latencyMax=" + this.latency.getMax());
+      out.println("latencyMean=" + Math.round(this.latency.getMean()));
+      if (this.allocation.getCount() > 0) {
+	out.println("allocatedP50=" + this.allocation.getPercentile(50));
+	out.println("allocatedP99=" + this.allocation.getPercentile(99));
+	out.println("allocatedMean=" + Math.round(this.allocation.getMean()));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   *  Print the queries recorded since the last interval report, and
+   *  start a new interval.  Queries recorded while the report is
+   *  printed may be counted in either interval, or lost.
+   */
+  void printInterval(PrintStream out) {
+    long now = System.nanoTime();
+    double seconds = (now - this.intervalStart.getAndSet(now)) / 1e9;
+    long n = this.interval.getCount();
+
+    out.println("[stats] " + round((now - this.start) / 1e9) + " s: " +
+		n + " queries, " + round(n / Math.max(seconds, 1e-9)) + " QPS" +
+		", p50 " + ms(this.interval.getPercentile(50)) +
+		" p99 " + ms(this.interval.getPercentile(99)) +
+		" max " + ms(this.interval.getMax()) + " ms" +
+		" (total " + this.latency.getCount() + ")");
+    this.interval.reset();
+  }
+
+  /**
+   *  Stop the live report.
+   */
+  public void close() {
+    if (this.reporter != null)
+      this.reporter.shutdown();
+  }
+
+  private static double ms(long nanos) {
+    return round(nanos / 1e6);
+  }
+
+  private static double kb(long bytes) {
+    return round(bytes / 1024.0);
+  }
+
+  private static double round(double v) {
+    return Math.round(v * 1000) / 1000.0;
+  }
+}
@@ -0,0 +1,41 @@
+/**
+ *  QrySyntaxException reports a malformed query.  The message shows
+ *  the query and the position where parsing failed.
+ */
+
+import java.io.*;
+
+public class QrySyntaxException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String query;
+  private final int position;
+
+  /**
+   *  @param message What is wrong with the query.
+   *  @param query The query string.
+   *  @param position The character offset of the error in the query.
+   */
+  public QrySyntaxException(String message, String query, int position) {
+    super("Error:  Query syntax is incorrect at position " + position + ": " +
+	  message + "\n  " + query + "\n  " + caret(position));
+    this.query = query;
+    this.position = position;
+  }
+
+  public String getQuery() {
+    return this.query;
+  }
+
+  public int getPosition() {
+    return this.position;
+  }
+
+  private static String caret(int position) {
+    StringBuilder b = new StringBuilder(position + 1);
+    for (int i = 0; i < position; i++)
+      b.append(' ');
+    return b.append('^').toString();
+  }
+}
@@ -0,0 +1,18 @@
+/**
+ *  QryTimeoutException reports that a query was cancelled because it
+ *  ran past its deadline.
+ */
+
+import java.io.*;
+
+public class QryTimeoutException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   *  @param message Why the query was cancelled.
+   */
+  public QryTimeoutException(String message) {
+    super(message);
+  }
+}
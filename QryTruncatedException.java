@@ -0,0 +1,28 @@
+/**
+ *  QryTruncatedException stops the evaluation of a query whose
+ *  deadline passed in partial mode.  It carries the result of the
+ *  operator that was running when a loop stopped early, which
+ *  {@link QryEval#evaluateQuery} returns as the query's result.
+ */
+
+public class QryTruncatedException extends QryTimeoutException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient QryResult result;
+
+  /**
+   *  @param result The partial result of the operator that was running.
+   */
+  public QryTruncatedException(QryResult result) {
+    super("Query truncated");
+    this.result = result;
+  }
+
+  /**
+   *  @return The partial result.
+   */
+  public QryResult getResult() {
+    return this.result;
+  }
+}
@@ -24,8 +24,9 @@ public abstract class QryopIl extends Qryop {
   public void allocDaaTPtrs (RetrievalModel r) throws IOException {
 
     for (int i=0; i<this.args.size(); i++) {
+      QryDeadline.check();
       DaaTPtr ptri = new DaaTPtr ();
-      ptri.invList = this.args.get(i).evaluate(r).invertedList;
+      ptri.invList = QryProfile.evaluate(this.args.get(i), r).invertedList;
       ptri.scoreList = null;
       ptri.nextDoc = 0;
       this.daatPtrs.add (ptri);
@@ -50,6 +50,12 @@ public class QryopIlSyn extends QryopIl {
     QryResult result = new QryResult ();
     result.invertedList.field = new String (this.daatPtrs.get(0).invList.field);
 
+    //  Arguments that match nothing don't contribute to the union.
+
+    for (int i=this.daatPtrs.size()-1; i>=0; i--)
+      if (this.daatPtrs.get(i).invList.postings.size() == 0)
+	this.daatPtrs.remove (i);
+
     //  Each pass of the loop adds 1 document to result until all of
     //  the inverted lists are depleted.  When a list is depleted, it
     //  is removed from daatPtrs, so this loop runs until daatPtrs is empty.
@@ -57,8 +63,12 @@ public class QryopIlSyn extends QryopIl {
     //  This implementation is intended to be clear.  A more efficient
     //  implementation would combine loops and use merge-sort.
 
+    int steps = 0;
     while (this.daatPtrs.size() > 0) {
 
+      if (((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop())
+	break;
+
       int nextDocid = getSmallestCurrentDocid ();
 
       //  Create a new posting that is the union of the posting lists
@@ -14,6 +14,7 @@ public class QryopIlTerm extends QryopIl {
 
   private String term;
   private String field;
+  private boolean defaultField = false;
 
   /**
    *  Constructor.  The term is assumed to match the body field.
@@ -23,6 +24,7 @@ public class QryopIlTerm extends QryopIl {
   public QryopIlTerm(String t) {
     this.term = t;
     this.field = "body";	// Default field if none is specified.
+    this.defaultField = true;
   }
 
   /**
@@ -58,6 +60,28 @@ public class QryopIlTerm extends QryopIl {
     return result;
   }
 
+  /**
+   *  @return The term string.
+   */
+  public String getTerm() {
+    return this.term;
+  }
+
+  /**
+   *  @return The field that the term matches in.
+   */
+  public String getField() {
+    return this.field;
+  }
+
+  /**
+   *  @return true if the query didn't name a field for the term, so
+   *          that a fielded retrieval model may score it in several.
+   */
+  public boolean isDefaultField() {
+    return this.defaultField;
+  }
+
   /*
    *  Return a string version of this query operator.  
    *  @return The string version of this query operator.
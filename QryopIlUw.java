@@ -0,0 +1,74 @@
+/**
+ *  This class implements the UW/n (unordered window) operator for all
+ *  retrieval models.  A document matches when all of its arguments
+ *  occur, in any order, inside a window of at most n positions
+ *  (last position - first position + 1 <= n).  The position of a
+ *  match is the start of the window.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class QryopIlUw extends QryopIlWindow {
+
+  /**
+   *  It is convenient for the constructor to accept a variable number
+   *  of arguments. Thus new QryopIlUw (n, arg1, arg2, arg3, ...).
+   */
+  public QryopIlUw(int dis) {
+    distance = dis;
+  }
+
+  public QryopIlUw(int dis, Qryop... q) {
+    for (int i = 0; i < q.length; i++)
+      this.args.add(q[i]);
+    distance = dis;
+  }
+
+  /**
+   *  Find minimal covering windows in a single pass.  Each step looks
+   *  at the current position of every argument.  If they fit in the
+   *  window, the window is recorded and every cursor moves past it, so
+   *  positions are not shared between windows.  Otherwise only the
+   *  cursor at the smallest position moves, since no window that
+   *  starts there can be small enough.
+   *  @param n The number of arguments.
+   *  @return The number of windows found.
+   */
+  protected int matchWindows(int n) {
+    int[][] pos = this.pos;
+    int[] len = this.len;
+    int[] cursor = this.cursor;
+    int found = 0;
+
+    while (true) {
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      int minArg = 0;
+
+      for (int i = 0; i < n; i++) {
+	if (cursor[i] >= len[i])
+	  return found;			// An argument has no more positions.
+	int p = pos[i][cursor[i]];
+	if (p < min) {
+	  min = p;
+	  minArg = i;
+	}
+	if (p > max)
+	  max = p;
+      }
+
+      if (max - min + 1 <= distance) {
+	found = addMatch(found, min);
+	for (int i = 0; i < n; i++)
+	  cursor[i]++;
+      } else {
+	cursor[minArg]++;
+      }
+    }
+  }
+
+  protected String operatorName() {
+    return "UW";
+  }
+}
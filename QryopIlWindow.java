@@ -0,0 +1,184 @@
+/**
+ *  QryopIlWindow is the parent of the proximity operators (#NEAR/n
+ *  and #UW/n).  Both find the documents that contain all of their
+ *  arguments with a conjunctive docid alignment, and then look for
+ *  position windows in each matching document.  Subclasses only
+ *  define how windows are matched.
+ *
+ *  The positions of the current document are copied into reusable
+ *  int arrays, and matches are collected in a reusable int array, so
+ *  matching a document does not allocate.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public abstract class QryopIlWindow extends QryopIl {
+
+  protected int distance = 0;
+
+  //  Scratch space for the current document.  pos[i][0..len[i]) are
+  //  the positions of argument i, and matches[0..) are the positions
+  //  of the windows found.
+
+  protected int[][] pos = new int[0][];
+  protected int[] len = new int[0];
+  protected int[] cursor = new int[0];
+  protected int[] matches = new int[16];
+
+  /**
+   *  Appends an argument to the list of query operator arguments.  This
+   *  simplifies the design of some query parsing architectures.
+   *  @param {q} q The query argument (query operator) to append.
+   *  @return void
+   */
+  public void add (Qryop a) {
+    this.args.add(a);
+  }
+
+  /**
+   *  Evaluates the query operator, including any child operators and
+   *  returns the result.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  public QryResult evaluate(RetrievalModel r) throws IOException {
+
+    //  Initialization
+    allocDaaTPtrs (r);
+    syntaxCheckArgResults (this.daatPtrs);
+
+    QryResult result = new QryResult ();
+    result.invertedList.field = new String (this.daatPtrs.get(0).invList.field);
+
+    int n = this.daatPtrs.size();
+    if (this.pos.length < n) {
+      this.pos = new int[n][16];
+      this.len = new int[n];
+      this.cursor = new int[n];
+    }
+
+    DaaTPtr ptr0 = this.daatPtrs.get(0);
+    int steps = 0;
+
+    EVALUATEDOCUMENTS:
+    for ( ; ptr0.nextDoc < ptr0.invList.postings.size(); ptr0.nextDoc ++) {
+
+      if (((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop())
+	break;
+
+      int ptr0Docid = ptr0.invList.getDocid (ptr0.nextDoc);
+
+      //  Do the other query arguments have the ptr0Docid?
+
+      for (int j=1; j<n; j++) {
+
+	DaaTPtr ptrj = this.daatPtrs.get(j);
+
+	while (true) {
+	  if (ptrj.nextDoc >= ptrj.invList.postings.size())
+	    break EVALUATEDOCUMENTS;		// No more docs can match
+	  else
+	    if (ptrj.invList.getDocid (ptrj.nextDoc) > ptr0Docid)
+	      continue EVALUATEDOCUMENTS;	// The ptr0docid can't match.
+	  else
+	    if (ptrj.invList.getDocid (ptrj.nextDoc) < ptr0Docid)
+	      ptrj.nextDoc ++;			// Not yet at the right doc.
+	  else
+	      break;				// ptrj matches ptr0Docid
+	}
+      }
+
+      //  The ptr0Docid matched all query arguments, so load the
+      //  positions and look for windows.
+
+      for (int i=0; i<n; i++) {
+	DaaTPtr ptri = this.daatPtrs.get(i);
+	Vector<Integer> p = ptri.invList.postings.get(ptri.nextDoc).positions;
+	int size = p.size();
+	if (this.pos[i].length < size)
+	  this.pos[i] = new int[Math.max(size, this.pos[i].length * 2)];
+	for (int k=0; k<size; k++)
+	  this.pos[i][k] = p.get(k);
+	this.len[i] = size;
+	this.cursor[i] = 0;
+      }
+
+      int found = matchWindows(n);
+      if (found > 0)
+	result.invertedList.appendPosting (ptr0Docid, this.matches, found);
+    }
+    freeDaaTPtrs();
+    return result;
+  }
+
+  /**
+   *  Find the windows in the current document.  The positions of
+   *  argument i are pos[i][0..len[i]), and cursor[i] is 0 for every
+   *  argument.  Use {@link #addMatch(int, int)} to record windows.
+   *  @param n The number of arguments.
+   *  @return The number of windows found.
+   */
+  protected abstract int matchWindows(int n);
+
+  /**
+   *  Record a window at matches[found], growing matches if needed.
+   *  @param found The number of windows recorded so far.
+   *  @param position The position of the window.
+   *  @return found + 1.
+   */
+  protected int addMatch(int found, int position) {
+    if (found == this.matches.length)
+      this.matches = Arrays.copyOf(this.matches, found * 2);
+    this.matches[found] = position;
+    return found + 1;
+  }
+
+  /**
+   *  The operator name used in error messages, e.g., "NEAR".
+   */
+  protected abstract String operatorName();
+
+  /**
+   *  syntaxCheckArgResults does syntax checking that can only be done
+   *  after query arguments are evaluated.
+   *  @param ptrs A list of DaaTPtrs for this query operator.
+   *  @return True if the syntax is valid, false otherwise.
+   */
+  public Boolean syntaxCheckArgResults (List<DaaTPtr> ptrs) {
+
+    for (int i=0; i<this.args.size(); i++) {
+
+      if (! (this.args.get(i) instanceof QryopIl)) 
+	QryEval.fatalError ("Error:  Invalid argument in " +
+			    this.toString());
+      else
+    //Window operators need all arguments in the same field
+	if ((i>0) &&
+	    (! ptrs.get(i).invList.field.equals (ptrs.get(0).invList.field)))
+	  QryEval.fatalError ("Error:  Arguments must be in the same field:  " +
+			      this.toString());
+    }
+    
+    if(this.daatPtrs.size()<2)
+    	QryEval.fatalError("Error: " + operatorName() + " operator should have at least two parameters.");
+    if(distance < 1)
+    	QryEval.fatalError("Error: " + operatorName() + " operator have invalid distance value.");
+    return true;
+  }
+  
+  /*
+   *  Return a string version of this query operator.  
+   *  @return The string version of this query operator.
+   */
+  public String toString(){
+    
+    String result = new String ();
+
+    for (Iterator<Qryop> i = this.args.iterator(); i.hasNext(); )
+      result += (i.next().toString() + " ");
+
+    return ("#" + operatorName() + "/" + distance + "( " + result + ")");
+  }
+}
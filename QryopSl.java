@@ -29,17 +29,38 @@ public abstract class QryopSl extends Qryop {
       //  in a #SCORE operator.
 
       if (! QryopSl.class.isInstance (this.args.get(i)))
-	this.args.set(i, new QryopSlScore(this.args.get(i)));
+	this.args.set(i, score(this.args.get(i), r));
+
+      QryDeadline.check();
+      QryResult argResult = QryProfile.evaluate(this.args.get(i), r);
+      QryDeadline.finish(argResult);
 
       DaaTPtr ptri = new DaaTPtr ();
       ptri.invList = null;
-      ptri.scoreList = this.args.get(i).evaluate(r).docScores;
+      ptri.scoreList = argResult.docScores;
       ptri.nextDoc = 0;
 	
       this.daatPtrs.add (ptri);
     }
   }
 
+  /**
+   *  Wrap a query operator that returns inverted lists in the
+   *  operator that scores it: #SCORE, or for a fielded retrieval
+   *  model and a term that doesn't name a field, a
+   *  {@link QryopSlFieldScore} that scores it in all of the model's
+   *  fields.
+   *  @param q The query operator.
+   *  @param r The retrieval model.
+   *  @return The score operator.
+   */
+  public static QryopSl score (Qryop q, RetrievalModel r) {
+    if ((r instanceof RetrievalModelBM25F || r instanceof RetrievalModelIndriFielded) &&
+	(q instanceof QryopIlTerm) && ((QryopIlTerm) q).isDefaultField())
+      return new QryopSlFieldScore((QryopIlTerm) q);
+    return new QryopSlScore(q);
+  }
+
   /*
    *  Calculate the default score for the specified document if it
    *  does not match the query operator.  This score is 0 for many
@@ -85,10 +85,14 @@ public class QryopSlAnd extends QryopSl {
     //  Otherwise it is necessary to use flags, which is also ugly.
 
     DaaTPtr ptr0 = this.daatPtrs.get(0);
+    int steps = 0;
 
     EVALUATEDOCUMENTS:
     for ( ; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc ++) {
 
+      if (((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop())
+	break;
+
       int ptr0Docid = ptr0.scoreList.getDocid (ptr0.nextDoc);
       double docScore = ptr0.scoreList.getDocidScore(ptr0.nextDoc);
 
@@ -123,6 +127,7 @@ public class QryopSlAnd extends QryopSl {
       result.docScores.add (ptr0Docid, docScore);
     }
 
+    QryProfile.scored(steps, 0);
     freeDaaTPtrs ();
 
     return result;
@@ -0,0 +1,254 @@
+/**
+ *  This class implements the SCORE operator of the fielded retrieval
+ *  models ({@link RetrievalModelBM25F}, {@link RetrievalModelIndriFielded})
+ *  for a query term that doesn't name a field.  The term's postings
+ *  in every field of the model are read in one document-at-a-time
+ *  pass, and each document is scored once from its per-field term
+ *  frequencies and lengths.  Only frequencies are read, not
+ *  positions, so scoring a term in four fields reads about as much
+ *  as building one field's inverted list with positions.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+public class QryopSlFieldScore extends QryopSl {
+
+  private final QryopIlTerm term;
+
+  //  Per-field statistics, kept for default scores.
+
+  private FieldWeights fields;
+  private NumericDocValues[] lengths;
+  private double[] mle;
+
+  /**
+   *  @param term A term that doesn't name a field.
+   */
+  public QryopSlFieldScore(QryopIlTerm term) {
+    this.term = term;
+    this.args.add(term);
+  }
+
+  /**
+   *  This operator scores exactly one term, so add does nothing.
+   *  @param {q} q The query argument (query operator) to append.
+   *  @return void
+   */
+  public void add (Qryop a) {
+  }
+
+  /**
+   *  Evaluate the query operator.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  public QryResult evaluate(RetrievalModel r) throws IOException {
+    if (r instanceof RetrievalModelBM25F)
+      return evaluateBM25F((RetrievalModelBM25F) r);
+    if (r instanceof RetrievalModelIndriFielded)
+      return evaluateIndri((RetrievalModelIndriFielded) r);
+
+    return null;
+  }
+
+  /**
+   *  Open the term's postings and the document lengths of each field.
+   *  A field that the index doesn't have, or that has weight 0, is
+   *  skipped.
+   *  @return The postings of each field; null where the term doesn't occur.
+   */
+  private DocsEnum[] open(FieldWeights fields) throws IOException {
+    this.fields = fields;
+    this.lengths = new NumericDocValues[fields.size()];
+    this.mle = new double[fields.size()];
+
+    BytesRef bytes = new BytesRef(this.term.getTerm());
+    DocsEnum[] docs = new DocsEnum[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      String field = fields.getField(i);
+      if (fields.getWeight(i) == 0.0)
+	continue;
+      this.lengths[i] = QryEval.dls.getLengths(field);
+      if (this.lengths[i] == null)
+	continue;
+      long sum = QryEval.READER.getSumTotalTermFreq(field);
+      this.mle[i] = (sum > 0) ?
+	QryEval.READER.totalTermFreq(new Term(field, bytes)) * 1.0 / sum : 0.0;
+      docs[i] = MultiFields.getTermDocsEnum(QryEval.READER,
+					    MultiFields.getLiveDocs(QryEval.READER),
+					    field, bytes, DocsEnum.FLAG_FREQS);
+    }
+    return docs;
+  }
+
+  /**
+   *  The smallest current document of the postings.
+   */
+  private static int next(int[] doc) {
+    int min = DocIdSetIterator.NO_MORE_DOCS;
+    for (int i = 0; i < doc.length; i++)
+      if (doc[i] < min)
+	min = doc[i];
+    return min;
+  }
+
+  private static int[] start(DocsEnum[] docs) throws IOException {
+    int[] doc = new int[docs.length];
+    for (int i = 0; i < docs.length; i++)
+      doc[i] = (docs[i] == null) ? DocIdSetIterator.NO_MORE_DOCS : docs[i].nextDoc();
+    return doc;
+  }
+
+  /**
+   *  BM25F.  The weighted, length-normalized frequencies are collected
+   *  first, because idf depends on the number of documents that match
+   *  in any field, which is known only at the end of the pass.
+   */
+  private QryResult evaluateBM25F(RetrievalModelBM25F r) throws IOException {
+
+    FieldWeights fields = r.getFields();
+    DocsEnum[] docs = open(fields);
+    int n = fields.size();
+
+    //  Per-field constants: weight / (1 - b + b * len / avglen) is
+    //  weight / (c0 + c1 * len).
+
+    double[] c0 = new double[n];
+    double[] c1 = new double[n];
+    int N = 0;
+    for (int i = 0; i < n; i++) {
+      String field = fields.getField(i);
+      N = Math.max(N, QryEval.READER.getDocCount(field));
+      if (this.lengths[i] == null)
+	continue;
+      double avglen = QryEval.READER.getSumTotalTermFreq(field) /
+	(float) QryEval.READER.getDocCount(field);
+      double b = r.getb(field);
+      c0[i] = (1 - b) / fields.getWeight(i);
+      c1[i] = b / avglen / fields.getWeight(i);
+    }
+
+    int[] ids = new int[64];
+    double[] tfs = new double[64];
+    int df = 0;
+    long postings = 0;
+    int steps = 0;
+
+    int[] doc = start(docs);
+    for (int d = next(doc); d != DocIdSetIterator.NO_MORE_DOCS; d = next(doc)) {
+      if (((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop())
+	break;
+
+      double tf = 0.0;
+      for (int i = 0; i < n; i++) {
+	if (doc[i] != d)
+	  continue;
+	tf += docs[i].freq() / (c0[i] + c1[i] * this.lengths[i].get(d));
+	doc[i] = docs[i].nextDoc();
+	postings++;
+      }
+
+      if (df == ids.length) {
+	ids = Arrays.copyOf(ids, df * 2);
+	tfs = Arrays.copyOf(tfs, df * 2);
+      }
+      ids[df] = d;
+      tfs[df] = tf;
+      df++;
+    }
+
+    QryResult result = new QryResult();
+    double idf = Math.log((N - df + 0.5) / (df + 0.5));
+    double k1 = r.getk1();
+    for (int j = 0; j < df; j++)
+      result.docScores.add(ids[j], idf * tfs[j] / (k1 + tfs[j]));
+
+    QryProfile.scored(postings, 0);
+    return result;
+  }
+
+  /**
+   *  The Indri mixture of field language models.  A field that
+   *  doesn't contain the term contributes its smoothed background
+   *  probability.
+   */
+  private QryResult evaluateIndri(RetrievalModelIndriFielded r) throws IOException {
+
+    FieldWeights fields = r.getFields();
+    DocsEnum[] docs = open(fields);
+    int n = fields.size();
+    double lambda = r.getlambda();
+    int mu = r.getmu();
+
+    QryResult result = new QryResult();
+    long postings = 0;
+    int steps = 0;
+
+    int[] doc = start(docs);
+    for (int d = next(doc); d != DocIdSetIterator.NO_MORE_DOCS; d = next(doc)) {
+      if (((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop())
+	break;
+
+      double score = 0.0;
+      for (int i = 0; i < n; i++) {
+	if (this.lengths[i] == null)
+	  continue;
+	int tf = 0;
+	if (doc[i] == d) {
+	  tf = docs[i].freq();
+	  doc[i] = docs[i].nextDoc();
+	  postings++;
+	}
+	long doclen = this.lengths[i].get(d);
+	score += fields.getWeight(i) *
+	  (lambda * (tf + mu * this.mle[i]) / (doclen + mu) + (1 - lambda) * this.mle[i]);
+      }
+      result.docScores.add(d, score);
+    }
+
+    QryProfile.scored(postings, 0);
+    return result;
+  }
+
+  /*
+   *  Calculate the default score for a document that does not contain
+   *  the term in any field.  This is 0 for BM25F.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docid The internal id of the document that needs a default score.
+   *  @return The default score.
+   */
+  public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
+
+    if (! (r instanceof RetrievalModelIndriFielded) || this.fields == null)
+      return 0.0;
+
+    double lambda = ((RetrievalModelIndri) r).getlambda();
+    int mu = ((RetrievalModelIndri) r).getmu();
+    double score = 0.0;
+    for (int i = 0; i < this.fields.size(); i++) {
+      if (this.lengths[i] == null)
+	continue;
+      long doclen = this.lengths[i].get((int) docid);
+      score += this.fields.getWeight(i) *
+	(lambda * mu * this.mle[i] / (doclen + mu) + (1 - lambda) * this.mle[i]);
+    }
+    return score;
+  }
+
+  /*
+   *  Return a string version of this query operator.
+   *  @return The string version of this query operator.
+   */
+  public String toString(){
+    return ("#FIELDSCORE( " + this.term.getTerm() + " )");
+  }
+}
@@ -40,42 +40,77 @@ public class QryopSlIndriAnd extends QryopSl{
   }
 
   public QryResult evaluateIndri (RetrievalModel r) throws IOException {
+    return evaluateIndri(r, null);
+  }
+
+  /**
+   *  The merge kernel shared by #AND and #WAND.  The score of a
+   *  document is the product of score_i ^ exponents[i]; arguments
+   *  that don't match the document contribute their default score.
+   *  If exponents is null, every argument has exponent 1/n, and the
+   *  product is computed first and raised to 1/n once.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param exponents The exponent of each argument, or null.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  protected QryResult evaluateIndri (RetrievalModel r, double[] exponents) throws IOException {
 
 	    //  Initialization
 
 	    allocDaaTPtrs (r);
 	    QryResult result = new QryResult ();
-	    
+
+	    //  Copy the DaaT state into arrays so that the merge loop
+	    //  doesn't go through List.get for every argument of every
+	    //  document.
+
+	    int n = this.daatPtrs.size();
+	    ScoreList[] lists = new ScoreList[n];
+	    QryopSl[] ops = new QryopSl[n];
+	    int[] next = new int[n];
+	    int[] size = new int[n];
+	    for(int i=0; i<n; i++){
+	    	lists[i] = this.daatPtrs.get(i).scoreList;
+	    	ops[i] = (QryopSl)this.args.get(i);
+	    	size[i] = lists[i].scores.size();
+	    }
+	    double root = 1.0/n;
+
 	    //Add every non-duplicate docid into the result    
 		int small = Integer.MAX_VALUE;
+		int steps = 0;
+		int defaultScores = 0;
 
 		while(true){
+			if(((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop()) break;
 			double docScore = 1.0;
 			small = Integer.MAX_VALUE;
-			for(int i=0; i<this.daatPtrs.size();i++){
-	    		DaaTPtr ptri = this.daatPtrs.get(i);
-	    		if(ptri.nextDoc>=ptri.scoreList.scores.size()) continue; //No more items
-	    		int ptriDocid = ptri.scoreList.getDocid(ptri.nextDoc);
+			for(int i=0; i<n;i++){
+	    		if(next[i]>=size[i]) continue; //No more items
+	    		int ptriDocid = lists[i].getDocid(next[i]);
 	    		if(ptriDocid < small) small = ptriDocid;
 	    	}
 			if(small == Integer.MAX_VALUE) break;//If no new docid is found
-			for(int i=0; i<this.daatPtrs.size();i++){
-				DaaTPtr ptri = this.daatPtrs.get(i);
-				if(ptri.nextDoc>=ptri.scoreList.scores.size()){
-					docScore *= ((QryopSl)this.args.get(i)).getDefaultScore(r, small);
-					continue;
+			for(int i=0; i<n;i++){
+				double s;
+				if(next[i]<size[i] && lists[i].getDocid(next[i]) == small){
+					s = lists[i].getDocidScore(next[i]);
+					next[i]++;
 				}
-				int ptriDocid = ptri.scoreList.getDocid(ptri.nextDoc);
-				if(ptriDocid == small){
-					docScore *= ptri.scoreList.getDocidScore(ptri.nextDoc);
-					ptri.nextDoc++;
+				else{
+					s = ops[i].getDefaultScore(r, small);
+					defaultScores++;
 				}
-				else docScore *= ((QryopSl)this.args.get(i)).getDefaultScore(r, small);
+
+				if(exponents == null) docScore *= s;
+				else docScore *= Math.pow(s, exponents[i]);
 			}
 
-			docScore = Math.pow(docScore, 1.0/this.daatPtrs.size());
+			if(exponents == null) docScore = Math.pow(docScore, root);
 			result.docScores.add(small,docScore);//Add the value to it
 		}
+		QryProfile.scored(result.docScores.scores.size(), defaultScores);
 		this.freeDaaTPtrs();
 
 		return result;
@@ -97,7 +132,7 @@ public class QryopSlIndriAnd extends QryopSl{
 		  for(int i=0;i<this.args.size();i++){
 			  score *= ((QryopSl)this.args.get(i)).getDefaultScore(r, docid);
 		  }
-		  score = Math.pow(score, 1/this.args.size());
+		  score = Math.pow(score, 1.0/this.args.size());
 		  return score;
 	  }
 
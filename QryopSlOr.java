@@ -59,8 +59,10 @@ public class QryopSlOr extends QryopSl{
 
     //Add every non-duplicate docid into the result    
 	int small = Integer.MAX_VALUE;
+	int steps = 0;
 	
     while(true){
+    	if(((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop()) break;
     	double docScore = 1.0;
     	small = Integer.MAX_VALUE;
     	for(int i=0; i<this.daatPtrs.size();i++){
@@ -82,6 +84,7 @@ public class QryopSlOr extends QryopSl{
     	if(r instanceof RetrievalModelUnrankedBoolean) docScore = 1.0;
     	result.docScores.add(small,docScore);//Add the value to it
     }
+    QryProfile.scored(result.docScores.scores.size(), 0);
     this.freeDaaTPtrs();
 
     return result;
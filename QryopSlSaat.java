@@ -0,0 +1,384 @@
+/**
+ *  This class evaluates a BM25 bag-of-words query (#SUM of terms in
+ *  one field) score-at-a-time over an {@link ImpactIndex}.  The
+ *  segments of all of the query terms are processed in order of
+ *  decreasing impact, and each segment adds its impact to an integer
+ *  accumulator per document.
+ *
+ *  Because the highest impacts come first, evaluation can stop
+ *  early.  After each impact level, the remaining segments can raise
+ *  a document's score by at most the next positive impacts of the
+ *  terms that haven't scored it yet, and lower it by at most their
+ *  lowest negative impacts.  When no document outside the top k can
+ *  pass one inside it, the top k set is stable and evaluation stops.  With order=true
+ *  the order within the top k must be stable too.  A postings budget
+ *  and the query deadline also stop it, which makes this an anytime
+ *  evaluator.  The scores of an early stop are partial sums.
+ *
+ *  Scores are impacts / scale, so they are BM25 scores quantized to
+ *  the index's impact levels.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.util.BytesRef;
+
+public class QryopSlSaat extends QryopSl {
+
+  //  Accumulators are pooled and reused by later queries, so that a
+  //  query doesn't allocate and zero two int[maxDoc] arrays.  (Server
+  //  queries each run on a thread of their own, so per-thread arrays
+  //  would not be reused.)  Only the entries of the documents a query
+  //  touched are cleared before its accumulators go back to the pool.
+  //  The pool keeps at most one per query that can be evaluated at
+  //  once; see setPoolSize.
+
+  private static class Accumulators {
+    final int[] acc;
+    final int[] mask;			// the query terms that scored the document
+
+    Accumulators(int maxDoc) {
+      this.acc = new int[maxDoc];
+      this.mask = new int[maxDoc];
+    }
+  }
+
+  private static final ConcurrentLinkedQueue<Accumulators> POOL =
+    new ConcurrentLinkedQueue<Accumulators>();
+  private static final AtomicInteger pooled = new AtomicInteger();
+  private static volatile int poolSize = Runtime.getRuntime().availableProcessors();
+
+  /**
+   *  Set the number of accumulators that are kept for reuse: the
+   *  number of queries that are evaluated at once.
+   *  @param n The pool size.
+   */
+  static void setPoolSize(int n) {
+    poolSize = Math.max(1, n);
+  }
+
+  private static Accumulators acquire(int maxDoc) {
+    Accumulators a;
+    while ((a = POOL.poll()) != null) {
+      pooled.decrementAndGet();
+      if (a.acc.length >= maxDoc)
+	return a;
+      //  Too small for a reopened index; drop it.
+    }
+    return new Accumulators(maxDoc);
+  }
+
+  private static void release(Accumulators a) {
+    if (pooled.incrementAndGet() <= poolSize)
+      POOL.offer(a);
+    else
+      pooled.decrementAndGet();
+  }
+
+  /**
+   *  @param terms The query terms, QryopIlTerm in the index's field.
+   */
+  public QryopSlSaat(List<Qryop> terms) {
+    this.args.addAll(terms);
+  }
+
+  /**
+   *  Appends a term to the list of query terms.
+   *  @param {q} q The query argument, a QryopIlTerm.
+   *  @return void
+   */
+  public void add (Qryop a) {
+    this.args.add(a);
+  }
+
+  /**
+   *  Evaluates the query operator and returns the result.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  public QryResult evaluate(RetrievalModel r) throws IOException {
+    if (r instanceof RetrievalModelBM25)
+      return evaluateBM25((RetrievalModelBM25) r);
+
+    return null;
+  }
+
+  private QryResult evaluateBM25(RetrievalModelBM25 r) throws IOException {
+
+    ImpactIndex index = r.getImpactIndex();
+
+    //  Early stopping tracks which terms have scored each document in
+    //  an int mask, so it is off for queries of more than 32 terms.
+
+    int n = this.args.size();
+    int k = (n <= 32) ? r.getSaatK() : 0;
+
+    //  Every segment of every term, ordered by impact, highest first.
+    //  order[i] is (levels - impact) << 40 | term << 20 | segment
+    //  number, so sorting it puts higher impacts first.
+
+    int[] postings = new int[n];
+    int[] docStart = new int[n];
+    int segments = 0;
+    for (int t = 0; t < n; t++) {
+      postings[t] = index.find(new BytesRef(((QryopIlTerm) this.args.get(t)).getTerm()));
+      if (postings[t] >= 0) {
+	docStart[t] = index.docs(postings[t]);
+	segments += index.segments(postings[t]);
+      }
+    }
+
+    long levels = index.levels();
+    long[] order = new long[segments];
+    int[][] segmentStart = new int[n][];
+    long total = 0;
+    int s = 0;
+    for (int t = 0; t < n; t++) {
+      if (postings[t] < 0)
+	continue;
+      int m = index.segments(postings[t]);
+      segmentStart[t] = new int[m];
+      int offset = docStart[t];
+      for (int j = 0; j < m; j++) {
+	segmentStart[t][j] = offset;
+	offset += 4 * index.count(postings[t], j);
+	total += index.count(postings[t], j);
+	order[s++] = ((levels - index.impact(postings[t], j)) << 40) | ((long) t << 20) | j;
+      }
+    }
+    Arrays.sort(order);
+
+    //  Bounds on what each term's unprocessed segments can add to a
+    //  document that the term hasn't scored yet.  A term's segments
+    //  are processed in order, so its remaining maximum is its next
+    //  segment's impact, and its remaining minimum is its last
+    //  segment's impact.  upper bounds a document that no term has
+    //  scored yet.
+
+    long[] termUpper = new long[n];
+    long[] termLower = new long[n];
+    long upper = 0;
+    for (int t = 0; t < n; t++) {
+      if (postings[t] < 0)
+	continue;
+      termUpper[t] = Math.max(0, index.impact(postings[t], 0));
+      termLower[t] = Math.min(0, index.impact(postings[t], segmentStart[t].length - 1));
+      upper += termUpper[t];
+    }
+
+    Accumulators a = acquire(index.maxDoc());
+    int[] acc = a.acc;
+    int[] mask = a.mask;
+    int[] touched = new int[64];
+    int count = 0;
+    long processed = 0;
+    long budget = r.getSaatPostings();
+    long[] heap = new long[Math.max(k, 1)];
+    int max = 0;
+    long nextCheck = 0;
+    int failed = 0;
+
+    for (int i = 0; i < segments; i++) {
+      int t = (int) ((order[i] >>> 20) & 0xfffff);
+      int j = (int) (order[i] & 0xfffff);
+      int impact = index.impact(postings[t], j);
+      int c = index.count(postings[t], j);
+      int offset = segmentStart[t][j];
+      int bit = 1 << t;
+
+      for (int p = 0; p < c; p++, offset += 4) {
+	int d = index.doc(offset);
+	if (mask[d] == 0) {
+	  if (count == touched.length)
+	    touched = Arrays.copyOf(touched, count * 2);
+	  touched[count++] = d;
+	}
+	mask[d] |= bit;
+	acc[d] += impact;
+	if (acc[d] > max)
+	  max = acc[d];
+	if (((++processed) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop())
+	  break;
+      }
+
+      //  Update the term's bounds for its remaining segments.
+
+      boolean last = (j + 1 == segmentStart[t].length);
+      upper -= termUpper[t];
+      termUpper[t] = last ? 0 : Math.max(0, index.impact(postings[t], j + 1));
+      upper += termUpper[t];
+      if (last)
+	termLower[t] = 0;
+
+      if ((budget > 0 && processed >= budget) || QryDeadline.stop())
+	break;
+
+      //  At the end of an impact level, see whether the top k can
+      //  still change.  The k'th score must be above upper, so there
+      //  is no point checking until the highest score is.  A check
+      //  costs O(count), so the postings between checks start at count
+      //  and double after each check that fails, which keeps the cost
+      //  of checks within a few times the cost of the postings.  When
+      //  fewer than count postings are left, finishing is cheaper
+      //  than a check.
+
+      if (k > 0 && count >= k && i + 1 < segments &&
+	  (order[i + 1] >>> 40) != (order[i] >>> 40) &&
+	  max > upper && processed >= nextCheck && total - processed > count) {
+	if (stable(acc, mask, touched, count, k, heap, termUpper, termLower, upper,
+		   r.getSaatOrder()))
+	  break;
+	nextCheck = processed + ((long) count << Math.min(failed++, 20));
+      }
+    }
+
+    QryResult result = new QryResult();
+    double scale = index.scale();
+    for (int i = 0; i < count; i++) {
+      int d = touched[i];
+      result.docScores.add(d, acc[d] / scale);
+      acc[d] = 0;
+      mask[d] = 0;
+    }
+    release(a);
+
+    QryProfile.scored(processed, 0);
+    return result;
+  }
+
+  /**
+   *  The least or greatest final score of a document: its accumulator
+   *  plus the bounds of the terms that haven't scored it yet.
+   */
+  private static long bound(int acc, int mask, long[] termBound) {
+    long b = acc;
+    for (int missing = ~mask & ((1 << (termBound.length - 1) << 1) - 1); missing != 0;
+	 missing &= missing - 1)
+      b += termBound[Integer.numberOfTrailingZeros(missing)];
+    return b;
+  }
+
+  /**
+   *  Whether the top k documents can still change.  Each document's
+   *  final score is within [lb, ub] (see bound), and one that no term
+   *  has scored yet is at most upper.  Let T be the k'th highest lb.
+   *  The top k set can't change if upper < T and every document has
+   *  ub < T, lb > T, or lb = ub = T.  Documents tied at T keep their
+   *  final scores, so the usual external id order decides between
+   *  them.  With order=true, the documents with lb > T must also be
+   *  in a fixed order.
+   *  @param heap Scratch space for k scores.
+   */
+  private static boolean stable(int[] acc, int[] mask, int[] touched, int count, int k,
+				long[] heap, long[] termUpper, long[] termLower,
+				long upper, boolean order) {
+
+    //  The k highest lower bounds, in a min-heap.
+
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      int d = touched[i];
+      long lb = bound(acc[d], mask[d], termLower);
+      if (size < k) {
+	heap[size++] = lb;
+	for (int c = size - 1; c > 0 && heap[(c - 1) / 2] > heap[c]; c = (c - 1) / 2) {
+	  long tmp = heap[c]; heap[c] = heap[(c - 1) / 2]; heap[(c - 1) / 2] = tmp;
+	}
+      } else if (lb > heap[0]) {
+	heap[0] = lb;
+	siftDown(heap, size);
+      }
+    }
+
+    long threshold = heap[0];
+    if (upper >= threshold)
+      return false;
+
+    //  The documents that are certainly in the top k, with their
+    //  bounds, as lb << 20 | i so that they sort by lb.
+
+    long[] above = order ? new long[k] : null;
+    long[] aboveUpper = order ? new long[k] : null;
+    int m = 0;
+    for (int i = 0; i < count; i++) {
+      int d = touched[i];
+      long lb = bound(acc[d], mask[d], termLower);
+      long ub = bound(acc[d], mask[d], termUpper);
+      if (lb > threshold) {
+	if (order) {
+	  aboveUpper[m] = ub;
+	  above[m] = (lb << 20) | m;
+	  m++;
+	}
+      } else if (ub >= threshold && ! (lb == threshold && ub == threshold))
+	return false;
+    }
+
+    if (order) {
+
+      //  From the lowest up, each document's lb must be above the ub
+      //  of every document below it.  Equal is enough when both
+      //  scores are final.
+
+      Arrays.sort(above, 0, m);
+      long belowComplete = Long.MIN_VALUE, belowIncomplete = Long.MIN_VALUE;
+      for (int i = 0; i < m; i++) {
+	long lb = above[i] >> 20;
+	long ub = aboveUpper[(int) (above[i] & 0xfffff)];
+	boolean complete = (lb == ub);
+	if (belowIncomplete >= lb || belowComplete > lb || (belowComplete == lb && ! complete))
+	  return false;
+	if (complete)
+	  belowComplete = Math.max(belowComplete, ub);
+	else
+	  belowIncomplete = Math.max(belowIncomplete, ub);
+      }
+    }
+
+    return true;
+  }
+
+  private static void siftDown(long[] heap, int size) {
+    int i = 0;
+    while (true) {
+      int l = 2 * i + 1, m = i;
+      if (l < size && heap[l] < heap[m])
+	m = l;
+      if (l + 1 < size && heap[l + 1] < heap[m])
+	m = l + 1;
+      if (m == i)
+	return;
+      long tmp = heap[i]; heap[i] = heap[m]; heap[m] = tmp;
+      i = m;
+    }
+  }
+
+  /*
+   *  Calculate the default score for a document that contains none of
+   *  the query terms.  This is 0 for BM25.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docid The internal id of the document that needs a default score.
+   *  @return The default score.
+   */
+  public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
+    return 0.0;
+  }
+
+  /*
+   *  Return a string version of this query operator.
+   *  @return The string version of this query operator.
+   */
+  public String toString(){
+
+    String result = new String ();
+
+    for (int i=0; i<this.args.size(); i++)
+      result += this.args.get(i).toString() + " ";
+
+    return ("#SAAT( " + result + ")");
+  }
+}
@@ -11,6 +11,8 @@
 import java.io.*;
 import java.util.*;
 
+import org.apache.lucene.index.NumericDocValues;
+
 public class QryopSlScore extends QryopSl {
 	private int ctf = -1;
 	private String field = "";
@@ -70,9 +72,33 @@ public class QryopSlScore extends QryopSl {
 	 */
 	public QryResult evaluateBM25(RetrievalModel r) throws IOException {
 
+		// Quantized scores are the term's integer impacts, scaled back.
+
+		QuantizedBM25 quantizer = ((RetrievalModelBM25)r).getQuantizer();
+		if (quantizer != null && args.get(0) instanceof QryopIl) {
+			int[][] impacts = evaluateImpacts((RetrievalModelBM25)r);
+			QryResult result = new QryResult();
+			for (int i = 0; i < impacts[0].length; i++)
+				result.docScores.add(impacts[0][i], impacts[1][i] / quantizer.scale());
+			return result;
+		}
+
 		// Evaluate the query argument.
 
-		QryResult result = args.get(0).evaluate(r);
+		QryResult result = QryProfile.evaluate(args.get(0), r);
+
+		// Score blocks of postings with the kernel, if there is one.
+
+		ScoreKernel kernel = ScoreKernel.current();
+		if (kernel != null && result.invertedList.df > 0) {
+			InvList list = result.invertedList;
+			int N = QryEval.READER.getDocCount(list.field);
+			double idf = Math.log((N-list.df+0.5)/(list.df+0.5));
+			double avglen = QryEval.READER.getSumTotalTermFreq(list.field) / (float) N;
+			scoreBlocks(result, kernel, r, idf, avglen, 0);
+			QryProfile.scored(list.df, 0);
+			return result;
+		}
 
 		// Each pass of the loop computes a score for one document. Note:
 		// If the evaluate operation above returned a score list (which is
@@ -92,14 +118,85 @@ public class QryopSlScore extends QryopSl {
 			result.docScores.add(id, score);
 		}
 
+		QryProfile.scored(result.invertedList.df, 0);
 		return result;
 	}
 
+	/**
+	 *  Score an inverted list a block of ScoreKernel.BLOCK postings at
+	 *  a time.  The docids, tfs and document lengths of a block are
+	 *  copied into arrays, the kernel scores them, and the scores are
+	 *  added to the result's score list.
+	 *  @param result The result, whose inverted list is scored.
+	 *  @param kernel The kernel.
+	 *  @param r BM25 or Indri.
+	 *  @param idf For BM25, the term's idf.
+	 *  @param avglen For BM25, the field's average length.
+	 *  @param mle For Indri, the term's collection probability.
+	 *  @throws IOException
+	 */
+	private void scoreBlocks(QryResult result, ScoreKernel kernel, RetrievalModel r,
+				 double idf, double avglen, double mle) throws IOException {
+		InvList list = result.invertedList;
+		NumericDocValues lengths = QryEval.dls.getLengths(list.field);
+		int[] docids = new int[ScoreKernel.BLOCK];
+		double[] tf = new double[ScoreKernel.BLOCK];
+		double[] len = new double[ScoreKernel.BLOCK];
+		double[] scores = new double[ScoreKernel.BLOCK];
+
+		for (int start = 0; start < list.df; start += ScoreKernel.BLOCK) {
+			int n = Math.min(ScoreKernel.BLOCK, list.df - start);
+			for (int i = 0; i < n; i++) {
+				InvList.DocPosting p = list.postings.get(start + i);
+				docids[i] = p.docid;
+				tf[i] = p.tf;
+				len[i] = lengths.get(p.docid);
+			}
+
+			if (r instanceof RetrievalModelBM25) {
+				RetrievalModelBM25 m = (RetrievalModelBM25) r;
+				kernel.bm25(tf, len, n, idf, m.getk1(), m.getb(), avglen, scores);
+			} else {
+				RetrievalModelIndri m = (RetrievalModelIndri) r;
+				kernel.indri(tf, len, n, m.getlambda(), m.getmu(), mle, scores);
+			}
+
+			for (int i = 0; i < n; i++)
+				result.docScores.add(docids[i], scores[i]);
+		}
+	}
+
+	/**
+	 *  Evaluate the query argument and compute the quantized BM25
+	 *  impacts of its postings ({@link QuantizedBM25}).  The argument
+	 *  must produce an inverted list.
+	 *  @param r A BM25 retrieval model with a quantizer.
+	 *  @return {docids, impacts}, in docid order.
+	 *  @throws IOException
+	 */
+	int[][] evaluateImpacts(RetrievalModelBM25 r) throws IOException {
+
+		InvList list = QryProfile.evaluate(args.get(0), r).invertedList;
+		QuantizedBM25.Term term = r.getQuantizer().term(list.field, list.df);
+		NumericDocValues lengths = QryEval.dls.getLengths(list.field);
+
+		int[] docids = new int[list.df];
+		int[] impacts = new int[list.df];
+		for (int i = 0; i < list.df; i++) {
+			InvList.DocPosting p = list.postings.get(i);
+			docids[i] = p.docid;
+			impacts[i] = term.impact(p.tf, lengths.get(p.docid));
+		}
+
+		QryProfile.scored(list.df, 0);
+		return new int[][] { docids, impacts };
+	}
+
 	public QryResult evaluateBoolean(RetrievalModel r) throws IOException{
 
 	    // Evaluate the query argument.
 
-	    QryResult result = args.get(0).evaluate(r);
+	    QryResult result = QryProfile.evaluate(args.get(0), r);
 
 	    // Each pass of the loop computes a score for one document. Note:
 	    // If the evaluate operation above returned a score list (which is
@@ -124,6 +221,7 @@ public class QryopSlScore extends QryopSl {
 		result.invertedList = new InvList();
 	    
 
+	    QryProfile.scored(result.docScores.scores.size(), 0);
 	    return result;
 	  }
 	
@@ -131,9 +229,20 @@ public class QryopSlScore extends QryopSl {
 
 		// Evaluate the query argument.
 		
-		QryResult result = args.get(0).evaluate(r);
+		QryResult result = QryProfile.evaluate(args.get(0), r);
 		this.ctf = result.invertedList.ctf;
 		this.field = result.invertedList.field;
+
+		// Score blocks of postings with the kernel, if there is one.
+
+		ScoreKernel kernel = ScoreKernel.current();
+		if (kernel != null && result.invertedList.df > 0) {
+			double mle = (result.invertedList.ctf)*1.0/QryEval.READER.getSumTotalTermFreq(this.field);
+			scoreBlocks(result, kernel, r, 0, 0, mle);
+			QryProfile.scored(result.invertedList.df, 0);
+			return result;
+		}
+
 		// Each pass of the loop computes a score for one document. Note:
 		// If the evaluate operation above returned a score list (which is
 		// very possible), this loop gets skipped.
@@ -148,6 +257,7 @@ public class QryopSlScore extends QryopSl {
 			double score = lambda*(tf+mu*mle)/(doclen+mu) + (1-lambda)*mle;
 			result.docScores.add(id, score);
 		}
+		QryProfile.scored(result.invertedList.df, 0);
 		return result;
 	}
 	
@@ -0,0 +1,64 @@
+/**
+ *  This class wraps a score list that has already been computed, so
+ *  that it can be used as an argument of another query operator
+ *  without evaluating its query again.  Relevance feedback uses it to
+ *  reuse the initial ranking inside the expanded query.  Default
+ *  scores come from the operator that produced the score list, which
+ *  must already have been evaluated.
+ */
+
+import java.io.*;
+
+public class QryopSlScoreList extends QryopSl {
+
+  private ScoreList scores;
+  private QryopSl source;
+
+  /**
+   *  Construct an operator that returns a precomputed score list.
+   *  @param scores The score list.
+   *  @param source The evaluated operator that produced the score list.
+   */
+  public QryopSlScoreList(ScoreList scores, QryopSl source) {
+    this.scores = scores;
+    this.source = source;
+  }
+
+  /**
+   *  This operator has no arguments, so add does nothing.
+   *  @param {q} q The query argument (query operator) to append.
+   *  @return void
+   */
+  public void add (Qryop a) {
+  }
+
+  /**
+   *  Return the precomputed score list.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the query.
+   */
+  public QryResult evaluate(RetrievalModel r) throws IOException {
+    QryResult result = new QryResult ();
+    result.docScores = this.scores;
+    return result;
+  }
+
+  /*
+   *  Calculate the default score for the specified document if it
+   *  does not match the query operator.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docid The internal id of the document that needs a default score.
+   *  @return The default score.
+   */
+  public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
+    return this.source.getDefaultScore(r, docid);
+  }
+
+  /*
+   *  Return a string version of this query operator.  
+   *  @return The string version of this query operator.
+   */
+  public String toString(){
+    return this.source.toString();
+  }
+}
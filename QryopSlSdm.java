@@ -0,0 +1,305 @@
+/**
+ *  This class implements the sequential dependence model (SDM) for
+ *  Indri.  For query terms t1 .. tn it computes the same scores as
+ *
+ *    #WAND( wT #AND(t1 .. tn)
+ *           wO #AND(#NEAR/1(t1 t2) .. #NEAR/1(tn-1 tn))
+ *           wU #AND(#UW/w(t1 t2) .. #UW/w(tn-1 tn)) )
+ *
+ *  but reads each distinct term's inverted list once, and finds the
+ *  ordered and unordered matches of every adjacent pair in one
+ *  document-at-a-time pass: each document's positions are copied out
+ *  once per term and shared by the term's unigram score and by the
+ *  windows of both pairs it belongs to.
+ *
+ *  A pair (or term) that never occurs in the collection has no
+ *  background probability, and would make every document's score 0.
+ *  It is left out of its part instead, and a part with nothing left
+ *  is left out of the #WAND.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class QryopSlSdm extends QryopSl {
+
+  private final double[] weights;
+  private final int window;
+
+  //  State kept for default scores, set by evaluate.  mle[g][i] is
+  //  the background probability of feature i of part g (0 unigrams,
+  //  1 ordered pairs, 2 unordered pairs); a feature with mle 0 is left
+  //  out.  exponent[g] is part g's share of the #WAND, or 0.
+
+  private String field;
+  private double[][] mle;
+  private int[] active;
+  private double[] exponent;
+
+  /**
+   *  @param weights The weights of the unigram, ordered and unordered parts.
+   *  @param window The size of the unordered windows.
+   */
+  public QryopSlSdm(double[] weights, int window) {
+    this.weights = weights;
+    this.window = window;
+  }
+
+  /**
+   *  Appends a term to the list of query terms.
+   *  @param {q} q The query argument, a QryopIlTerm.
+   *  @return void
+   */
+  public void add (Qryop a) {
+    this.args.add(a);
+  }
+
+  /**
+   *  Evaluates the query operator and returns the result.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  public QryResult evaluate(RetrievalModel r) throws IOException {
+    if (r instanceof RetrievalModelIndri)
+      return evaluateIndri((RetrievalModelIndri) r);
+
+    return null;
+  }
+
+  private QryResult evaluateIndri(RetrievalModelIndri r) throws IOException {
+
+    //  Each distinct term's inverted list is read once.
+
+    int n = this.args.size();
+    InvList[] lists = new InvList[n];
+    Map<String, InvList> read = new HashMap<String, InvList>();
+    for (int i = 0; i < n; i++) {
+      String key = this.args.get(i).toString();
+      lists[i] = read.get(key);
+      if (lists[i] == null) {
+	QryDeadline.check();
+	lists[i] = QryProfile.evaluate(this.args.get(i), r).invertedList;
+	read.put(key, lists[i]);
+      }
+    }
+    this.field = lists[0].field;
+    int pairs = n - 1;
+
+    //  The pass.  For the k'th document that contains any term,
+    //  tf[k*n+i] is the frequency of term i, and near[k*pairs+p] and
+    //  uw[k*pairs+p] count the ordered and unordered matches of terms
+    //  p and p+1.
+
+    int[] docs = new int[64];
+    int[] tf = new int[64 * n];
+    int[] near = new int[64 * pairs];
+    int[] uw = new int[64 * pairs];
+    long[] nearCtf = new long[pairs];
+    long[] uwCtf = new long[pairs];
+
+    int[] next = new int[n];
+    int[][] pos = new int[n][16];
+    int[] len = new int[n];
+    int count = 0;
+    int steps = 0;
+
+    while (true) {
+      if (((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop())
+	break;
+
+      int d = Integer.MAX_VALUE;
+      for (int i = 0; i < n; i++)
+	if (next[i] < lists[i].postings.size() && lists[i].getDocid(next[i]) < d)
+	  d = lists[i].getDocid(next[i]);
+      if (d == Integer.MAX_VALUE)
+	break;
+
+      if (count == docs.length) {
+	docs = Arrays.copyOf(docs, count * 2);
+	tf = Arrays.copyOf(tf, count * 2 * n);
+	near = Arrays.copyOf(near, count * 2 * pairs);
+	uw = Arrays.copyOf(uw, count * 2 * pairs);
+      }
+      docs[count] = d;
+
+      //  Copy this document's positions once per term.  A repeated
+      //  term has its own cursor into the same list.
+
+      for (int i = 0; i < n; i++) {
+	len[i] = 0;
+	if (next[i] < lists[i].postings.size() && lists[i].getDocid(next[i]) == d) {
+	  Vector<Integer> p = lists[i].postings.get(next[i]).positions;
+	  int size = p.size();
+	  if (pos[i].length < size)
+	    pos[i] = new int[Math.max(size, pos[i].length * 2)];
+	  for (int k = 0; k < size; k++)
+	    pos[i][k] = p.get(k);
+	  len[i] = size;
+	  next[i]++;
+	}
+	tf[count * n + i] = len[i];
+      }
+
+      for (int p = 0; p < pairs; p++) {
+	int o = 0, u = 0;
+	if (len[p] > 0 && len[p + 1] > 0) {
+	  o = countOrdered(pos[p], len[p], pos[p + 1], len[p + 1]);
+	  u = countUnordered(pos[p], len[p], pos[p + 1], len[p + 1], this.window);
+	}
+	near[count * pairs + p] = o;
+	uw[count * pairs + p] = u;
+	nearCtf[p] += o;
+	uwCtf[p] += u;
+      }
+      count++;
+    }
+
+    //  Background probabilities, and which features and parts count.
+
+    double C = QryEval.READER.getSumTotalTermFreq(this.field);
+    this.mle = new double[3][];
+    this.mle[0] = new double[n];
+    for (int i = 0; i < n; i++)
+      this.mle[0][i] = lists[i].ctf / C;
+    this.mle[1] = new double[pairs];
+    this.mle[2] = new double[pairs];
+    for (int p = 0; p < pairs; p++) {
+      this.mle[1][p] = nearCtf[p] / C;
+      this.mle[2][p] = uwCtf[p] / C;
+    }
+
+    this.active = new int[3];
+    double sum = 0.0;
+    for (int g = 0; g < 3; g++) {
+      for (double m : this.mle[g])
+	if (m > 0)
+	  this.active[g]++;
+      if (this.active[g] > 0)
+	sum += this.weights[g];
+    }
+    this.exponent = new double[3];
+    for (int g = 0; g < 3; g++)
+      if (this.active[g] > 0 && sum > 0)
+	this.exponent[g] = this.weights[g] / sum;
+
+    //  Scores.
+
+    QryResult result = new QryResult();
+    double lambda = r.getlambda();
+    int mu = r.getmu();
+    for (int k = 0; k < count; k++) {
+      long doclen = QryEval.dls.getDocLength(this.field, docs[k]);
+      double score = 1.0;
+      if (this.exponent[0] > 0)
+	score *= Math.pow(part(this.mle[0], tf, k * n, this.active[0], doclen, lambda, mu),
+			  this.exponent[0]);
+      if (this.exponent[1] > 0)
+	score *= Math.pow(part(this.mle[1], near, k * pairs, this.active[1], doclen, lambda, mu),
+			  this.exponent[1]);
+      if (this.exponent[2] > 0)
+	score *= Math.pow(part(this.mle[2], uw, k * pairs, this.active[2], doclen, lambda, mu),
+			  this.exponent[2]);
+      result.docScores.add(docs[k], score);
+    }
+
+    QryProfile.scored(count, 0);
+    return result;
+  }
+
+  /**
+   *  The #AND of one part's features for one document: the geometric
+   *  mean of their Indri scores.
+   *  @param tf The features' frequencies are tf[offset..), or all 0
+   *         if tf is null.
+   */
+  private static double part(double[] mle, int[] tf, int offset, int active,
+			     long doclen, double lambda, int mu) {
+    double score = 1.0;
+    for (int i = 0; i < mle.length; i++) {
+      if (mle[i] == 0)
+	continue;
+      int f = (tf == null) ? 0 : tf[offset + i];
+      score *= lambda * (f + mu * mle[i]) / (doclen + mu) + (1 - lambda) * mle[i];
+    }
+    return Math.pow(score, 1.0 / active);
+  }
+
+  /**
+   *  The #NEAR/1 matches of two position lists: b immediately after a.
+   *  Positions are not shared between matches.
+   */
+  static int countOrdered(int[] a, int na, int[] b, int nb) {
+    int i = 0, j = 0, found = 0;
+    while (i < na && j < nb) {
+      int dif = b[j] - a[i];
+      if (dif == 1) {
+	found++;
+	i++;
+	j++;
+      } else if (dif <= 0)
+	j++;
+      else
+	i++;
+    }
+    return found;
+  }
+
+  /**
+   *  The #UW/window matches of two position lists, as {@link QryopIlUw}
+   *  finds them: minimal windows that don't share positions.
+   */
+  static int countUnordered(int[] a, int na, int[] b, int nb, int window) {
+    int i = 0, j = 0, found = 0;
+    while (i < na && j < nb) {
+      int min = Math.min(a[i], b[j]);
+      int max = Math.max(a[i], b[j]);
+      if (max - min + 1 <= window) {
+	found++;
+	i++;
+	j++;
+      } else if (a[i] <= b[j])
+	i++;
+      else
+	j++;
+    }
+    return found;
+  }
+
+  /*
+   *  Calculate the default score for a document that contains none of
+   *  the query terms.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docid The internal id of the document that needs a default score.
+   *  @return The default score.
+   */
+  public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
+
+    if (! (r instanceof RetrievalModelIndri) || this.mle == null)
+      return 0.0;
+
+    double lambda = ((RetrievalModelIndri) r).getlambda();
+    int mu = ((RetrievalModelIndri) r).getmu();
+    long doclen = QryEval.dls.getDocLength(this.field, (int) docid);
+    double score = 1.0;
+    for (int g = 0; g < 3; g++)
+      if (this.exponent[g] > 0)
+	score *= Math.pow(part(this.mle[g], null, 0, this.active[g], doclen, lambda, mu),
+			  this.exponent[g]);
+    return score;
+  }
+
+  /*
+   *  Return a string version of this query operator.
+   *  @return The string version of this query operator.
+   */
+  public String toString(){
+
+    String result = new String ();
+
+    for (int i=0; i<this.args.size(); i++)
+      result += this.args.get(i).toString() + " ";
+
+    return ("#SDM( " + result + ")");
+  }
+}
@@ -42,32 +42,132 @@ public class QryopSlSum extends QryopSl{
   }
 
   public QryResult evaluateBM25(RetrievalModel r) throws IOException{
+	  if (((RetrievalModelBM25)r).getQuantizer() != null && impactArgs(r))
+		  return evaluateImpacts((RetrievalModelBM25)r);
+	  double k3 = ((RetrievalModelBM25)r).getk3();
+	  double[] weights = new double[this.args.size()];
+	  Arrays.fill(weights, (k3+1)*1/(k3+1));	// qtf is 1 for every argument
+	  return evaluateSum(r, weights);
+  }
+
+  /**
+   *  True if every argument is, or can be wrapped in, a #SCORE of an
+   *  inverted list, which can produce integer impacts.
+   */
+  private boolean impactArgs(RetrievalModel r) {
+	  for(int i=0; i<this.args.size(); i++){
+		  Qryop q = this.args.get(i);
+		  if(q instanceof QryopSlScore && q.args.get(0) instanceof QryopIl) continue;
+		  if(! (q instanceof QryopIl) || ! (QryopSl.score(q, r) instanceof QryopSlScore))
+			  return false;
+	  }
+	  for(int i=0; i<this.args.size(); i++)
+		  if(this.args.get(i) instanceof QryopIl)
+			  this.args.set(i, QryopSl.score(this.args.get(i), r));
+	  return true;
+  }
+
+  /**
+   *  The merge kernel for quantized BM25 ({@link QuantizedBM25}).
+   *  The arguments' integer impacts are added in an int accumulator,
+   *  and the sum is scaled back to a score once per document.  Every
+   *  #SUM weight is 1, so no weights are applied.
+   *  @param r A BM25 retrieval model with a quantizer.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  private QryResult evaluateImpacts(RetrievalModelBM25 r) throws IOException{
+	  QryResult result = new QryResult ();
+	  int n = this.args.size();
+	  int[][] docids = new int[n][];
+	  int[][] impacts = new int[n][];
+	  for(int i=0; i<n; i++){
+		  QryDeadline.check();
+		  int[][] list = ((QryopSlScore)this.args.get(i)).evaluateImpacts(r);
+		  docids[i] = list[0];
+		  impacts[i] = list[1];
+	  }
+	  double scale = r.getQuantizer().scale();
+
+	  int[] next = new int[n];
+	  int steps = 0;
+	    while(true){
+	    	if(((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop()) break;
+	    	int small = Integer.MAX_VALUE;
+	    	for(int i=0; i<n;i++){
+	    		if(next[i]<docids[i].length && docids[i][next[i]] < small)
+	    			small = docids[i][next[i]];
+	    	}
+	    	if(small == Integer.MAX_VALUE) break;//If no new docid is found
+	    	int docScore = 0;
+	    	for(int i=0; i<n;i++){
+	    		if(next[i]<docids[i].length && docids[i][next[i]] == small){
+	    			docScore += impacts[i][next[i]];
+	    			next[i]++;
+	    		}
+	    	}
+	    	result.docScores.add(small, docScore / scale);
+	    }
+	    QryProfile.scored(result.docScores.scores.size(), 0);
+	  return result;
+  }
+
+  /**
+   *  The merge kernel shared by #SUM and #WSUM.  The score of a
+   *  document is the sum of weights[i] * score_i.  For Indri,
+   *  arguments that don't match the document contribute their default
+   *  score; for other models they contribute nothing.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param weights The weight of each argument.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  protected QryResult evaluateSum(RetrievalModel r, double[] weights) throws IOException{
 	  allocDaaTPtrs (r);
 	  QryResult result = new QryResult ();
-	  
+
+	  //  Copy the DaaT state into arrays so that the merge loop
+	  //  doesn't go through List.get for every argument of every
+	  //  document.
+
+	  int n = this.daatPtrs.size();
+	  ScoreList[] lists = new ScoreList[n];
+	  QryopSl[] ops = new QryopSl[n];
+	  int[] next = new int[n];
+	  int[] size = new int[n];
+	  for(int i=0; i<n; i++){
+		  lists[i] = this.daatPtrs.get(i).scoreList;
+		  ops[i] = (QryopSl)this.args.get(i);
+		  size[i] = lists[i].scores.size();
+	  }
+	  boolean defaults = r instanceof RetrievalModelIndri;
+
 	  int small = Integer.MAX_VALUE;
-	  double k3 = ((RetrievalModelBM25)r).getk3();
+	  int steps = 0;
+	  int defaultScores = 0;
 	    while(true){
+	    	if(((++steps) & QryDeadline.CHECK_MASK) == 0 && QryDeadline.stop()) break;
 	    	double docScore = 0.0;
 	    	small = Integer.MAX_VALUE;
-	    	for(int i=0; i<this.daatPtrs.size();i++){
-	    		DaaTPtr ptri = this.daatPtrs.get(i);
-	    		if(ptri.nextDoc>=ptri.scoreList.scores.size()) continue; //No more items
-	    		int ptriDocid = ptri.scoreList.getDocid(ptri.nextDoc);
+	    	for(int i=0; i<n;i++){
+	    		if(next[i]>=size[i]) continue; //No more items
+	    		int ptriDocid = lists[i].getDocid(next[i]);
 	    		if(ptriDocid < small) small = ptriDocid;
 	    	}
 	    	if(small == Integer.MAX_VALUE) break;//If no new docid is found
-	    	for(int i=0; i<this.daatPtrs.size();i++){
-	    		DaaTPtr ptri = this.daatPtrs.get(i);
-	    		if(ptri.nextDoc>=ptri.scoreList.scores.size()) continue; //No more items
-	    		int ptriDocid = ptri.scoreList.getDocid(ptri.nextDoc);
-	    		if(ptriDocid == small){
-	    			docScore += ptri.scoreList.getDocidScore(ptri.nextDoc)*(k3+1)*1/(k3+1);
-	    			ptri.nextDoc++;
+	    	for(int i=0; i<n;i++){
+	    		if(next[i]<size[i] && lists[i].getDocid(next[i]) == small){
+	    			docScore += lists[i].getDocidScore(next[i])*weights[i];
+	    			next[i]++;
+	    		}
+	    		else if(defaults){
+	    			docScore += ops[i].getDefaultScore(r, small)*weights[i];
+	    			defaultScores++;
 	    		}
 	    	}
 	    	result.docScores.add(small,docScore);//Add the value to it
 	    }
+	    QryProfile.scored(result.docScores.scores.size(), defaultScores);
 	    this.freeDaaTPtrs();
 	  return result;
   }
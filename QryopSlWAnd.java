@@ -0,0 +1,111 @@
+/**
+ *  This class implements the weighted AND operator (#WAND) for the
+ *  Indri retrieval model.  Each argument has a weight, and the score
+ *  of a document is the weighted geometric mean of its argument
+ *  scores: the product of score_i ^ (weight_i / sum of weights).
+ *  Arguments that do not match a document contribute their default
+ *  score, as in #AND.  Evaluation uses the #AND merge kernel.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class QryopSlWAnd extends QryopSlIndriAnd implements QryopSlWeighted {
+
+  //  weights[i] is the weight of args.get(i).
+
+  protected double[] weights = new double[4];
+
+  /**
+   *  Construct a #WAND operator with no arguments.  Arguments are
+   *  added with {@link #add(double, Qryop)}.
+   */
+  public QryopSlWAnd() {
+  }
+
+  /**
+   *  Appends an argument with weight 1.0.
+   *  @param {q} q The query argument (query operator) to append.
+   *  @return void
+   */
+  public void add (Qryop a) {
+    add(1.0, a);
+  }
+
+  /**
+   *  Appends a weighted argument to the list of query operator
+   *  arguments.
+   *  @param weight The weight of the argument.
+   *  @param a The query argument (query operator) to append.
+   *  @return void
+   */
+  public void add (double weight, Qryop a) {
+    if (this.args.size() == this.weights.length)
+      this.weights = Arrays.copyOf(this.weights, this.weights.length * 2);
+    this.weights[this.args.size()] = weight;
+    this.args.add(a);
+  }
+
+  /**
+   *  Evaluates the query operator, including any child operators and
+   *  returns the result.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  public QryResult evaluate(RetrievalModel r) throws IOException {
+    if (r instanceof RetrievalModelIndri)
+      return evaluateIndri(r, normalizedWeights());
+
+    return null;
+  }
+
+  /**
+   *  Return each argument's weight divided by the sum of the weights.
+   */
+  protected double[] normalizedWeights() {
+    double sum = 0.0;
+    for (int i=0; i<this.args.size(); i++)
+      sum += this.weights[i];
+
+    double[] w = new double[this.args.size()];
+    for (int i=0; i<w.length; i++)
+      w[i] = this.weights[i] / sum;
+    return w;
+  }
+
+  /*
+   *  Calculate the default score for the specified document if it
+   *  does not match the query operator.  This score is 0 for many
+   *  retrieval models, but not all retrieval models.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param docid The internal id of the document that needs a default score.
+   *  @return The default score.
+   */
+  public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
+
+    if (r instanceof RetrievalModelIndri){
+      double[] exponents = normalizedWeights();
+      double score = 1.0;
+      for(int i=0;i<this.args.size();i++)
+	score *= Math.pow(((QryopSl)this.args.get(i)).getDefaultScore(r, docid), exponents[i]);
+      return score;
+    }
+
+    return 0.0;
+  }
+
+  /*
+   *  Return a string version of this query operator.  
+   *  @return The string version of this query operator.
+   */
+  public String toString(){
+    
+    String result = new String ();
+
+    for (int i=0; i<this.args.size(); i++)
+      result += this.weights[i] + " " + this.args.get(i).toString() + " ";
+
+    return ("#WAND( " + result + ")");
+  }
+}
@@ -0,0 +1,20 @@
+/**
+ *  Query operators whose arguments carry weights (#WAND, #WSUM)
+ *  implement this interface, so that the query parser can give each
+ *  argument the weight that precedes it in the query.
+ */
+
+import java.io.*;
+
+public interface QryopSlWeighted {
+
+  /**
+   *  Appends a weighted argument to the list of query operator
+   *  arguments.
+   *  @param weight The weight of the argument.
+   *  @param q The query argument (query operator) to append.
+   *  @return void
+   *  @throws IOException
+   */
+  public void add (double weight, Qryop q) throws IOException;
+}
@@ -0,0 +1,191 @@
+/**
+ *  QuantizedBM25 turns BM25 term scores into integer impacts, so that
+ *  #SUM can add them in an int accumulator.  A term's score in a
+ *  document depends on the term's df, the tf and the document's
+ *  length.  Lengths are grouped into buckets on a log scale with
+ *  lengthBits bits of mantissa: lengths below 2^lengthBits are exact,
+ *  and above that each doubling of the length has 2^lengthBits
+ *  buckets.  For each query term, the impacts of tf 1..TF_MAX in each
+ *  bucket are computed once, before its postings are scored.
+ *
+ *  An impact is round(score * scale).  Every term of every field uses
+ *  the same scale, so that impacts can be added.  |score| is less than
+ *  log(2 maxDoc + 1), which is scaled to 2^(bits-1) - 1, so impacts
+ *  fit in bits bits with a sign, and sums of up to 2^(31-bits) terms
+ *  fit in an int.
+ *
+ *  A QuantizedBM25 is shared by the queries of all threads.  The
+ *  scale and the field tables come from the reader, so a reopened
+ *  index needs a new one ({@link #reopen}).
+ */
+
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.NumericDocValues;
+
+public class QuantizedBM25 {
+
+  static final int TF_MAX = 16;		// The largest tf in the tables
+
+  private final double k1;
+  private final double b;
+  private final int bits;
+  private final int lengthBits;
+  private final double scale;
+
+  //  The parts of the score that depend on the field: the length
+  //  normalization of each bucket, and tf / (tf + norm) for the tfs
+  //  in the tables.
+
+  private static class Field {
+    int N;
+    double[] norm;			// [bucket]
+    double[] saturation;		// [bucket * (TF_MAX + 1) + tf]
+  }
+
+  private final ConcurrentHashMap<String, Field> fields = new ConcurrentHashMap<String, Field>();
+
+  /**
+   *  The impacts of one query term.
+   */
+  public class Term {
+    private final Field f;
+    private final double idf;		// idf * scale
+    private final int[] table;		// null if the term has few postings
+
+    private Term(Field f, int df) {
+      this.f = f;
+      this.idf = Math.log((f.N - df + 0.5) / (df + 0.5)) * scale;
+
+      //  The table costs as much to fill as scoring its size in
+      //  postings does, so it's only worth it for longer lists.
+
+      int size = f.saturation.length;
+      if (df < size) {
+	this.table = null;
+      } else {
+	this.table = new int[size];
+	for (int i = 0; i < size; i++)
+	  this.table[i] = (int) Math.round(this.idf * f.saturation[i]);
+      }
+    }
+
+    /**
+     *  The impact of the term in a document.
+     *  @param tf The term's frequency in the document.
+     *  @param length The length of the document's field.
+     *  @return The impact.
+     */
+    public int impact(int tf, long length) {
+      int bucket = bucket(length);
+      if (tf > TF_MAX)
+	return (int) Math.round(this.idf * tf / (tf + this.f.norm[bucket]));
+
+      int i = bucket * (TF_MAX + 1) + tf;
+      if (this.table != null)
+	return this.table[i];
+      return (int) Math.round(this.idf * this.f.saturation[i]);
+    }
+  }
+
+  /**
+   *  @param k1 BM25 k_1.
+   *  @param b BM25 b.
+   *  @param bits The bits of an impact, 2 to 24.
+   *  @param lengthBits The mantissa bits of a length bucket, 0 to 16.
+   *  @throws IllegalArgumentException If bits or lengthBits is out of range.
+   */
+  public QuantizedBM25(double k1, double b, int bits, int lengthBits) {
+    if (bits < 2 || bits > 24)
+      throw new IllegalArgumentException("impact bits must be 2 to 24");
+    if (lengthBits < 0 || lengthBits > 16)
+      throw new IllegalArgumentException("length bits must be 0 to 16");
+
+    this.k1 = k1;
+    this.b = b;
+    this.bits = bits;
+    this.lengthBits = lengthBits;
+    this.scale = ((1 << (bits - 1)) - 1) / Math.log(2.0 * QryEval.READER.maxDoc() + 1);
+  }
+
+  /**
+   *  A quantizer with the same parameters for the current reader.
+   *  @return The new quantizer.
+   */
+  public QuantizedBM25 reopen() {
+    return new QuantizedBM25(this.k1, this.b, this.bits, this.lengthBits);
+  }
+
+  /**
+   *  Impacts are round(score * scale).
+   *  @return The scale.
+   */
+  public double scale() {
+    return this.scale;
+  }
+
+  /**
+   *  The impacts of a query term.
+   *  @param field The term's field.
+   *  @param df The term's document frequency.
+   *  @return The term's impacts.
+   *  @throws IOException
+   */
+  public Term term(String field, int df) throws IOException {
+    return new Term(field(field), df);
+  }
+
+  /**
+   *  The bucket of a length.  Buckets are numbered in length order,
+   *  from 0.
+   */
+  int bucket(long length) {
+    if (length < (1L << this.lengthBits))
+      return (int) Math.max(length, 0);
+    int shift = 63 - Long.numberOfLeadingZeros(length) - this.lengthBits;
+    return ((shift + 1) << this.lengthBits) |
+      (int) ((length >>> shift) & ((1 << this.lengthBits) - 1));
+  }
+
+  /**
+   *  The length that stands for a bucket: the middle of its lengths.
+   */
+  double length(int bucket) {
+    if (bucket < (1 << this.lengthBits))
+      return bucket;
+    int shift = (bucket >>> this.lengthBits) - 1;
+    long low = ((long) ((bucket & ((1 << this.lengthBits) - 1)) | (1 << this.lengthBits))) << shift;
+    return low + ((1L << shift) - 1) / 2.0;
+  }
+
+  private Field field(String name) throws IOException {
+    Field f = this.fields.get(name);
+    if (f != null)
+      return f;
+
+    f = new Field();
+    f.N = QryEval.READER.getDocCount(name);
+    double avglen = QryEval.READER.getSumTotalTermFreq(name) / (float) f.N;
+
+    //  The buckets go up to the longest document's.
+
+    long longest = 0;
+    NumericDocValues lengths = QryEval.dls.getLengths(name);
+    if (lengths != null)
+      for (int d = 0; d < QryEval.READER.maxDoc(); d++)
+	longest = Math.max(longest, lengths.get(d));
+
+    int buckets = bucket(longest) + 1;
+    f.norm = new double[buckets];
+    f.saturation = new double[buckets * (TF_MAX + 1)];
+    for (int i = 0; i < buckets; i++) {
+      f.norm[i] = this.k1 * (1 - this.b + this.b * length(i) / avglen);
+      for (int tf = 1; tf <= TF_MAX; tf++)
+	f.saturation[i * (TF_MAX + 1) + tf] = tf / (tf + f.norm[i]);
+    }
+
+    Field old = this.fields.putIfAbsent(name, f);
+    return (old != null) ? old : f;
+  }
+}
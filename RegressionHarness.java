@@ -0,0 +1,388 @@
+/**
+ *  RegressionHarness checks that an alternative evaluation mode ranks
+ *  documents the same way as the baseline, and reports how much
+ *  faster or leaner it is.  The two modes are QryEval parameter
+ *  files that differ only in the settings being tested, e.g., a new
+ *  evaluation strategy or thread count.  Each is run with QryEval in
+ *  a child JVM (alternately, runs times), with its own
+ *  trecEvalOutputPath and statsFile.
+ *
+ *  The first run of each mode is compared query by query:
+ *
+ *    identical  the same documents in the same order, with scores
+ *               within epsilon (relative to the score, for scores
+ *               above 1)
+ *    ties       the same documents, with scores within epsilon, but
+ *               in a different order within a run of equal scores
+ *    changed    different documents, ranks or scores
+ *    missing    the query is in only one of the outputs
+ *    order      results that aren't ranked as TrecWriter ranks them:
+ *               by score, with equal scores ordered by external id
+ *
+ *  The latency and allocation that QryEval reports (see
+ *  {@link QryStats}) are shown for both modes as medians over the
+ *  runs.  The exit status is 1 if any query is changed, missing or
+ *  out of order, or has ties with strictTies=true.
+ *
+ *  Two existing result files can also be compared, e.g., the output
+ *  of QryServer, with baselineRun and candidateRun.
+ *
+ *  Usage:  java RegressionHarness baseline=PARAMFILE candidate=PARAMFILE
+ *            [runs=N] [epsilon=X] [strictTies=true] [report=N]
+ *            [jvmArgs="..."]
+ *          java RegressionHarness baselineRun=FILE candidateRun=FILE
+ *            [epsilon=X] [strictTies=true] [report=N]
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class RegressionHarness {
+
+  //  The results of one query, best first.
+
+  static class Ranking {
+    final List<String> ids = new ArrayList<String>();
+    final List<Double> scores = new ArrayList<Double>();
+
+    int size() {
+      return this.ids.size();
+    }
+  }
+
+  static final String[] STATS = {
+    "qps", "latencyP50", "latencyP90", "latencyP99", "latencyMax", "latencyMean",
+    "allocatedP50", "allocatedP99", "allocatedMean", "wallMillis"
+  };
+
+  private final double epsilon;
+  private final int report;
+
+  //  The number of queries in each category, and the first report
+  //  differences.
+
+  final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+  final List<String> differences = new ArrayList<String>();
+  double maxScoreDelta = 0.0;
+
+  /**
+   *  @param epsilon The largest score difference that is ignored.
+   *  @param report The number of differences to describe.
+   */
+  public RegressionHarness(double epsilon, int report) {
+    this.epsilon = epsilon;
+    this.report = report;
+    for (String c : new String[] { "identical", "ties", "changed", "missing", "order" })
+      this.counts.put(c, 0);
+  }
+
+  /**
+   *  Read a trec_eval result file.  The dummy result written for a
+   *  query that matches nothing is an empty ranking.
+   *  @param file The file.
+   *  @return The rankings by query id, in file order.
+   *  @throws IOException
+   */
+  static Map<String, Ranking> readRun(File file) throws IOException {
+    Map<String, Ranking> run = new LinkedHashMap<String, Ranking>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+	String[] f = line.trim().split("\\s+");
+	if (f.length < 5)
+	  continue;
+	Ranking r = run.get(f[0]);
+	if (r == null) {
+	  r = new Ranking();
+	  run.put(f[0], r);
+	}
+	if (f[2].equals("dummy"))
+	  continue;
+	r.ids.add(f[2]);
+	r.scores.add(Double.parseDouble(f[4]));
+      }
+    } finally {
+      in.close();
+    }
+    return run;
+  }
+
+  boolean same(double a, double b) {
+    return Math.abs(a - b) <= this.epsilon * Math.max(1.0, Math.abs(a));
+  }
+
+  /**
+   *  Compare two runs query by query.
+   *  @param baseline The baseline rankings.
+   *  @param candidate The candidate rankings.
+   */
+  public void compare(Map<String, Ranking> baseline, Map<String, Ranking> candidate) {
+    Set<String> queries = new LinkedHashSet<String>(baseline.keySet());
+    queries.addAll(candidate.keySet());
+
+    for (String q : queries) {
+      Ranking a = baseline.get(q);
+      Ranking b = candidate.get(q);
+      if (a == null || b == null) {
+	count("missing", q, "only in the " + ((a == null) ? "candidate" : "baseline"));
+	continue;
+      }
+
+      String order = checkOrder(b);
+      if (order != null)
+	count("order", q, "candidate " + order);
+
+      String diff = compare(a, b);
+      if (diff == null)
+	count("identical", null, null);
+      else if (diff.startsWith("tie"))
+	count("ties", q, diff);
+      else
+	count("changed", q, diff);
+    }
+  }
+
+  /**
+   *  Compare one query's rankings.
+   *  @return null if they are identical, a description starting with
+   *          "tie" if they differ only in the order of equal scores,
+   *          else a description of the first difference.
+   */
+  String compare(Ranking a, Ranking b) {
+    if (a.size() != b.size())
+      return "baseline has " + a.size() + " results, candidate has " + b.size();
+
+    //  Walk runs of equal baseline scores.  Each run must have the same
+    //  scores in the candidate, and the same documents, except that the
+    //  last run may be cut off at a different document.
+
+    String tie = null;
+    int start = 0;
+    while (start < a.size()) {
+      int end = start + 1;
+      while (end < a.size() && same(a.scores.get(start), a.scores.get(end)))
+	end++;
+
+      for (int i = start; i < end; i++) {
+	double sa = a.scores.get(i);
+	double sb = b.scores.get(i);
+	if (! same(sa, sb))
+	  return "rank " + (i + 1) + ": baseline " + a.ids.get(i) + " " + sa +
+	    ", candidate " + b.ids.get(i) + " " + sb;
+	if (a.ids.get(i).equals(b.ids.get(i)))
+	  this.maxScoreDelta = Math.max(this.maxScoreDelta, Math.abs(sa - sb));
+      }
+
+      List<String> ia = a.ids.subList(start, end);
+      List<String> ib = b.ids.subList(start, end);
+      if (! ia.equals(ib)) {
+	if (end < a.size() && ! new HashSet<String>(ia).equals(new HashSet<String>(ib)))
+	  return "rank " + (start + 1) + "-" + end + ": different documents with score " +
+	    a.scores.get(start);
+	if (tie == null)
+	  tie = "tie at rank " + (start + 1) + "-" + end + ": baseline " + ia.get(0) +
+	    " first, candidate " + ib.get(0) + " first";
+      }
+      start = end;
+    }
+    return tie;
+  }
+
+  /**
+   *  Check that a ranking is ordered by score, with exactly equal
+   *  scores ordered by external id.
+   *  @return null if it is, else a description of the first problem.
+   */
+  static String checkOrder(Ranking r) {
+    for (int i = 1; i < r.size(); i++) {
+      double prev = r.scores.get(i - 1);
+      double s = r.scores.get(i);
+      if (s > prev || (s == prev && r.ids.get(i - 1).compareTo(r.ids.get(i)) > 0))
+	return "rank " + i + " and " + (i + 1) + " are out of order: " +
+	  r.ids.get(i - 1) + " " + prev + ", " + r.ids.get(i) + " " + s;
+    }
+    return null;
+  }
+
+  private void count(String category, String query, String detail) {
+    this.counts.put(category, this.counts.get(category) + 1);
+    if (query != null && this.differences.size() < this.report)
+      this.differences.add("  " + category + "  query " + query + ": " + detail);
+  }
+
+  /**
+   *  True if the runs rank documents the same way.
+   */
+  public boolean passed(boolean strictTies) {
+    return this.counts.get("changed") == 0 && this.counts.get("missing") == 0 &&
+      this.counts.get("order") == 0 && (! strictTies || this.counts.get("ties") == 0);
+  }
+
+  public void printSummary(PrintStream out) {
+    StringBuilder b = new StringBuilder("Rankings:");
+    for (Map.Entry<String, Integer> e : this.counts.entrySet())
+      b.append(' ').append(e.getKey()).append(' ').append(e.getValue());
+    out.println(b.toString());
+    out.println("  max score difference " + this.maxScoreDelta);
+    for (String d : this.differences)
+      out.println(d);
+  }
+
+  /**
+   *  Run QryEval in a child JVM with a copy of a parameter file whose
+   *  trecEvalOutputPath and statsFile point to the given files.
+   *  @return The stats that QryEval wrote, and the wall time.
+   */
+  static Map<String, String> runQryEval(File paramFile, File output, File statsFile,
+					List<String> jvmArgs) throws Exception {
+    Map<String, String> params = readParams(paramFile);
+    params.put("trecEvalOutputPath", output.getPath());
+    params.put("statsFile", statsFile.getPath());
+    params.remove("server");
+
+    File copy = File.createTempFile("regression", ".param");
+    copy.deleteOnExit();
+    PrintWriter w = new PrintWriter(new FileWriter(copy));
+    try {
+      for (Map.Entry<String, String> e : params.entrySet())
+	w.println(e.getKey() + "=" + e.getValue());
+    } finally {
+      w.close();
+    }
+
+    List<String> command = new ArrayList<String>();
+    command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("QryEval");
+    command.add(copy.getPath());
+
+    File log = new File(output.getPath() + ".log");
+    long start = System.nanoTime();
+    Process p = new ProcessBuilder(command).redirectErrorStream(true)
+      .redirectOutput(log).start();
+    int status = p.waitFor();
+    long wall = (System.nanoTime() - start) / 1000000;
+    if (status != 0)
+      throw new IOException("QryEval failed with " + paramFile + ", see " + log);
+
+    Map<String, String> stats = readParams(statsFile);
+    stats.put("wallMillis", String.valueOf(wall));
+    return stats;
+  }
+
+  /**
+   *  Read a key=value file.
+   */
+  static Map<String, String> readParams(File file) throws IOException {
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+	String[] pair = line.split("=", 2);
+	if (pair.length == 2)
+	  params.put(pair[0].trim(), pair[1].trim());
+      }
+    } finally {
+      in.close();
+    }
+    return params;
+  }
+
+  /**
+   *  Print the median of each statistic over the runs of each mode.
+   */
+  static void printStats(PrintStream out, List<Map<String, String>> baseline,
+			 List<Map<String, String>> candidate) {
+    out.println(String.format("%-14s %14s %14s %9s", "", "baseline", "candidate", "change"));
+    for (String key : STATS) {
+      double a = median(baseline, key);
+      double b = median(candidate, key);
+      if (Double.isNaN(a) || Double.isNaN(b))
+	continue;
+      boolean nanos = key.startsWith("latency");
+      String unit = nanos ? " ms" : key.startsWith("allocated") ? " KB" : "";
+      double scale = nanos ? 1e6 : key.startsWith("allocated") ? 1024 : 1;
+      out.println(String.format("%-14s %14.3f %14.3f %+8.1f%%", key + unit, a / scale, b / scale,
+				(a == 0) ? 0.0 : 100.0 * (b - a) / a));
+    }
+  }
+
+  private static double median(List<Map<String, String>> runs, String key) {
+    List<Double> values = new ArrayList<Double>();
+    for (Map<String, String> run : runs)
+      if (run.containsKey(key))
+	values.add(Double.parseDouble(run.get(key)));
+    if (values.isEmpty())
+      return Double.NaN;
+    Collections.sort(values);
+    int n = values.size();
+    return (n % 2 == 1) ? values.get(n / 2) : (values.get(n / 2 - 1) + values.get(n / 2)) / 2;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    for (String arg : args) {
+      String[] pair = arg.split("=", 2);
+      if (pair.length == 2)
+	params.put(pair[0].trim(), pair[1].trim());
+    }
+
+    boolean runMode = params.containsKey("baseline") && params.containsKey("candidate");
+    if (! runMode && ! (params.containsKey("baselineRun") && params.containsKey("candidateRun"))) {
+      System.err.println("Usage:  java RegressionHarness baseline=PARAMFILE candidate=PARAMFILE" +
+			 " [runs=N] [epsilon=X] [strictTies=true] [report=N] [jvmArgs=\"...\"]\n" +
+			 "        java RegressionHarness baselineRun=FILE candidateRun=FILE" +
+			 " [epsilon=X] [strictTies=true] [report=N]");
+      System.exit(1);
+    }
+
+    RegressionHarness harness =
+      new RegressionHarness(params.containsKey("epsilon") ? Double.parseDouble(params.get("epsilon")) : 1e-9,
+			    params.containsKey("report") ? Integer.parseInt(params.get("report")) : 10);
+    boolean strictTies = "true".equalsIgnoreCase(params.get("strictTies"));
+
+    if (! runMode) {
+      harness.compare(readRun(new File(params.get("baselineRun"))),
+		      readRun(new File(params.get("candidateRun"))));
+      harness.printSummary(System.out);
+      System.exit(harness.passed(strictTies) ? 0 : 1);
+    }
+
+    File baseline = new File(params.get("baseline"));
+    File candidate = new File(params.get("candidate"));
+    String queries = readParams(baseline).get("queryFilePath");
+    if (queries == null || ! queries.equals(readParams(candidate).get("queryFilePath")))
+      System.err.println("Warning: The parameter files have different query files.");
+
+    int runs = params.containsKey("runs") ? Integer.parseInt(params.get("runs")) : 1;
+    List<String> jvmArgs = new ArrayList<String>();
+    if (params.containsKey("jvmArgs"))
+      for (String a : params.get("jvmArgs").replace("\"", "").trim().split("\\s+"))
+	if (a.length() > 0)
+	  jvmArgs.add(a);
+
+    File dir = File.createTempFile("regression", "");
+    dir.delete();
+    dir.mkdirs();
+
+    List<Map<String, String>> baselineStats = new ArrayList<Map<String, String>>();
+    List<Map<String, String>> candidateStats = new ArrayList<Map<String, String>>();
+    for (int i = 0; i < runs; i++) {
+      baselineStats.add(runQryEval(baseline, new File(dir, "baseline-" + i + ".trec"),
+				   new File(dir, "baseline-" + i + ".stats"), jvmArgs));
+      candidateStats.add(runQryEval(candidate, new File(dir, "candidate-" + i + ".trec"),
+				    new File(dir, "candidate-" + i + ".stats"), jvmArgs));
+    }
+
+    harness.compare(readRun(new File(dir, "baseline-0.trec")),
+		    readRun(new File(dir, "candidate-0.trec")));
+    harness.printSummary(System.out);
+    System.out.println("Performance, median of " + runs + " run(s); outputs in " + dir);
+    printStats(System.out, baselineStats, candidateStats);
+    System.exit(harness.passed(strictTies) ? 0 : 1);
+  }
+}
@@ -0,0 +1,397 @@
+/**
+ *  RelevanceFeedback implements Indri-style pseudo-relevance feedback
+ *  (the relevance model, RM3).  The top documents of an initial
+ *  ranking are assumed to be relevant.  Each term in their body
+ *  term vectors is scored by
+ *
+ *    score(t) = sum_d p(t|d) p(I|d) log(|C| / ctf(t))
+ *
+ *  where p(I|d) is the document's initial score and p(t|d) is
+ *  smoothed with fbMu.  The best terms form an expansion query that
+ *  is combined with the original query:
+ *
+ *    #WAND (fbOrigWeight qOriginal  1-fbOrigWeight #WAND (p1 t1 p2 t2 ...))
+ *
+ *  Term vectors are loaded and scored in parallel.  Since p(t|d) is
+ *  (tf + mu p_mle(t)) / (doclen + mu), the smoothing part of the sum
+ *  is the same for every term except for p_mle(t), so each document
+ *  only visits the terms it contains.  When the initial ranking was
+ *  computed by this run, its score list is reused for qOriginal
+ *  rather than evaluating the original query again.
+ *
+ *  Only each document's fbCandidateTerms terms with the largest
+ *  p(t|d) p(I|d) log(|C| / ctf(t)) become candidates, so the candidate
+ *  map holds at most fbDocs * fbCandidateTerms terms however long the
+ *  feedback documents are.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.lucene.util.BytesRef;
+
+public class RelevanceFeedback {
+
+  static final String FIELD = "body";
+
+  private int fbDocs;
+  private int fbTerms;
+  private int fbCandidateTerms;
+  private double fbMu;
+  private double fbOrigWeight;
+
+  //  Initial rankings read from fbInitialRankingFile, by query id.
+  //  Null if the initial ranking comes from this run.
+
+  private Map<Integer, ScoreList> initialRankings = null;
+
+  private BufferedWriter expansionWriter = null;
+  private ExecutorService pool;
+
+  /**
+   *  Configure feedback from the parameter file.
+   *  @param params The parameters.  fbDocs, fbTerms, fbMu and
+   *         fbOrigWeight are required; fbCandidateTerms (default
+   *         10 * fbTerms, 0 for no limit), fbInitialRankingFile,
+   *         fbExpansionQueryFile and fbThreads are optional.
+   *  @throws Exception
+   */
+  public RelevanceFeedback(Map<String, String> params) throws Exception {
+
+    if (!params.containsKey("fbDocs") || !params.containsKey("fbTerms")
+	|| !params.containsKey("fbMu") || !params.containsKey("fbOrigWeight"))
+      QryEval.fatalError("Error: Feedback parameters were missing.");
+
+    this.fbDocs = Integer.parseInt(params.get("fbDocs"));
+    this.fbTerms = Integer.parseInt(params.get("fbTerms"));
+    this.fbMu = Double.parseDouble(params.get("fbMu"));
+    this.fbOrigWeight = Double.parseDouble(params.get("fbOrigWeight"));
+    this.fbCandidateTerms = params.containsKey("fbCandidateTerms") ?
+      Integer.parseInt(params.get("fbCandidateTerms")) : 10 * this.fbTerms;
+
+    if (this.fbDocs < 1 || this.fbTerms < 1 || this.fbMu < 0 ||
+	this.fbOrigWeight < 0 || this.fbOrigWeight > 1 || this.fbCandidateTerms < 0)
+      QryEval.fatalError("Error: Invalid feedback parameters.");
+
+    if (params.containsKey("fbInitialRankingFile"))
+      this.initialRankings = readRankings(new File(params.get("fbInitialRankingFile")));
+
+    if (params.containsKey("fbExpansionQueryFile"))
+      this.expansionWriter =
+	new BufferedWriter(new FileWriter(new File(params.get("fbExpansionQueryFile"))));
+
+    int threads = params.containsKey("fbThreads") ?
+      Integer.parseInt(params.get("fbThreads")) :
+      Runtime.getRuntime().availableProcessors();
+
+    this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+	Thread t = new Thread(r, "feedback");
+	t.setDaemon(true);
+	return t;
+      }
+    });
+  }
+
+  /**
+   *  True if feedback documents come from fbInitialRankingFile, so
+   *  the caller need not evaluate the original query first.
+   */
+  public boolean hasInitialRanking() {
+    return this.initialRankings != null;
+  }
+
+  /**
+   *  Expand a query and evaluate the expanded query.
+   *  @param queryno The query id.
+   *  @param qTree The original query, already evaluated if initial is
+   *         not null.
+   *  @param initial The result of evaluating qTree, or null.  It is
+   *         ignored if an initial ranking file was given.
+   *  @param r The retrieval model.  It must be Indri.
+   *  @return The result of evaluating the expanded query.
+   *  @throws IOException
+   */
+  public QryResult evaluate(int queryno, Qryop qTree, QryResult initial, RetrievalModel r)
+    throws IOException {
+
+    if (! (r instanceof RetrievalModelIndri))
+      QryEval.fatalError("Error: Relevance feedback requires the Indri retrieval model.");
+
+    //  Find the feedback documents and their scores.
+
+    ScoreList ranking;
+    if (this.initialRankings != null) {
+      ranking = this.initialRankings.get(queryno);
+      if (ranking == null)
+	ranking = new ScoreList();
+      initial = null;
+    } else {
+      if (initial == null)
+	initial = qTree.evaluate(r);
+      ranking = initial.docScores;
+    }
+
+    int n;
+    int[] docs;
+    if (this.initialRankings != null) {
+      n = Math.min(this.fbDocs, ranking.scores.size());
+      docs = new int[n];
+      for (int i = 0; i < n; i++)
+	docs[i] = i;		// The file is already ranked.
+    } else {
+      docs = ranking.top(this.fbDocs, QryEval.eids, null);
+      n = Math.min(this.fbDocs, ranking.scores.size());
+    }
+
+    //  Build the expansion query.
+
+    QryopSlWAnd expansion = expansionQuery(ranking, docs, n);
+    writeExpansion(queryno, expansion);
+
+    if (expansion.args.size() == 0)
+      return (initial != null) ? initial : qTree.evaluate(r);
+
+    Qryop original = (initial != null && qTree instanceof QryopSl) ?
+      new QryopSlScoreList(initial.docScores, (QryopSl) qTree) : qTree;
+
+    QryopSlWAnd expanded = new QryopSlWAnd();
+    expanded.add(this.fbOrigWeight, original);
+    expanded.add(1.0 - this.fbOrigWeight, expansion);
+
+    return expanded.evaluate(r);
+  }
+
+  /**
+   *  Score the vocabulary of the feedback documents and return the
+   *  best fbTerms terms as a #WAND query.
+   */
+  QryopSlWAnd expansionQuery(final ScoreList ranking, int[] docs, int n) throws IOException {
+
+    final TermStatsCache stats = new TermStatsCache();
+    final double mu = this.fbMu;
+    final int limit = this.fbCandidateTerms;
+    final double collectionLength = QryEval.READER.getSumTotalTermFreq(FIELD);
+
+    //  Load the feedback documents in parallel.  Each task finds the
+    //  document's share of sum_d p(I|d) / (len+mu), and the terms
+    //  that contribute the most to score(t) in the document.
+
+    List<Future<DocTerms>> futures = new ArrayList<Future<DocTerms>>(n);
+    for (int i = 0; i < n; i++) {
+      final int docid = ranking.getDocid(docs[i]);
+      final double docScore = ranking.getDocidScore(docs[i]);
+
+      futures.add(this.pool.submit(new Callable<DocTerms>() {
+	public DocTerms call() throws IOException {
+	  TermVector tv = new TermVector(docid, FIELD, stats);
+	  double norm = docScore / (QryEval.dls.getDocLength(FIELD, docid) + mu);
+
+	  //  Each term's contribution to score(t).  Terms that can't be
+	  //  written in a query get none.
+
+	  int size = tv.stemsLength();
+	  double[] contribution = new double[size];
+	  int writable = 0;
+	  BytesRef ref = new BytesRef();
+	  for (int j = 1; j < size; j++) {
+	    long ctf = tv.totalStemFreq(j);
+	    if (ctf <= 0 || ! writable(tv.stemBytes(j, ref)))
+	      continue;
+	    double mle = ctf / collectionLength;
+	    contribution[j] = norm * (tv.stemFreq(j) + mu * mle) * Math.log(1 / mle);
+	    writable++;
+	  }
+
+	  //  Keep the terms above the limit'th largest contribution, and
+	  //  as many that equal it as fit, in stem order.
+
+	  double threshold = 0.0;
+	  int atThreshold = Integer.MAX_VALUE;
+	  if (limit > 0 && writable > limit) {
+	    double[] sorted = new double[writable];
+	    for (int j = 1, k = 0; j < size; j++)
+	      if (contribution[j] > 0)
+		sorted[k++] = contribution[j];
+	    Arrays.sort(sorted);
+	    threshold = sorted[writable - limit];
+	    atThreshold = 0;
+	    for (int k = writable - limit; k < writable && sorted[k] == threshold; k++)
+	      atThreshold++;
+	  }
+
+	  DocTerms d = new DocTerms(tv, norm, Math.min(writable, (limit > 0) ? limit : writable));
+	  for (int j = 1; j < size; j++) {
+	    if (contribution[j] <= 0 || contribution[j] < threshold)
+	      continue;
+	    if (contribution[j] == threshold && atThreshold-- <= 0)
+	      continue;
+	    d.top[d.size++] = j;
+	  }
+	  return d;
+	}
+      }));
+    }
+
+    //  The candidates are the terms in some document's top terms, so
+    //  there are at most n * fbCandidateTerms of them.  candidates
+    //  maps each to {sum of tf contributions, ctf}.  Every document
+    //  then adds its contribution to each candidate that it contains,
+    //  so the candidates' sums are exact.
+
+    Map<BytesRef, double[]> candidates = new HashMap<BytesRef, double[]>();
+    List<DocTerms> docTerms = new ArrayList<DocTerms>(n);
+    double normSum = 0.0;
+    BytesRef ref = new BytesRef();
+
+    for (int i = 0; i < futures.size(); i++) {
+      DocTerms d = get(futures.get(i));
+      docTerms.add(d);
+      normSum += d.norm;
+      for (int k = 0; k < d.size; k++) {
+	int j = d.top[k];
+	if (! candidates.containsKey(d.tv.stemBytes(j, ref)))
+	  candidates.put(BytesRef.deepCopyOf(ref), new double[] { 0.0, d.tv.totalStemFreq(j) });
+      }
+    }
+
+    for (DocTerms d : docTerms) {
+      for (int j = 1; j < d.tv.stemsLength(); j++) {
+	double[] c = candidates.get(d.tv.stemBytes(j, ref));
+	if (c != null)
+	  c[0] += d.tv.stemFreq(j) * d.norm;
+      }
+    }
+
+    //  Score the candidates and keep the best fbTerms in a bounded
+    //  min-heap.
+
+    PriorityQueue<Map.Entry<String, Double>> best =
+      new PriorityQueue<Map.Entry<String, Double>>(this.fbTerms + 1,
+	new Comparator<Map.Entry<String, Double>>() {
+	  public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+	    int c = a.getValue().compareTo(b.getValue());
+	    return (c != 0) ? c : b.getKey().compareTo(a.getKey());
+	  }
+	});
+
+    for (Map.Entry<BytesRef, double[]> e : candidates.entrySet()) {
+      double ctf = e.getValue()[1];
+      if (ctf <= 0)
+	continue;
+      double mle = ctf / collectionLength;
+      double score = (e.getValue()[0] + mu * mle * normSum) * Math.log(collectionLength / ctf);
+
+      best.add(new AbstractMap.SimpleEntry<String, Double>(e.getKey().utf8ToString(), score));
+      if (best.size() > this.fbTerms)
+	best.poll();
+    }
+
+    List<Map.Entry<String, Double>> terms = new ArrayList<Map.Entry<String, Double>>(best);
+    Collections.sort(terms, Collections.reverseOrder(best.comparator()));
+
+    QryopSlWAnd expansion = new QryopSlWAnd();
+    for (Map.Entry<String, Double> e : terms)
+      expansion.add(e.getValue(), new QryopIlTerm(e.getKey(), FIELD));
+    return expansion;
+  }
+
+  /**
+   *  Whether a stem can be written in a query: it has no '.' or ','.
+   */
+  private static boolean writable(BytesRef stem) {
+    for (int i = stem.offset; i < stem.offset + stem.length; i++)
+      if (stem.bytes[i] == '.' || stem.bytes[i] == ',')
+	return false;
+    return true;
+  }
+
+  private static DocTerms get(Future<DocTerms> f) throws IOException {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+	throw (IOException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   *  Write an expansion query in the query file format, e.g.,
+   *  "10: #wand (0.12 obama 0.05 family)".
+   */
+  private void writeExpansion(int queryno, QryopSlWAnd expansion) throws IOException {
+    if (this.expansionWriter == null)
+      return;
+
+    StringBuilder b = new StringBuilder();
+    b.append(queryno).append(": #wand (");
+    for (int i = 0; i < expansion.args.size(); i++) {
+      String term = expansion.args.get(i).toString();
+      b.append(' ').append(String.format("%.4f", expansion.weights[i]))
+       .append(' ').append(term.substring(0, term.lastIndexOf('.')));
+    }
+    b.append(")\n");
+
+    synchronized (this.expansionWriter) {
+      this.expansionWriter.write(b.toString());
+    }
+  }
+
+  /**
+   *  Read a ranking in trec_eval format.  Each query's documents are
+   *  kept in file order.
+   */
+  private static Map<Integer, ScoreList> readRankings(File file) throws Exception {
+    Map<Integer, ScoreList> rankings = new HashMap<Integer, ScoreList>();
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = br.readLine()) != null) {
+	String[] cols = line.trim().split("\\s+");
+	if (cols.length < 5)
+	  continue;
+
+	int queryno = Integer.parseInt(cols[0]);
+	ScoreList ranking = rankings.get(queryno);
+	if (ranking == null) {
+	  ranking = new ScoreList();
+	  rankings.put(queryno, ranking);
+	}
+	ranking.add(QryEval.getInternalDocid(cols[2]), Double.parseDouble(cols[4]));
+      }
+    } finally {
+      br.close();
+    }
+    return rankings;
+  }
+
+  /**
+   *  Flush the expansion query file and stop the worker threads.
+   *  @throws IOException
+   */
+  public void close() throws IOException {
+    this.pool.shutdown();
+    if (this.expansionWriter != null)
+      this.expansionWriter.close();
+  }
+
+  //  The terms of one feedback document.
+
+  private static class DocTerms {
+    final TermVector tv;
+    final double norm;
+    final int[] top;			// stems of the document's top terms
+    int size = 0;
+
+    DocTerms(TermVector tv, double norm, int capacity) {
+      this.tv = tv;
+      this.norm = norm;
+      this.top = new int[capacity];
+    }
+  }
+}
@@ -8,6 +8,10 @@
  *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
  */
 
+import java.io.*;
+
+import org.apache.lucene.index.IndexReader;
+
 public abstract class RetrievalModel {
 
   /**
@@ -25,4 +29,14 @@ public abstract class RetrievalModel {
    *  @return true if the parameter is set successfully, false otherwise.
    */
   public abstract boolean setParameter (String parameterName, String value);
+
+  /**
+   *  The index was reopened.  A model that keeps state derived from
+   *  the old reader rebuilds it here.  The server calls this while
+   *  no queries are running.
+   *  @param reader The new index reader.
+   *  @throws IOException
+   */
+  public void reopen (IndexReader reader) throws IOException {
+  }
 }
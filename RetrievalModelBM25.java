@@ -4,10 +4,26 @@
  *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
  */
 
+import java.io.*;
+
+import org.apache.lucene.index.IndexReader;
+
 public class RetrievalModelBM25 extends RetrievalModel {
 	private double k1;
 	private double b;
 	private double k3;
+
+	//  Bag-of-words queries are evaluated score-at-a-time if there
+	//  is an impact index.
+
+	private ImpactIndex impactIndex = null;
+	private int saatK = 100;
+	private boolean saatOrder = false;
+	private long saatPostings = 0;
+
+	//  Term scores are integer impacts if there is a quantizer.
+
+	private QuantizedBM25 quantizer = null;
 	
 	
 	public RetrievalModelBM25(double k1, double b, double k3){
@@ -53,4 +69,46 @@ public class RetrievalModelBM25 extends RetrievalModel {
   public double getb(){return b;}
   public double getk3(){return k3;}
 
+  /**
+   * Evaluate bag-of-words queries score-at-a-time ({@link QryopSlSaat}).
+   * @param index The impact index.
+   * @param k Stop when the top k can't change; 0 to never stop early.
+   * @param order True if the order of the top k must be stable too.
+   * @param postings Stop after this many postings; 0 for no limit.
+   */
+  public void setSaat(ImpactIndex index, int k, boolean order, long postings) {
+    this.impactIndex = index;
+    this.saatK = k;
+    this.saatOrder = order;
+    this.saatPostings = postings;
+  }
+
+  public ImpactIndex getImpactIndex(){return impactIndex;}
+  public int getSaatK(){return saatK;}
+  public boolean getSaatOrder(){return saatOrder;}
+  public long getSaatPostings(){return saatPostings;}
+
+  /**
+   * Score terms with integer impacts ({@link QuantizedBM25}).
+   * @param quantizer The quantizer, or null for exact scores.
+   */
+  public void setQuantizer(QuantizedBM25 quantizer) {
+    this.quantizer = quantizer;
+  }
+
+  public QuantizedBM25 getQuantizer(){return quantizer;}
+
+  /**
+   * Rebuild the impact index if it was built for the old reader, and
+   * the quantizer's tables.
+   * @param reader The new index reader.
+   * @throws IOException
+   */
+  public void reopen (IndexReader reader) throws IOException {
+    if (impactIndex != null)
+      impactIndex = impactIndex.reopen(reader);
+    if (quantizer != null)
+      quantizer = quantizer.reopen();
+  }
+
 }
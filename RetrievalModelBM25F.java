@@ -0,0 +1,55 @@
+/**
+ *  BM25F scores a query term by its frequency in several fields of a
+ *  document.  Each field's frequency is length-normalized with that
+ *  field's b and weighted, and the weighted sum is saturated once:
+ *
+ *    tf'   = sum over fields f of  weight_f * tf_f / (1 - b_f + b_f * len_f / avglen_f)
+ *    score = idf * tf' / (k1 + tf')
+ *
+ *  where idf uses the number of documents that contain the term in
+ *  any of the fields.  With the single field body:1.0 this is the
+ *  BM25 score.  Terms that name a field (apple.title) and proximity
+ *  operators are scored with plain BM25 in their own field.
+ *
+ *  b is BM25:b unless a field has its own b ("b.title").
+ */
+
+import java.util.*;
+
+public class RetrievalModelBM25F extends RetrievalModelBM25 {
+
+  static final String DEFAULT_FIELDS = "body:1.0,title:2.0,url:1.0,inlink:1.0";
+
+  private final FieldWeights fields;
+  private final Map<String, Double> fieldB = new HashMap<String, Double>();
+
+  public RetrievalModelBM25F(double k1, double b, double k3, FieldWeights fields) {
+    super(k1, b, k3);
+    this.fields = fields;
+  }
+
+  /**
+   * Set a retrieval model parameter.  "b.<field>" sets the b of one
+   * field; other parameters are BM25 parameters.
+   * @param parameterName
+   * @param parametervalue
+   * @return true if the parameter is known.
+   */
+  public boolean setParameter (String parameterName, double value) {
+    if (parameterName.startsWith("b.")) {
+      this.fieldB.put(parameterName.substring(2), value);
+      return true;
+    }
+    return super.setParameter(parameterName, value);
+  }
+
+  public FieldWeights getFields() { return fields; }
+
+  /**
+   *  The b of a field: its own, or BM25:b.
+   */
+  public double getb(String field) {
+    Double b = this.fieldB.get(field);
+    return (b == null) ? getb() : b;
+  }
+}
@@ -8,6 +8,13 @@ public class RetrievalModelIndri extends RetrievalModel {
 	private int mu;
 	private double lambda;
 
+	//  Sequential dependence model: the weights of the unigram,
+	//  ordered (#NEAR/1) and unordered (#UW) parts, or null if
+	//  unstructured queries aren't expanded.
+
+	private double[] sdmWeights = null;
+	private int sdmWindow = 8;
+
   /**
    * Set a retrieval model parameter.
    * @param parameterName
@@ -44,4 +51,20 @@ public class RetrievalModelIndri extends RetrievalModel {
   }
   public int getmu() {return mu;}
   public double getlambda() {return lambda;}
+
+  /**
+   * Expand unstructured queries with the sequential dependence model.
+   * @param weights The weights of the unigram, ordered and unordered parts.
+   * @param window The size of the unordered windows.
+   */
+  public void setSdm(double[] weights, int window) {
+    this.sdmWeights = weights;
+    this.sdmWindow = window;
+  }
+
+  /**
+   * @return The SDM weights, or null if queries aren't expanded.
+   */
+  public double[] getSdmWeights() {return sdmWeights;}
+  public int getSdmWindow() {return sdmWindow;}
 }
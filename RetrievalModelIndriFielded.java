@@ -0,0 +1,27 @@
+/**
+ *  The fielded Indri model scores a query term with a mixture of the
+ *  language models of a document's fields:
+ *
+ *    p(t|d) = sum over fields f of  weight_f * p_f(t|d)
+ *    p_f(t|d) = lambda * (tf_f + mu * ctf_f / |C_f|) / (len_f + mu)
+ *               + (1 - lambda) * ctf_f / |C_f|
+ *
+ *  The weights are normalized to sum to 1.  With the single field
+ *  body this is the Indri score.  Terms that name a field
+ *  (apple.title) and proximity operators are scored with plain Indri
+ *  in their own field.
+ */
+
+public class RetrievalModelIndriFielded extends RetrievalModelIndri {
+
+  static final String DEFAULT_FIELDS = "body:0.7,title:0.1,url:0.1,inlink:0.1";
+
+  private final FieldWeights fields;
+
+  public RetrievalModelIndriFielded(int mu, double lambda, FieldWeights fields) {
+    super(mu, lambda);
+    this.fields = fields.normalize();
+  }
+
+  public FieldWeights getFields() { return fields; }
+}
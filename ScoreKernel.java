@@ -0,0 +1,112 @@
+/**
+ *  ScoreKernel scores a block of up to BLOCK postings of one term at
+ *  a time, for #SCORE.  The tfs and document lengths of the block are
+ *  in arrays, so the kernel is a loop over arrays without any index
+ *  access, which the JIT compiler can unroll and vectorize.
+ *
+ *  This class is the scalar kernel.  With Java 17 or later, the
+ *  vector module adds VectorScoreKernel, which uses the JDK Vector
+ *  API (jdk.incubator.vector).  It is used if the JVM was started
+ *  with --add-modules jdk.incubator.vector, and otherwise the scalar
+ *  kernel is.  Both compute the same expressions in the same order
+ *  as the per-posting loop, so scores are identical.
+ *
+ *  The kernel is chosen once, with the scoreKernel parameter:
+ *
+ *    auto     the vector kernel if it is available, else scalar
+ *    vector   the vector kernel
+ *    scalar   the scalar kernel
+ *    posting  no kernel; #SCORE scores one posting at a time
+ */
+
+public class ScoreKernel {
+
+  public static final int BLOCK = 128;
+
+  private static volatile ScoreKernel current = auto();
+
+  /**
+   *  The kernel used by #SCORE.
+   *  @return The kernel, or null to score one posting at a time.
+   */
+  public static ScoreKernel current() {
+    return current;
+  }
+
+  /**
+   *  Choose the kernel used by #SCORE.
+   *  @param name auto, vector, scalar or posting.
+   *  @throws IllegalArgumentException If the name is unknown, or the
+   *          vector kernel isn't available.
+   */
+  public static void select(String name) {
+    if (name.equals("auto"))
+      current = auto();
+    else if (name.equals("scalar"))
+      current = new ScoreKernel();
+    else if (name.equals("posting"))
+      current = null;
+    else if (name.equals("vector")) {
+      ScoreKernel k = vector();
+      if (k == null)
+	throw new IllegalArgumentException("the vector kernel needs Java 17 or later, " +
+					   "the vector module, and --add-modules jdk.incubator.vector");
+      current = k;
+    } else
+      throw new IllegalArgumentException("unknown kernel " + name);
+  }
+
+  private static ScoreKernel auto() {
+    ScoreKernel k = vector();
+    return (k != null) ? k : new ScoreKernel();
+  }
+
+  /**
+   *  The vector kernel, if it is on the class path and the JVM has
+   *  the Vector API.
+   */
+  private static ScoreKernel vector() {
+    try {
+      return (ScoreKernel) Class.forName("VectorScoreKernel").getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      return null;
+    } catch (LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   *  @return The kernel's name, for reports.
+   */
+  public String name() {
+    return "scalar";
+  }
+
+  /**
+   *  BM25 term scores:
+   *  out[i] = idf * tf[i] / (tf[i] + k1 * (1 - b + b * len[i] / avglen)).
+   *  @param tf The postings' term frequencies.
+   *  @param len The postings' document lengths.
+   *  @param n The number of postings, at most BLOCK.
+   *  @param out The scores.
+   */
+  public void bm25(double[] tf, double[] len, int n,
+		   double idf, double k1, double b, double avglen, double[] out) {
+    for (int i = 0; i < n; i++)
+      out[i] = idf * tf[i] / (tf[i] + k1 * (1 - b + b * len[i] / avglen));
+  }
+
+  /**
+   *  Indri term scores:
+   *  out[i] = lambda * (tf[i] + mu * mle) / (len[i] + mu) + (1 - lambda) * mle.
+   *  @param tf The postings' term frequencies.
+   *  @param len The postings' document lengths.
+   *  @param n The number of postings, at most BLOCK.
+   *  @param out The scores.
+   */
+  public void indri(double[] tf, double[] len, int n,
+		    double lambda, double mu, double mle, double[] out) {
+    for (int i = 0; i < n; i++)
+      out[i] = lambda * (tf[i] + mu * mle) / (len[i] + mu) + (1 - lambda) * mle;
+  }
+}
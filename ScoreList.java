@@ -59,6 +59,89 @@ public class ScoreList {
   public double getDocidScore(int n) {
     return this.scores.get(n).score;
   }
-  
+
+  /**
+   *  Select the top-ranked entries of the score list.  Entries are
+   *  ranked by score, and ties are broken by external id.  A bounded
+   *  heap keeps selection O(n log max) and avoids sorting the whole
+   *  list.
+   *  @param max The maximum number of entries to select.
+   *  @param ids The external ids used to break ties.
+   *  @param heap Scratch space.  It is reused if it has room for
+   *         max entries.
+   *  @return Entry indexes, best first, in the first min(max, size)
+   *          elements of the returned array.
+   */
+  public int[] top(int max, ExternalIdStore ids, int[] heap) {
+
+    int size = this.scores.size();
+    int k = Math.min(size, max);
+
+    if (heap == null || heap.length < k)
+      heap = new int[k];
+
+    int n = 0;
+
+    for (int i = 0; i < size; i++) {
+      if (n < k) {
+	heap[n] = i;
+	siftUp(ids, heap, n);
+	n++;
+      } else if (better(ids, i, heap[0])) {
+	heap[0] = i;
+	siftDown(ids, heap, 0, n);
+      }
+    }
+
+    //  Heap sort in place; the worst entry is moved to the end each time.
+
+    for (int end = n - 1; end > 0; end--) {
+      int tmp = heap[0];
+      heap[0] = heap[end];
+      heap[end] = tmp;
+      siftDown(ids, heap, 0, end);
+    }
+
+    return heap;
+  }
+
+  /**
+   *  True if entry a ranks above entry b.
+   */
+  private boolean better(ExternalIdStore ids, int a, int b) {
+    double scoreA = getDocidScore(a);
+    double scoreB = getDocidScore(b);
+    if (scoreA != scoreB)
+      return scoreA > scoreB;
+    return ids.compare(getDocid(a), getDocid(b)) < 0;
+  }
+
+  private void siftUp(ExternalIdStore ids, int[] h, int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (! better(ids, h[parent], h[i]))
+	break;
+      int tmp = h[parent];
+      h[parent] = h[i];
+      h[i] = tmp;
+      i = parent;
+    }
+  }
+
+  private void siftDown(ExternalIdStore ids, int[] h, int i, int n) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= n)
+	break;
+      if (child + 1 < n && better(ids, h[child], h[child + 1]))
+	child++;
+      if (! better(ids, h[i], h[child]))
+	break;
+      int tmp = h[i];
+      h[i] = h[child];
+      h[child] = tmp;
+      i = child;
+    }
+  }
 
 }
@@ -0,0 +1,275 @@
+/**
+ *  SyntheticIndex builds a Lucene index of random documents, so that
+ *  performance work can be measured without outside data.  Terms are
+ *  named by their frequency rank ("t1" is the most frequent) and are
+ *  drawn from a Zipf distribution, P(rank k) ~ 1/k^zipf.  Document
+ *  lengths are log-normal around meanLength.  The same parameters and
+ *  seed always produce the same documents.
+ *
+ *  Documents have the fields the engine expects, all with positions
+ *  and term vectors:
+ *
+ *    body      the document text
+ *    title     about titleLength terms sampled from the body
+ *    url       http://site<k>.example/ followed by two body terms;
+ *              about 20 documents share each site
+ *    inlink    anchor text: meanInlinks anchors on average (many
+ *              documents have none), each a few title terms
+ *
+ *  and a stored "externalId" ("doc-<n>").  Lengths are stored with
+ *  {@link DocLenStoreSimilarity}, as {@link DocLengthStore} expects.
+ *  The title, url and inlink fields are drawn from their own random
+ *  stream, so the body text depends only on the body parameters.
+ *  {@link SyntheticQueries} writes query files for these indexes.
+ *
+ *  Usage:  java SyntheticIndex indexPath=DIR [docs=N] [vocabulary=N]
+ *            [zipf=S] [meanLength=N] [titleLength=N] [meanInlinks=X]
+ *            [seed=N]
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+public class SyntheticIndex {
+
+  private final int docs;
+  private final int vocabulary;
+  private final double zipf;
+  private final int meanLength;
+  private final int titleLength;
+  private final double meanInlinks;
+  private final long seed;
+
+  //  cdf[k] is P(rank <= k+1).
+
+  private final double[] cdf;
+
+  /**
+   *  @param docs The number of documents.
+   *  @param vocabulary The number of distinct terms.
+   *  @param zipf The Zipf exponent; 1.0 is typical of English text.
+   *  @param meanLength The mean document length in terms.
+   *  @param seed The random seed.
+   */
+  public SyntheticIndex(int docs, int vocabulary, double zipf, int meanLength, long seed) {
+    this(docs, vocabulary, zipf, meanLength, 6, 2.0, seed);
+  }
+
+  /**
+   *  @param docs The number of documents.
+   *  @param vocabulary The number of distinct terms.
+   *  @param zipf The Zipf exponent; 1.0 is typical of English text.
+   *  @param meanLength The mean document length in terms.
+   *  @param titleLength The mean title length in terms.
+   *  @param meanInlinks The mean number of anchors pointing to a document.
+   *  @param seed The random seed.
+   */
+  public SyntheticIndex(int docs, int vocabulary, double zipf, int meanLength,
+			int titleLength, double meanInlinks, long seed) {
+    this.docs = docs;
+    this.vocabulary = vocabulary;
+    this.zipf = zipf;
+    this.meanLength = meanLength;
+    this.titleLength = titleLength;
+    this.meanInlinks = meanInlinks;
+    this.seed = seed;
+
+    this.cdf = new double[vocabulary];
+    double sum = 0.0;
+    for (int k = 0; k < vocabulary; k++) {
+      sum += 1.0 / Math.pow(k + 1, zipf);
+      this.cdf[k] = sum;
+    }
+    for (int k = 0; k < vocabulary; k++)
+      this.cdf[k] /= sum;
+  }
+
+  /**
+   *  The term with a frequency rank.
+   *  @param rank A rank from 1 to the vocabulary size.
+   *  @return The term.
+   */
+  public static String term(int rank) {
+    return "t" + rank;
+  }
+
+  /**
+   *  The external id of a document.
+   *  @param n The document number, from 0.
+   *  @return The external id.
+   */
+  public static String externalId(int n) {
+    return "doc-" + n;
+  }
+
+  /**
+   *  Draw a term rank.
+   */
+  int nextRank(Random random) {
+    int k = Arrays.binarySearch(this.cdf, random.nextDouble());
+    return Math.min((k < 0) ? -k - 1 : k, this.vocabulary - 1) + 1;
+  }
+
+  /**
+   *  Draw a document length: log-normal with sigma 0.5.
+   */
+  int nextLength(Random random) {
+    double sigma = 0.5;
+    double mu = Math.log(this.meanLength) - sigma * sigma / 2;
+    return Math.max(1, (int) Math.round(Math.exp(mu + sigma * random.nextGaussian())));
+  }
+
+  /**
+   *  Draw the term ranks of a random document.
+   *  @return The ranks; only the first length are used.
+   */
+  int[] body(Random random, int length, int[] ranks) {
+    if (ranks.length < length)
+      ranks = new int[Math.max(length, ranks.length * 2)];
+    for (int i = 0; i < length; i++)
+      ranks[i] = nextRank(random);
+    return ranks;
+  }
+
+  /**
+   *  Append the terms ranks[0..length) to a field's text.
+   */
+  static void append(int[] ranks, int length, StringBuilder b) {
+    for (int i = 0; i < length; i++) {
+      if (b.length() > 0)
+	b.append(' ');
+      b.append('t').append(ranks[i]);
+    }
+  }
+
+  /**
+   *  Write the text of the title, url and inlink fields of a document
+   *  with the given body.
+   *  @param fields The text of the fields, in that order.
+   */
+  void fields(Random random, int n, int[] ranks, int length, StringBuilder[] fields) {
+    for (StringBuilder b : fields)
+      b.setLength(0);
+
+    //  title: 1 to 2*titleLength-1 body terms.
+
+    int[] title = new int[1 + random.nextInt(Math.max(1, 2 * this.titleLength - 1))];
+    for (int i = 0; i < title.length; i++)
+      title[i] = ranks[random.nextInt(length)];
+    append(title, title.length, fields[0]);
+
+    fields[1].append("http://site").append(n / 20).append(".example/");
+    fields[1].append('t').append(ranks[random.nextInt(length)]).append('/');
+    fields[1].append('t').append(ranks[random.nextInt(length)]).append('/');
+
+    //  inlink: a geometric number of anchors, each 1 to 4 title terms.
+
+    double p = 1.0 / (1.0 + this.meanInlinks);
+    int[] anchor = new int[4];
+    while (random.nextDouble() >= p) {
+      int k = 1 + random.nextInt(anchor.length);
+      for (int i = 0; i < k; i++)
+	anchor[i] = title[random.nextInt(title.length)];
+      append(anchor, k, fields[2]);
+    }
+  }
+
+  /**
+   *  Build the index, replacing any index in the directory.
+   *  @param dir The index directory.
+   *  @throws IOException
+   */
+  public void build(File dir) throws IOException {
+
+    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43, QryEval.analyzer);
+    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    config.setSimilarity(new DocLenStoreSimilarity());
+    config.setRAMBufferSizeMB(256);
+
+    FieldType body = new FieldType(TextField.TYPE_NOT_STORED);
+    body.setStoreTermVectors(true);
+    body.setStoreTermVectorPositions(true);
+    body.freeze();
+
+    Random random = new Random(this.seed);
+    Random fieldRandom = new Random(this.seed + 1);
+    int[] ranks = new int[this.meanLength * 4];
+    StringBuilder b = new StringBuilder(this.meanLength * 8);
+    StringBuilder[] fields = { new StringBuilder(), new StringBuilder(), new StringBuilder() };
+
+    IndexWriter writer = new IndexWriter(FSDirectory.open(dir), config);
+    try {
+      for (int n = 0; n < this.docs; n++) {
+	int length = nextLength(random);
+	ranks = body(random, length, ranks);
+	b.setLength(0);
+	append(ranks, length, b);
+	fields(fieldRandom, n, ranks, length, fields);
+
+	Document d = new Document();
+	d.add(new StringField("externalId", externalId(n), Field.Store.YES));
+	d.add(new Field("body", b.toString(), body));
+	d.add(new Field("title", fields[0].toString(), body));
+	d.add(new Field("url", fields[1].toString(), body));
+	if (fields[2].length() > 0)
+	  d.add(new Field("inlink", fields[2].toString(), body));
+	writer.addDocument(d);
+      }
+      writer.forceMerge(1);
+    } finally {
+      writer.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    for (String arg : args) {
+      String[] pair = arg.split("=", 2);
+      if (pair.length == 2)
+	params.put(pair[0].trim(), pair[1].trim());
+    }
+
+    if (! params.containsKey("indexPath")) {
+      System.err.println("Usage:  java SyntheticIndex indexPath=DIR [docs=N] [vocabulary=N]" +
+			 " [zipf=S] [meanLength=N] [titleLength=N] [meanInlinks=X] [seed=N]");
+      System.exit(1);
+    }
+
+    SyntheticIndex index = fromParams(params);
+    long start = System.nanoTime();
+    index.build(new File(params.get("indexPath")));
+    System.out.println("Built " + index.docs + " documents in " +
+		       (System.nanoTime() - start) / 1000000 + " ms");
+  }
+
+  /**
+   *  Create a generator from key=value parameters, with defaults for
+   *  the ones that are missing.
+   *  @param params The parameters.
+   *  @return The generator.
+   */
+  public static SyntheticIndex fromParams(Map<String, String> params) {
+    return new SyntheticIndex(intParam(params, "docs", 20000),
+			      intParam(params, "vocabulary", 50000),
+			      params.containsKey("zipf") ? Double.parseDouble(params.get("zipf")) : 1.0,
+			      intParam(params, "meanLength", 300),
+			      intParam(params, "titleLength", 6),
+			      params.containsKey("meanInlinks") ?
+			      Double.parseDouble(params.get("meanInlinks")) : 2.0,
+			      params.containsKey("seed") ? Long.parseLong(params.get("seed")) : 42);
+  }
+
+  private static int intParam(Map<String, String> params, String key, int defaultValue) {
+    return params.containsKey(key) ? Integer.parseInt(params.get(key)) : defaultValue;
+  }
+}
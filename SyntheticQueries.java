@@ -0,0 +1,220 @@
+/**
+ *  SyntheticQueries writes a query file for an index built by
+ *  {@link SyntheticIndex}, to drive load tests and stress runs of
+ *  QryEval and QryServer.  Query terms are drawn from the same Zipf
+ *  distribution as the documents, so the vocabulary, zipf and seed
+ *  parameters should be the ones the index was built with.
+ *
+ *  The operator mix is a list of weighted query kinds, e.g.,
+ *  operators=terms:3,and:2,near:1.  The kinds are
+ *
+ *    terms             a bag of words, for the model's default operator
+ *    and, or, sum      #and(...), #or(...), #sum(...) of terms, some of
+ *                      which are #syn, #near or #uw arguments
+ *    wand, wsum        weighted versions of the same
+ *    syn, near, uw     #syn(...), #near/N(...), #uw/N(...) of terms
+ *
+ *  The default mix uses the operators that retrievalAlgorithm
+ *  supports.  With probability fieldRate, a term (or all of the terms
+ *  of a proximity operator) gets a .title, .url, .inlink or .body
+ *  suffix.
+ *
+ *  Usage:  java SyntheticQueries queryFilePath=FILE [queries=N]
+ *            [retrievalAlgorithm=NAME] [operators=KIND:W,...]
+ *            [maxTerms=N] [fieldRate=X] [nestRate=X]
+ *            [vocabulary=N] [zipf=S] [seed=N]
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class SyntheticQueries {
+
+  static final String[] FIELDS = { "title", "url", "inlink", "body" };
+
+  static final List<String> KINDS =
+    Arrays.asList("terms", "and", "or", "sum", "wand", "wsum", "syn", "near", "uw");
+
+  private final SyntheticIndex index;
+  private final String[] kinds;
+  private final double[] cdf;
+  private final int maxTerms;
+  private final double fieldRate;
+  private final double nestRate;
+
+  /**
+   *  @param index The index generator, for its term distribution.
+   *  @param operators The operator mix, "kind:weight,...".
+   *  @param maxTerms The most terms in a query or operator.
+   *  @param fieldRate The probability that a term has a field suffix.
+   *  @param nestRate The probability that an argument of and, or,
+   *         sum, wand or wsum is a proximity operator.
+   */
+  public SyntheticQueries(SyntheticIndex index, String operators, int maxTerms,
+			  double fieldRate, double nestRate) {
+    this.index = index;
+    this.maxTerms = Math.max(1, maxTerms);
+    this.fieldRate = fieldRate;
+    this.nestRate = nestRate;
+
+    String[] entries = operators.split(",");
+    this.kinds = new String[entries.length];
+    this.cdf = new double[entries.length];
+    double sum = 0.0;
+    for (int i = 0; i < entries.length; i++) {
+      String[] pair = entries[i].trim().split(":");
+      this.kinds[i] = pair[0].trim().toLowerCase();
+      if (! KINDS.contains(this.kinds[i]))
+	throw new IllegalArgumentException("Unknown query kind: " + this.kinds[i]);
+      sum += (pair.length > 1) ? Double.parseDouble(pair[1].trim()) : 1.0;
+      this.cdf[i] = sum;
+    }
+    for (int i = 0; i < this.cdf.length; i++)
+      this.cdf[i] /= sum;
+  }
+
+  /**
+   *  The default operator mix for a retrieval algorithm: the query
+   *  operators that it can evaluate.
+   *  @param retrievalAlgorithm The algorithm name, or null.
+   *  @return The mix.
+   */
+  public static String defaultOperators(String retrievalAlgorithm) {
+    if ("bm25".equalsIgnoreCase(retrievalAlgorithm))
+      return "terms:3,sum:2,wsum:1,syn:1,near:2,uw:1";
+    if ("indri".equalsIgnoreCase(retrievalAlgorithm))
+      return "terms:3,and:2,wand:1,wsum:1,syn:1,near:2,uw:1";
+    return "terms:3,and:2,or:2,syn:1,near:2,uw:1";
+  }
+
+  /**
+   *  Write a random query.
+   *  @param random The random number generator.
+   *  @param b The buffer to append to.
+   */
+  public void query(Random random, StringBuilder b) {
+    int k = Arrays.binarySearch(this.cdf, random.nextDouble());
+    String kind = this.kinds[Math.min((k < 0) ? -k - 1 : k, this.kinds.length - 1)];
+
+    switch (kind) {
+      case "terms":
+	for (int i = numTerms(random, 1); i > 0; i--) {
+	  term(random, field(random), b);
+	  if (i > 1)
+	    b.append(' ');
+	}
+	break;
+      case "and":
+      case "or":
+      case "sum":
+      case "wand":
+      case "wsum":
+	boolean weighted = kind.charAt(0) == 'w';
+	b.append('#').append(kind).append('(');
+	for (int i = numTerms(random, 2); i > 0; i--) {
+	  if (weighted)
+	    b.append((1 + random.nextInt(10)) / 10.0).append(' ');
+	  if (random.nextDouble() < this.nestRate)
+	    proximity(random, new String[] { "syn", "near", "uw" }[random.nextInt(3)], b);
+	  else
+	    term(random, field(random), b);
+	  if (i > 1)
+	    b.append(' ');
+	}
+	b.append(')');
+	break;
+      default:
+	proximity(random, kind, b);
+    }
+  }
+
+  /**
+   *  Write #syn, #near/N or #uw/N of 2 or more terms in one field.
+   */
+  private void proximity(Random random, String kind, StringBuilder b) {
+    int n = numTerms(random, 2);
+    b.append('#').append(kind);
+    if (kind.equals("near"))
+      b.append('/').append(1 + random.nextInt(3));
+    else if (kind.equals("uw"))
+      b.append('/').append(n + 2 + random.nextInt(2 * n + 1));
+    b.append('(');
+
+    String field = field(random);
+    for (int i = n; i > 0; i--) {
+      term(random, field, b);
+      if (i > 1)
+	b.append(' ');
+    }
+    b.append(')');
+  }
+
+  private void term(Random random, String field, StringBuilder b) {
+    b.append(SyntheticIndex.term(this.index.nextRank(random)));
+    if (field != null)
+      b.append('.').append(field);
+  }
+
+  private String field(Random random) {
+    return (random.nextDouble() < this.fieldRate) ? FIELDS[random.nextInt(FIELDS.length)] : null;
+  }
+
+  private int numTerms(Random random, int min) {
+    return min + random.nextInt(Math.max(1, this.maxTerms - min + 1));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    for (String arg : args) {
+      String[] pair = arg.split("=", 2);
+      if (pair.length == 2)
+	params.put(pair[0].trim(), pair[1].trim());
+    }
+
+    if (! params.containsKey("queryFilePath")) {
+      System.err.println("Usage:  java SyntheticQueries queryFilePath=FILE [queries=N]" +
+			 " [retrievalAlgorithm=NAME] [operators=KIND:W,...] [maxTerms=N]" +
+			 " [fieldRate=X] [nestRate=X] [vocabulary=N] [zipf=S] [seed=N]");
+      System.exit(1);
+    }
+
+    String operators = params.containsKey("operators") ?
+      params.get("operators") : defaultOperators(params.get("retrievalAlgorithm"));
+    SyntheticQueries generator;
+    try {
+      generator = new SyntheticQueries(SyntheticIndex.fromParams(params), operators,
+				       params.containsKey("maxTerms") ?
+				       Integer.parseInt(params.get("maxTerms")) : 4,
+				       doubleParam(params, "fieldRate", 0.1),
+				       doubleParam(params, "nestRate", 0.2));
+    } catch (IllegalArgumentException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    int queries = params.containsKey("queries") ? Integer.parseInt(params.get("queries")) : 1000;
+    long seed = params.containsKey("seed") ? Long.parseLong(params.get("seed")) : 42;
+    Random random = new Random(seed + 2);
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(params.get("queryFilePath")), "UTF-8"));
+    try {
+      StringBuilder b = new StringBuilder(128);
+      for (int i = 1; i <= queries; i++) {
+	b.setLength(0);
+	b.append(i).append(": ");
+	generator.query(random, b);
+	b.append('\n');
+	out.write(b.toString());
+      }
+    } finally {
+      out.close();
+    }
+    System.out.println("Wrote " + queries + " queries (" + operators + ")");
+  }
+
+  private static double doubleParam(Map<String, String> params, String key, double defaultValue) {
+    return params.containsKey(key) ? Double.parseDouble(params.get(key)) : defaultValue;
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ *  TermStatsCache memoizes the collection statistics (df and ctf) of
+ *  terms, so that TermVectors that share a cache look each term up in
+ *  the index only once.  A query's feedback documents usually share
+ *  most of their vocabulary, so one cache per query removes most
+ *  IndexReader.docFreq and totalTermFreq calls.  The cache is safe to
+ *  use from many threads.
+ */
+
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+public class TermStatsCache {
+
+  //  field -> term -> {df, ctf}.  Lookups use the caller's BytesRef
+  //  as the key, so a cache hit does not allocate.  Only misses copy
+  //  the term.
+
+  private final ConcurrentHashMap<String, ConcurrentHashMap<BytesRef, long[]>> fields =
+    new ConcurrentHashMap<String, ConcurrentHashMap<BytesRef, long[]>>();
+
+  /**
+   *  Get the document frequency of a term.
+   *  @param field The field the term occurs in.
+   *  @param term The term.  It is not retained.
+   *  @return The df of the term.
+   *  @throws IOException
+   */
+  public int df(String field, BytesRef term) throws IOException {
+    return (int) stats(field, term)[0];
+  }
+
+  /**
+   *  Get the collection term frequency of a term.
+   *  @param field The field the term occurs in.
+   *  @param term The term.  It is not retained.
+   *  @return The ctf of the term.
+   *  @throws IOException
+   */
+  public long ctf(String field, BytesRef term) throws IOException {
+    return stats(field, term)[1];
+  }
+
+  /**
+   *  The number of terms cached for a field.
+   *  @param field A field name.
+   *  @return The number of cached terms.
+   */
+  public int size(String field) {
+    ConcurrentHashMap<BytesRef, long[]> terms = this.fields.get(field);
+    return (terms == null) ? 0 : terms.size();
+  }
+
+  private long[] stats(String field, BytesRef term) throws IOException {
+    ConcurrentHashMap<BytesRef, long[]> terms = this.fields.get(field);
+    if (terms == null) {
+      terms = new ConcurrentHashMap<BytesRef, long[]>();
+      ConcurrentHashMap<BytesRef, long[]> old = this.fields.putIfAbsent(field, terms);
+      if (old != null)
+	terms = old;
+    }
+
+    long[] s = terms.get(term);
+    if (s == null) {
+      BytesRef key = BytesRef.deepCopyOf(term);
+      Term t = new Term(field, key);
+      s = new long[] { QryEval.READER.docFreq(t), QryEval.READER.totalTermFreq(t) };
+      terms.putIfAbsent(key, s);
+    }
+    return s;
+  }
+}
@@ -1,8 +1,9 @@
 /**
  *  The TermVector class provides an Indri DocVector-style interface
  *  for the Lucene termvector.  There are three main data structurs:
- *    stems:      The field's vocabulary.  The 0'th entry is an empty string.
- *                It indicates a stopword.
+ *    stems:      The field's vocabulary, stored as UTF-8 slices of one
+ *                byte array.  The 0'th entry is empty.  It indicates a
+ *                stopword.
  *    stemsFreq:  The frequency (tf) of each entry in stems.
  *    positions:  The index of the stem that occurred at this position. 
  *
@@ -12,26 +13,51 @@
 import java.io.*;
 
 import org.apache.lucene.index.DocsAndPositionsEnum;
-import org.apache.lucene.index.Term;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
 
 public class TermVector {
 
   /**
    * Class variables.
+   *
+   * The stems are stored as UTF-8 slices of one shared byte array;
+   * stem i occupies stemBytes[stemStart[i]..stemStart[i+1]).  Stem
+   * strings are only created when stemString is called.
    */
   Terms luceneTerms;
+  String fieldName;
   int[] positions;
-  String[] stems;
+  byte[] stemBytes;
+  int[] stemStart;
   int[] stemsFreq;
-  Term[] terms;
+  TermStatsCache stats;
+
+  //  Scratch space for looking up stems in the stats cache.
+
+  private final BytesRef scratch = new BytesRef();
 
   /**
    *  Constructor.  Create a TermVector for a field in a document.
+   *  Collection statistics are cached only within this vector.
    *  @return {@link TermVector}
    */
   public TermVector(int docId, String fieldName) throws IOException {
+    this(docId, fieldName, new TermStatsCache());
+  }
+
+  /**
+   *  Constructor.  Create a TermVector for a field in a document.
+   *  Vectors created with the same cache share their df and ctf
+   *  lookups, so each stem is looked up in the index only once.
+   *  @return {@link TermVector}
+   */
+  public TermVector(int docId, String fieldName, TermStatsCache stats) throws IOException {
+
+    this.fieldName = fieldName;
+    this.stats = stats;
 
     //  Fetch the term vector.
 
@@ -39,54 +65,80 @@ public class TermVector {
 
     //  Allocate space for stems. The 0'th stem indicates a stopword.
 
-    int stemsLength = (int) this.luceneTerms.size();
-    stems = new String[stemsLength + 1];
-    terms = new Term[stemsLength + 1];
+    int stemsLength = (this.luceneTerms == null) ? 0 : (int) this.luceneTerms.size();
+    stemStart = new int[stemsLength + 2];
     stemsFreq = new int[stemsLength + 1];
-
-    //  Iterate through the terms, filling in the stem and frequency
-    //  information, and finding the position of the last term. The
-    //  0'th term indicates a stopword, so this loop starts at i=1.
-
-    TermsEnum ithTerm = this.luceneTerms.iterator(null);
-    
-    int positionsLength = 0;
-    for (int i = 1; ithTerm.next() != null; i++) {
-      stems[i] = ithTerm.term().utf8ToString();
-      terms[i] = new Term(fieldName, ithTerm.term().utf8ToString());
-      stemsFreq[i] = (int) ithTerm.totalTermFreq();
-
-      //  Find the position of the last (indexed) term in the
-      //  document, so that the positions array can be created and
-      //  populated later. The last position for each term is the
-      //  largest, so ignore the positions before it.
-
-      DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
-
-      ithPositions.nextDoc(); /* Initialize iPositions */
-
-      for (int j = 0; j < ithPositions.freq() - 1; j++)
-        ithPositions.nextPosition();
-
-      positionsLength = Math.max(positionsLength, ithPositions.nextPosition());
+    stemBytes = new byte[stemsLength * 8];
+
+    //  Iterate through the terms once, filling in the stem and
+    //  frequency information and recording (position, stem) pairs.
+    //  The 0'th term indicates a stopword, so this loop starts at i=1.
+
+    int[] occPositions = new int[stemsLength * 2 + 16];
+    int[] occStems = new int[occPositions.length];
+    int occ = 0;
+    int lastPosition = -1;
+
+    if (this.luceneTerms != null) {
+      TermsEnum ithTerm = this.luceneTerms.iterator(null);
+      DocsAndPositionsEnum ithPositions = null;
+      DocsEnum ithDocs = null;
+      BytesRef text;
+
+      for (int i = 1; (text = ithTerm.next()) != null; i++) {
+
+	int start = stemStart[i];
+	if (start + text.length > stemBytes.length) {
+	  byte[] b = new byte[Math.max(stemBytes.length * 2, start + text.length)];
+	  System.arraycopy(stemBytes, 0, b, 0, start);
+	  stemBytes = b;
+	}
+	System.arraycopy(text.bytes, text.offset, stemBytes, start, text.length);
+	stemStart[i + 1] = start + text.length;
+
+	//  A vector stored without positions only has frequencies.
+
+	ithPositions = ithTerm.docsAndPositions(null, ithPositions);
+	if (ithPositions == null) {
+	  ithDocs = ithTerm.docs(null, ithDocs, DocsEnum.FLAG_FREQS);
+	  ithDocs.nextDoc();
+	  stemsFreq[i] = ithDocs.freq();
+	  continue;
+	}
+	ithPositions.nextDoc(); /* Initialize iPositions */
+
+	int freq = ithPositions.freq();
+	stemsFreq[i] = freq;
+
+	if (occ + freq > occPositions.length) {
+	  int n = Math.max(occPositions.length * 2, occ + freq);
+	  int[] p = new int[n];
+	  int[] q = new int[n];
+	  System.arraycopy(occPositions, 0, p, 0, occ);
+	  System.arraycopy(occStems, 0, q, 0, occ);
+	  occPositions = p;
+	  occStems = q;
+	}
+
+	for (int j = 0; j < freq; j++) {
+	  int position = ithPositions.nextPosition();
+	  occPositions[occ] = position;
+	  occStems[occ] = i;
+	  occ++;
+	  if (position > lastPosition)
+	    lastPosition = position;
+	}
+      }
     }
 
     //  Create and fill the positions array. Note that the stems array
     //  uses stem 0 to indicate a stopword, so "real" stems have
     //  indexs 1 through length+1.
 
-    positions = new int[positionsLength + 1];
-
-    ithTerm = this.luceneTerms.iterator(null);
-
-    for (int i = 0; ithTerm.next() != null; i++) {
-      DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
-
-      ithPositions.nextDoc(); /* Initialize iPositions */
+    positions = new int[lastPosition + 1];
 
-      for (int j = 0; j < ithPositions.freq(); j++)
-        positions[ithPositions.nextPosition()] = i + 1;
-    }
+    for (int j = 0; j < occ; j++)
+      positions[occPositions[j]] = occStems[j];
   }
 
   /**
@@ -131,18 +183,32 @@ public class TermVector {
    *  @return The stem string.
    */
   public String stemString(int i) {
-    if (i < stems.length)
-      return stems[i];
+    if (i > 0 && i < stemsFreq.length)
+      return new BytesRef(stemBytes, stemStart[i], stemStart[i + 1] - stemStart[i]).utf8ToString();
     else
       return null;
   }
 
+  /**
+   *  Point a BytesRef at the bytes of the i'th stem without copying
+   *  them.  The BytesRef is only valid while this TermVector is.
+   *  @param i Index of the stem.
+   *  @param ref The BytesRef to fill in.
+   *  @return ref
+   */
+  public BytesRef stemBytes(int i, BytesRef ref) {
+    ref.bytes = stemBytes;
+    ref.offset = stemStart[i];
+    ref.length = stemStart[i + 1] - stemStart[i];
+    return ref;
+  }
+
   /**
    * The number of unique stems in this field.
    *  @return The number of unique stems in this field.
    */
   public int stemsLength() {
-    return this.stems.length;
+    return this.stemsFreq.length;
   }
   
   /**
@@ -152,7 +218,7 @@ public class TermVector {
    * @throws IOException.
    */
   public long totalStemFreq(int i) throws IOException {
-    return QryEval.READER.totalTermFreq(terms[i]);
+    return stats.ctf(fieldName, stemBytes(i, scratch));
   }
   
   /**
@@ -162,7 +228,7 @@ public class TermVector {
    * @throws IOException.
    */
   public int stemDf(int i) throws IOException {
-    return QryEval.READER.docFreq(terms[i]);
+    return stats.df(fieldName, stemBytes(i, scratch));
   }
   
 }
@@ -0,0 +1,275 @@
+/**
+ *  TrecWriter writes query results in the trec_eval format:
+ *
+ *    QueryID Q0 DocID Rank Score RunID
+ *
+ *  Lines are formatted directly into a reusable byte buffer and
+ *  written through a channel (a file, or a socket in server mode), so
+ *  no Strings are created for external ids, or for most scores.
+ *  External ids are copied out of an {@link ExternalIdStore}.  Scores
+ *  are written exactly as Double.toString writes them.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class TrecWriter {
+
+  //  Scores are written as Double.toString writes them.  Values in
+  //  [1e-3, 1e7), which Double.toString writes in plain notation,
+  //  are formatted here with the fewest significant digits that read
+  //  back as the same double; a decimal m / 10^k with m < 2^53 and
+  //  |k| <= 22 is read back exactly with one double operation.  Other
+  //  values, and values that need more digits than that, are written
+  //  with Double.toString itself.
+
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+  }
+
+  private static final long EXACT_LIMIT = 1L << 53;
+
+  private static final byte[] Q0 = ascii("  Q0 ");
+  private static final byte[] DUMMY = ascii(" Q0 dummy 1 0");
+  private static final byte[] ZERO = ascii("0.0");
+  private static final byte[] POINT_ZERO = ascii(".0");
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+  private ExternalIdStore externalIds;
+  private final byte[] runId;
+
+  //  Scratch space for ranking one query's results.
+
+  private int[] heap = new int[0];
+  private final byte[] digits = new byte[24];
+
+  /**
+   *  Create a writer.
+   *  @param file The result file.
+   *  @param externalIds The external ids of the index being searched.
+   *  @param runId The run id written at the end of each line.
+   *  @throws IOException
+   */
+  public TrecWriter(File file, ExternalIdStore externalIds, String runId) throws IOException {
+    this(new FileOutputStream(file).getChannel(), externalIds, runId);
+  }
+
+  /**
+   *  Create a writer for an open channel.
+   *  @param channel Where results are written.  It is closed by
+   *         {@link #close()}.
+   *  @param externalIds The external ids of the index being searched.
+   *  @param runId The run id written at the end of each line.
+   */
+  public TrecWriter(WritableByteChannel channel, ExternalIdStore externalIds, String runId) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(1 << 16);
+    this.externalIds = externalIds;
+    this.runId = ascii(" " + runId + "\n");
+  }
+
+  /**
+   *  Change the external ids used for later results, e.g., after the
+   *  index was reopened.
+   *  @param externalIds The external ids of the index being searched.
+   */
+  public void setExternalIds(ExternalIdStore externalIds) {
+    this.externalIds = externalIds;
+  }
+
+  /**
+   *  Write a line of ASCII text, e.g., a server protocol message.
+   *  @param line The text, without the line terminator.
+   *  @throws IOException
+   */
+  public void writeLine(String line) throws IOException {
+    put(ascii(line + "\n"));
+  }
+
+  /**
+   *  Write the top-ranked documents of a score list.  Documents are
+   *  ranked by score, and ties are broken by external id.
+   *  @param queryno The query id.
+   *  @param scores The query's score list.  It is not modified.
+   *  @param max The maximum number of documents to write.
+   *  @throws IOException
+   */
+  public void write(int queryno, ScoreList scores, int max) throws IOException {
+
+    this.heap = scores.top(max, this.externalIds, this.heap);
+    int n = Math.min(max, scores.scores.size());
+
+    if (n == 0) {
+      writeInt(queryno);
+      put(DUMMY);
+      put(this.runId);
+      return;
+    }
+
+    for (int rank = 1; rank <= n; rank++) {
+      int entry = this.heap[rank - 1];
+      int docid = scores.getDocid(entry);
+
+      ensureRemaining(64 + this.externalIds.length(docid) + this.runId.length);
+      writeInt(queryno);
+      put(Q0);
+      this.externalIds.copyTo(docid, this.buffer);
+      this.buffer.put((byte) ' ');
+      writeInt(rank);
+      this.buffer.put((byte) ' ');
+      writeDouble(scores.getDocidScore(entry));
+      put(this.runId);
+    }
+  }
+
+  /**
+   *  Append an integer in decimal.
+   */
+  private void writeInt(int v) throws IOException {
+    writeLong(v);
+  }
+
+  private void writeLong(long v) throws IOException {
+    ensureRemaining(21);
+    if (v < 0) {
+      this.buffer.put((byte) '-');
+      v = -v;
+    }
+    int n = 0;
+    do {
+      this.digits[n++] = (byte) ('0' + (v % 10));
+      v /= 10;
+    } while (v != 0);
+    while (n > 0)
+      this.buffer.put(this.digits[--n]);
+  }
+
+  /**
+   *  Append a double as Double.toString does: the shortest decimal
+   *  that reads back as the same double, in plain notation for
+   *  values in [1e-3, 1e7).
+   */
+  void writeDouble(double d) throws IOException {
+    ensureRemaining(32);
+
+    if (d == 0.0 && 1 / d > 0) {
+      put(ZERO);
+      return;
+    }
+
+    double abs = Math.abs(d);
+    if (Double.isNaN(d) || abs >= 1e7 || abs < 1e-3) {
+      put(ascii(Double.toString(d)));
+      return;
+    }
+
+    //  exp is the decimal exponent of the leading digit.  Find the
+    //  fewest digits p such that abs rounded to p digits, m * 10^-shift,
+    //  reads back as abs.
+
+    int exp = (int) Math.floor(Math.log10(abs));
+    long m = 0;
+    int shift = 0;
+    boolean found = false;
+    for (int p = 1; p <= 17 && ! found; p++) {
+      shift = p - 1 - exp;
+      m = Math.round(shift >= 0 ? abs * POWERS_OF_TEN[shift] : abs / POWERS_OF_TEN[-shift]);
+      if (m >= EXACT_LIMIT)
+	break;
+      found = (shift >= 0 ? m / POWERS_OF_TEN[shift] : m * POWERS_OF_TEN[-shift]) == abs;
+    }
+    if (! found) {
+      put(ascii(Double.toString(d)));
+      return;
+    }
+
+    if (d < 0)
+      this.buffer.put((byte) '-');
+
+    //  Lay out the digits least significant first.  The value is
+    //  m * 10^-shift.
+
+    int n = 0;
+    while (m != 0) {
+      this.digits[n++] = (byte) ('0' + (m % 10));
+      m /= 10;
+    }
+
+    if (shift <= 0) {
+      for (int i = n - 1; i >= 0; i--)
+	this.buffer.put(this.digits[i]);
+      for (int i = 0; i < -shift; i++)
+	this.buffer.put((byte) '0');
+      put(POINT_ZERO);
+      return;
+    }
+
+    //  Integer part.
+
+    if (n > shift) {
+      for (int i = n - 1; i >= shift; i--)
+	this.buffer.put(this.digits[i]);
+    } else {
+      this.buffer.put((byte) '0');
+    }
+    this.buffer.put((byte) '.');
+
+    //  Fraction part, without trailing zeros.
+
+    int last = 0;
+    while (last < shift && last < n && this.digits[last] == '0')
+      last++;
+
+    if (last == shift || last == n) {
+      this.buffer.put((byte) '0');
+      return;
+    }
+    for (int i = n; i < shift; i++)
+      this.buffer.put((byte) '0');
+    for (int i = Math.min(n, shift) - 1; i >= last; i--)
+      this.buffer.put(this.digits[i]);
+  }
+
+  private void put(byte[] b) throws IOException {
+    ensureRemaining(b.length);
+    this.buffer.put(b);
+  }
+
+  private void ensureRemaining(int n) throws IOException {
+    if (this.buffer.remaining() < n)
+      flush();
+  }
+
+  /**
+   *  Write buffered lines to the channel.
+   *  @throws IOException
+   */
+  public void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining())
+      this.channel.write(this.buffer);
+    this.buffer.clear();
+  }
+
+  /**
+   *  Flush and close the channel.
+   *  @throws IOException
+   */
+  public void close() throws IOException {
+    flush();
+    this.channel.close();
+  }
+
+  private static byte[] ascii(String s) {
+    try {
+      return s.getBytes("US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
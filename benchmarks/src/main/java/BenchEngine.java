@@ -0,0 +1,134 @@
+/**
+ *  BenchEngine implements the benchmarks' {@link bench.Engine}
+ *  interface with the search engine's classes, which are in the
+ *  default package.  It sets up the same global state as QryEval.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.FSDirectory;
+
+public class BenchEngine implements bench.Engine {
+
+  private RetrievalModel model = new RetrievalModelUnrankedBoolean();
+  private TrecWriter writer;
+  private long written = 0;
+
+  public void build(File index, int docs, int vocabulary, double zipf, int meanLength, long seed)
+    throws Exception {
+    new SyntheticIndex(docs, vocabulary, zipf, meanLength, seed).build(index);
+  }
+
+  public void open(File index) throws Exception {
+    QryEval.READER = DirectoryReader.open(FSDirectory.open(index));
+    QryEval.dls = new DocLengthStore(QryEval.READER);
+    QryEval.eids = ExternalIdStore.open(QryEval.READER,
+					QryEval.indexCacheFile(index.getPath(), "externalId.map"));
+
+    //  Results are formatted into the writer's buffer and dropped.
+
+    this.writer = new TrecWriter(new WritableByteChannel() {
+      public int write(ByteBuffer b) {
+	int n = b.remaining();
+	b.position(b.limit());
+	written += n;
+	return n;
+      }
+      public boolean isOpen() {
+	return true;
+      }
+      public void close() {
+      }
+    }, QryEval.eids, "bench");
+  }
+
+  public String term(int rank) {
+    return SyntheticIndex.term(rank);
+  }
+
+  public void model(String name) {
+    if (name.equals("unranked"))
+      this.model = new RetrievalModelUnrankedBoolean();
+    else if (name.equals("ranked"))
+      this.model = new RetrievalModelRankedBoolean();
+    else if (name.equals("bm25"))
+      this.model = new RetrievalModelBM25(1.2, 0.75, 0);
+    else if (name.equals("indri"))
+      this.model = new RetrievalModelIndri(2500, 0.4);
+    else
+      throw new IllegalArgumentException("Unknown model " + name);
+  }
+
+  public void kernel(String name) {
+    ScoreKernel.select(name);
+  }
+
+  public Object parse(String query) throws Exception {
+    return QryEval.parseQuery(query, this.model);
+  }
+
+  public Object preloadTerms(String query) throws Exception {
+    Qryop q = QryEval.parseQuery(query, this.model);
+    preloadTerms(q);
+    return q;
+  }
+
+  private void preloadTerms(Qryop q) throws IOException {
+    for (int i = 0; i < q.args.size(); i++) {
+      Qryop arg = q.args.get(i);
+      if (arg instanceof QryopIlTerm)
+	q.args.set(i, new QryopIlFixed(arg.evaluate(this.model).invertedList));
+      else
+	preloadTerms(arg);
+    }
+  }
+
+  public Object preloadScores(String query) throws Exception {
+    Qryop q = QryEval.parseQuery(query, this.model);
+    preloadScores(q);
+    return q;
+  }
+
+  private void preloadScores(Qryop q) throws IOException {
+    for (int i = 0; i < q.args.size(); i++) {
+      Qryop arg = q.args.get(i);
+      if (q instanceof QryopSl && (arg instanceof QryopIlTerm || arg instanceof QryopSlScore)) {
+	QryopSlScore score = (arg instanceof QryopSlScore) ? (QryopSlScore) arg : new QryopSlScore(arg);
+	q.args.set(i, new QryopSlScoreList(score.evaluate(this.model).docScores, score));
+      } else {
+	preloadScores(arg);
+      }
+    }
+  }
+
+  public Object preloadScore(String term) throws Exception {
+    return new QryopSlScore(new QryopIlFixed(new QryopIlTerm(term).evaluate(this.model).invertedList));
+  }
+
+  public int evaluate(Object query) throws Exception {
+    QryResult r = ((Qryop) query).evaluate(this.model);
+    return (query instanceof QryopIl) ? r.invertedList.df : r.docScores.scores.size();
+  }
+
+  public Object result(Object query) throws Exception {
+    return ((Qryop) query).evaluate(this.model);
+  }
+
+  public long write(Object result) throws Exception {
+    long before = this.written;
+    this.writer.write(1, ((QryResult) result).docScores, 100);
+    this.writer.flush();
+    return this.written - before;
+  }
+
+  public int loadTerm(String term) throws Exception {
+    return new InvList(term, "body").df;
+  }
+
+  public void close() throws Exception {
+    QryEval.READER.close();
+  }
+}
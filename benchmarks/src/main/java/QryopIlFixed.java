@@ -0,0 +1,30 @@
+/**
+ *  QryopIlFixed returns an inverted list that was loaded in advance,
+ *  so that benchmarks can measure an operator without reading the
+ *  index.  The list is shared by every evaluation and must not be
+ *  modified.
+ */
+
+import java.io.*;
+
+public class QryopIlFixed extends QryopIl {
+
+  private final InvList list;
+
+  public QryopIlFixed(InvList list) {
+    this.list = list;
+  }
+
+  public void add(Qryop q) {
+  }
+
+  public QryResult evaluate(RetrievalModel r) throws IOException {
+    QryResult result = new QryResult();
+    result.invertedList = this.list;
+    return result;
+  }
+
+  public String toString() {
+    return "#FIXED(" + this.list.field + ")";
+  }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Ranked Boolean #AND and #OR merges of four scored terms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BooleanBenchmark {
+
+  @Param({"1", "50"})
+  public int rank;
+
+  private Object and;
+  private Object or;
+
+  @Setup
+  public void setUp(EngineState s) throws Exception {
+    s.engine.model("ranked");
+    this.and = s.engine.preloadScores("#and(" + s.terms(this.rank, 4) + ")");
+    this.or = s.engine.preloadScores("#or(" + s.terms(this.rank, 4) + ")");
+  }
+
+  @Benchmark
+  public int and(EngineState s) throws Exception {
+    return s.engine.evaluate(this.and);
+  }
+
+  @Benchmark
+  public int or(EngineState s) throws Exception {
+    return s.engine.evaluate(this.or);
+  }
+}
@@ -0,0 +1,91 @@
+package bench;
+
+import java.io.File;
+
+/**
+ *  The operations that the benchmarks measure.  The search engine's
+ *  classes are in the default package, which JMH benchmarks (and any
+ *  other named package) cannot refer to, so the benchmarks reach the
+ *  engine through this interface.  It is implemented by BenchEngine,
+ *  in the default package, which is created once per trial by
+ *  reflection; calls through the interface are ordinary interface
+ *  calls.
+ */
+public interface Engine {
+
+  /**
+   *  Build a synthetic index (see SyntheticIndex).
+   */
+  void build(File index, int docs, int vocabulary, double zipf, int meanLength, long seed)
+    throws Exception;
+
+  /**
+   *  Open an index and make it the engine's current index.
+   */
+  void open(File index) throws Exception;
+
+  /**
+   *  The term with a frequency rank; "t1" is the most frequent.
+   */
+  String term(int rank);
+
+  /**
+   *  Set the retrieval model: unranked, ranked, bm25 or indri.
+   */
+  void model(String name);
+
+  /**
+   *  Set the kernel that #SCORE uses: posting, scalar, vector or
+   *  auto (see ScoreKernel).
+   */
+  void kernel(String name);
+
+  /**
+   *  Parse a query for the current model.
+   */
+  Object parse(String query) throws Exception;
+
+  /**
+   *  Parse a query and load the inverted lists of its terms, so that
+   *  evaluating it doesn't read the index.
+   */
+  Object preloadTerms(String query) throws Exception;
+
+  /**
+   *  Parse a query and score its terms, so that evaluating it only
+   *  runs the merge loops of the operators above the terms.
+   */
+  Object preloadScores(String query) throws Exception;
+
+  /**
+   *  Load a term's inverted list and wrap it in #SCORE, so that
+   *  evaluating it only runs the term's scoring loop.
+   */
+  Object preloadScore(String term) throws Exception;
+
+  /**
+   *  Evaluate a parsed query.
+   *  @return The number of documents in the result.
+   */
+  int evaluate(Object query) throws Exception;
+
+  /**
+   *  Evaluate a parsed query and keep its result for {@link #write}.
+   */
+  Object result(Object query) throws Exception;
+
+  /**
+   *  Rank a result and format its top 100 documents as trec_eval
+   *  lines, discarding the output.
+   *  @return The number of bytes formatted.
+   */
+  long write(Object result) throws Exception;
+
+  /**
+   *  Read a term's inverted list from the index.
+   *  @return The term's document frequency.
+   */
+  int loadTerm(String term) throws Exception;
+
+  void close() throws Exception;
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  The synthetic index shared by a benchmark trial.  The index is
+ *  built once per set of parameters, in bench.dir (default: the
+ *  system temporary directory), and reused by later runs.
+ */
+@State(Scope.Benchmark)
+public class EngineState {
+
+  @Param({"20000"})
+  public int docs;
+
+  @Param({"1.0"})
+  public double zipf;
+
+  public static final int VOCABULARY = 50000;
+  public static final int MEAN_LENGTH = 300;
+  public static final long SEED = 42;
+
+  public Engine engine;
+
+  @Setup(Level.Trial)
+  public void openIndex() throws Exception {
+    this.engine = (Engine) Class.forName("BenchEngine").getDeclaredConstructor().newInstance();
+
+    File dir = new File(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")),
+			"search-bench-" + this.docs + "-" + this.zipf + "-" + SEED);
+    if (! new File(dir, "segments.gen").exists())
+      this.engine.build(dir, this.docs, VOCABULARY, this.zipf, MEAN_LENGTH, SEED);
+    this.engine.open(dir);
+  }
+
+  @TearDown(Level.Trial)
+  public void closeIndex() throws Exception {
+    this.engine.close();
+  }
+
+  /**
+   *  A query of n terms with consecutive frequency ranks.
+   */
+  public String terms(int firstRank, int n) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < n; i++)
+      b.append(' ').append(this.engine.term(firstRank + i));
+    return b.toString().trim();
+  }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  #SCORE of one loaded inverted list with each scoring kernel:
+ *  "posting" is the per-posting loop, "scalar" and "vector" score
+ *  blocks of 128 postings (see ScoreKernel).  The fork adds the
+ *  Vector API module; the vector kernel needs Java 17 or later.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+  @Param({"bm25", "indri"})
+  public String model;
+
+  @Param({"posting", "scalar", "vector"})
+  public String kernel;
+
+  @Param({"1", "50"})
+  public int rank;
+
+  private Object score;
+
+  @Setup
+  public void setUp(EngineState s) throws Exception {
+    s.engine.model(this.model);
+    s.engine.kernel(this.kernel);
+    this.score = s.engine.preloadScore(s.engine.term(this.rank));
+  }
+
+  @TearDown
+  public void tearDown(EngineState s) {
+    s.engine.kernel("auto");
+  }
+
+  @Benchmark
+  public int score(EngineState s) throws Exception {
+    return s.engine.evaluate(this.score);
+  }
+}
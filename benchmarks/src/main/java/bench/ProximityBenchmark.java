@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  The #SYN, #NEAR/n and #UW/n merges over inverted lists that are
+ *  already loaded, so only the merge is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProximityBenchmark {
+
+  //  The frequency rank of the first argument.
+
+  @Param({"1", "50"})
+  public int rank;
+
+  private Object syn;
+  private Object near;
+  private Object uw;
+
+  @Setup
+  public void setUp(EngineState s) throws Exception {
+    s.engine.model("unranked");
+    this.syn = s.engine.preloadTerms("#syn(" + s.terms(this.rank, 4) + ")");
+    this.near = s.engine.preloadTerms("#near/1(" + s.terms(this.rank, 2) + ")");
+    this.uw = s.engine.preloadTerms("#uw/8(" + s.terms(this.rank, 2) + ")");
+  }
+
+  @Benchmark
+  public int syn(EngineState s) throws Exception {
+    return s.engine.evaluate(this.syn);
+  }
+
+  @Benchmark
+  public int near(EngineState s) throws Exception {
+    return s.engine.evaluate(this.near);
+  }
+
+  @Benchmark
+  public int uw(EngineState s) throws Exception {
+    return s.engine.evaluate(this.uw);
+  }
+}
@@ -0,0 +1,35 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Ranking a result list and formatting its top 100 documents, as
+ *  QryEval.printResults does through TrecWriter.  The result sizes
+ *  come from #OR queries over terms of decreasing frequency.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultsBenchmark {
+
+  @Param({"1", "100", "1000"})
+  public int rank;
+
+  private Object result;
+
+  @Setup
+  public void setUp(EngineState s) throws Exception {
+    s.engine.model("ranked");
+    this.result = s.engine.result(s.engine.preloadScores("#or(" + s.terms(this.rank, 2) + ")"));
+  }
+
+  @Benchmark
+  public long write(EngineState s) throws Exception {
+    return s.engine.write(this.result);
+  }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  BM25 #SUM and Indri #AND over four terms.  "score" starts from
+ *  loaded inverted lists, so it measures the per-posting scoring loop
+ *  of each term and the merge; "merge" starts from scored terms, so
+ *  it measures only the merge kernel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ScoringBenchmark {
+
+  @Param({"bm25", "indri"})
+  public String model;
+
+  @Param({"1", "50"})
+  public int rank;
+
+  private Object scored;
+  private Object merged;
+
+  @Setup
+  public void setUp(EngineState s) throws Exception {
+    s.engine.model(this.model);
+    String query = s.terms(this.rank, 4);
+    this.scored = s.engine.preloadTerms(query);
+    this.merged = s.engine.preloadScores(query);
+  }
+
+  @Benchmark
+  public int score(EngineState s) throws Exception {
+    return s.engine.evaluate(this.scored);
+  }
+
+  @Benchmark
+  public int merge(EngineState s) throws Exception {
+    return s.engine.evaluate(this.merged);
+  }
+}
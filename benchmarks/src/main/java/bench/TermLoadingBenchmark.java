@@ -0,0 +1,33 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Reading one term's inverted list into an InvList, for a frequent,
+ *  a mid-frequency and a rare term.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TermLoadingBenchmark {
+
+  @Param({"1", "100", "10000"})
+  public int rank;
+
+  private String term;
+
+  @Setup
+  public void setUp(EngineState s) {
+    this.term = s.engine.term(this.rank);
+  }
+
+  @Benchmark
+  public int loadTerm(EngineState s) throws Exception {
+    return s.engine.loadTerm(this.term);
+  }
+}
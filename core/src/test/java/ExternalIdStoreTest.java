@@ -0,0 +1,62 @@
+/**
+ *  Tests of ExternalIdStore lookups in both directions.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ExternalIdStoreTest {
+
+  @BeforeClass
+  public static void openIndex() throws IOException {
+    TestIndex.open();
+  }
+
+  @Test
+  public void everyIdIsFound() {
+    ExternalIdStore ids = QryEval.eids;
+    assertEquals(TestIndex.DOCS, ids.maxDoc());
+    for (int d = 0; d < TestIndex.DOCS; d++) {
+      String id = ids.get(d);
+      assertEquals(SyntheticIndex.externalId(d), id);
+      assertEquals(id, d, ids.getInternalDocid(id));
+    }
+  }
+
+  @Test
+  public void missingIdsAreNotFound() {
+    ExternalIdStore ids = QryEval.eids;
+    for (String id : new String[] { "", "a", "doc", "doc-", "doc-0x", "doc-" + TestIndex.DOCS,
+				    "doc-99999", "zzz", "doc-é" })
+      assertEquals(id, -1, ids.getInternalDocid(id));
+  }
+
+  @Test
+  public void prefixesAreDistinct() {
+    ExternalIdStore ids = QryEval.eids;
+    assertEquals(1, ids.getInternalDocid("doc-1"));
+    assertEquals(10, ids.getInternalDocid("doc-10"));
+    assertEquals(100, ids.getInternalDocid("doc-100"));
+  }
+
+  @Test
+  public void compareIsByteOrder() {
+    ExternalIdStore ids = QryEval.eids;
+    assertTrue(ids.compare(10, 2) < 0);
+    assertTrue(ids.compare(2, 10) > 0);
+    assertTrue(ids.compare(1, 10) < 0);
+    assertEquals(0, ids.compare(7, 7));
+  }
+
+  @Test
+  public void reopenedStoreMatches() throws IOException {
+    File file = new File(TestIndex.open(), "externalIds");
+    ExternalIdStore ids = new ExternalIdStore(file);
+    for (int d = 0; d < TestIndex.DOCS; d += 17)
+      assertEquals(d, ids.getInternalDocid(QryEval.eids.get(d)));
+  }
+}
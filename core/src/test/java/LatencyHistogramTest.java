@@ -0,0 +1,63 @@
+/**
+ *  Tests of the LatencyHistogram bucket layout.
+ */
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void smallValuesHaveTheirOwnBuckets() {
+    for (long v = 0; v < 128; v++) {
+      assertEquals(v, LatencyHistogram.index(v));
+      assertEquals(v, LatencyHistogram.midpoint((int) v));
+    }
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    int prev = LatencyHistogram.index(0);
+    for (long v = 1; v < 1 << 20; v++) {
+      int i = LatencyHistogram.index(v);
+      assertTrue("value " + v, i == prev || i == prev + 1);
+      prev = i;
+    }
+  }
+
+  @Test
+  public void midpointIsWithinItsBucket() {
+    for (int shift = 7; shift < 63; shift++) {
+      for (long v : new long[] { 1L << shift, (1L << shift) + 1, (3L << (shift - 1)) - 1,
+				 (1L << (shift + 1)) - 1 }) {
+	int i = LatencyHistogram.index(v);
+	long m = LatencyHistogram.midpoint(i);
+	assertEquals("value " + v, i, LatencyHistogram.index(m));
+	assertTrue("value " + v, Math.abs(m - v) <= v / 64);
+      }
+    }
+  }
+
+  @Test
+  public void largestValueFits() {
+    long v = Long.MAX_VALUE;
+    int i = LatencyHistogram.index(v);
+    assertEquals(i, LatencyHistogram.index(LatencyHistogram.midpoint(i)));
+
+    LatencyHistogram h = new LatencyHistogram();
+    h.record(v);
+    assertEquals(i, LatencyHistogram.index(h.getPercentile(100)));
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.getPercentile(50));
+    for (long v = 1; v <= 10000; v++)
+      h.record(v);
+    assertEquals(5000, h.getPercentile(50), 5000 / 64);
+    assertEquals(9900, h.getPercentile(99), 9900 / 64);
+    assertEquals(10000, h.getPercentile(100), 10000 / 64);
+  }
+}
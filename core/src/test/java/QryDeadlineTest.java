@@ -0,0 +1,98 @@
+/**
+ *  Tests of query deadlines: abort mode, and which documents a
+ *  partial result ranks.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QryDeadlineTest {
+
+  private static final RetrievalModel INDRI = new RetrievalModelIndri(2500, 0.4);
+
+  @BeforeClass
+  public static void openIndex() throws IOException {
+    TestIndex.open();
+  }
+
+  @After
+  public void clearDeadline() {
+    QryDeadline.set(null);
+  }
+
+  /**
+   *  Evaluate a query with a deadline that has already passed.
+   */
+  private static QryResult evaluateLate(String query, boolean partial) throws IOException {
+    Qryop q = QryParser.parse(query, INDRI);
+    QryDeadline d = new QryDeadline(0, partial);
+    QryDeadline.set(d);
+    try {
+      QryResult result = QryEval.evaluateQuery(1, q, INDRI, null);
+      assertTrue(d.isTruncated());
+      return result;
+    } finally {
+      QryDeadline.set(null);
+    }
+  }
+
+  private static ScoreList evaluate(String query) throws IOException {
+    return QryEval.evaluateQuery(1, QryParser.parse(query, INDRI), INDRI, null).docScores;
+  }
+
+  /**
+   *  Check that a partial list is a docid prefix of a complete list,
+   *  with the same scores.
+   */
+  private static void assertPrefix(ScoreList complete, ScoreList partial) {
+    int n = partial.scores.size();
+    assertTrue(n > 0);
+    assertTrue(n < complete.scores.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals(complete.getDocid(i), partial.getDocid(i));
+      assertEquals(complete.getDocidScore(i), partial.getDocidScore(i), 0.0);
+    }
+  }
+
+  @Test(expected = QryTimeoutException.class)
+  public void abortModeThrows() throws IOException {
+    evaluateLate("#AND(t1 t2)", false);
+  }
+
+  @Test
+  public void runningOperatorStops() throws IOException {
+    ScoreList complete = evaluate("#AND(t1 t2)");
+    assertPrefix(complete, evaluateLate("#AND(t1 t2)", true).docScores);
+  }
+
+  @Test
+  public void partialResultIsTheRunningOperators() throws IOException {
+
+    //  The first #AND stops early.  The second one isn't evaluated,
+    //  and the outer #AND doesn't merge the partial list with default
+    //  scores: the result is the first #AND's documents and scores.
+
+    ScoreList first = evaluate("#AND(t1 t2)");
+    ScoreList partial = evaluateLate("#AND(#AND(t1 t2) #AND(t3 t4))", true).docScores;
+    assertPrefix(first, partial);
+
+    ScoreList whole = evaluate("#AND(#AND(t1 t2) #AND(t3 t4))");
+    Map<Integer, Double> scores = new HashMap<Integer, Double>();
+    for (int i = 0; i < whole.scores.size(); i++)
+      scores.put(whole.getDocid(i), whole.getDocidScore(i));
+    for (int i = 0; i < partial.scores.size(); i++)
+      assertNotEquals(scores.get(partial.getDocid(i)), partial.getDocidScore(i), 0.0);
+  }
+
+  @Test
+  public void noDeadlineIsNotTruncated() throws IOException {
+    assertFalse(QryDeadline.truncated());
+    QryDeadline.finish(new QryResult());
+  }
+}
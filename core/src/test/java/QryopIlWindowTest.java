@@ -0,0 +1,112 @@
+/**
+ *  Tests of #NEAR/n and #UW/n: the docid alignment of their
+ *  arguments, and the windows found in each document.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+public class QryopIlWindowTest {
+
+  /**
+   *  An argument with a fixed inverted list.  Postings are given as
+   *  {docid, position, position, ...}.
+   */
+  static class FixedList extends QryopIl {
+    private final int[][] postings;
+
+    FixedList(int[]... postings) {
+      this.postings = postings;
+    }
+
+    public void add(Qryop q) {
+    }
+
+    public QryResult evaluate(RetrievalModel r) throws IOException {
+      QryResult result = new QryResult();
+      result.invertedList = new InvList("body");
+      for (int[] p : this.postings) {
+	List<Integer> positions = new ArrayList<Integer>();
+	for (int i = 1; i < p.length; i++)
+	  positions.add(p[i]);
+	result.invertedList.appendPosting(p[0], positions);
+      }
+      return result;
+    }
+
+    public String toString() {
+      return "fixed";
+    }
+  }
+
+  /**
+   *  The docids and positions of an operator's result.
+   */
+  private static String postings(Qryop op) throws IOException {
+    InvList list = op.evaluate(new RetrievalModelUnrankedBoolean()).invertedList;
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < list.postings.size(); i++)
+      b.append(list.getDocid(i)).append(list.postings.get(i).positions).append(' ');
+    return b.toString().trim();
+  }
+
+  @Test
+  public void nearAlignsDocids() throws IOException {
+    Qryop a = new FixedList(new int[] { 1, 5 }, new int[] { 3, 1 }, new int[] { 7, 2 },
+			    new int[] { 9, 4 });
+    Qryop b = new FixedList(new int[] { 2, 6 }, new int[] { 3, 2 }, new int[] { 8, 3 },
+			    new int[] { 9, 5 }, new int[] { 10, 1 });
+    assertEquals("3[1] 9[4]", postings(new QryopIlNear(1, a, b)));
+  }
+
+  @Test
+  public void nearIsOrdered() throws IOException {
+    Qryop a = new FixedList(new int[] { 1, 4, 10 });
+    Qryop b = new FixedList(new int[] { 1, 2, 12 });
+    assertEquals("1[10]", postings(new QryopIlNear(2, a, b)));
+    assertEquals("", postings(new QryopIlNear(1, a, b)));
+  }
+
+  @Test
+  public void nearDoesNotReusePositions() throws IOException {
+    Qryop a = new FixedList(new int[] { 1, 1, 2 });
+    Qryop b = new FixedList(new int[] { 1, 3 });
+    assertEquals("1[1]", postings(new QryopIlNear(2, a, b)));
+  }
+
+  @Test
+  public void nearWithThreeArguments() throws IOException {
+    Qryop a = new FixedList(new int[] { 1, 1, 10 });
+    Qryop b = new FixedList(new int[] { 1, 2, 11 });
+    Qryop c = new FixedList(new int[] { 1, 5, 12 });
+    assertEquals("1[10]", postings(new QryopIlNear(1, a, b, c)));
+  }
+
+  @Test
+  public void uwIsUnordered() throws IOException {
+    Qryop a = new FixedList(new int[] { 1, 10 }, new int[] { 2, 1 });
+    Qryop b = new FixedList(new int[] { 1, 8 }, new int[] { 2, 5 });
+    assertEquals("1[8]", postings(new QryopIlUw(3, a, b)));
+    assertEquals("1[8] 2[1]", postings(new QryopIlUw(5, a, b)));
+  }
+
+  @Test
+  public void uwFindsMinimalWindows() throws IOException {
+    Qryop a = new FixedList(new int[] { 4, 1, 20, 30 });
+    Qryop b = new FixedList(new int[] { 4, 2, 15 });
+    Qryop c = new FixedList(new int[] { 4, 18, 31 });
+    assertEquals("4[15]", postings(new QryopIlUw(6, a, b, c)));
+    assertEquals("4[1, 15]", postings(new QryopIlUw(18, a, b, c)));
+  }
+
+  @Test
+  public void uwAlignsDocids() throws IOException {
+    Qryop a = new FixedList(new int[] { 2, 1 }, new int[] { 5, 1 }, new int[] { 6, 1 });
+    Qryop b = new FixedList(new int[] { 1, 2 }, new int[] { 5, 2 }, new int[] { 6, 9 });
+    assertEquals("5[1]", postings(new QryopIlUw(2, a, b)));
+  }
+}
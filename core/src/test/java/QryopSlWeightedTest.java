@@ -0,0 +1,77 @@
+/**
+ *  Tests of the weight normalization of #WAND and #WSUM, and of the
+ *  parser's checks of their weights.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.Test;
+
+public class QryopSlWeightedTest {
+
+  private static final RetrievalModel INDRI = new RetrievalModelIndri(2500, 0.4);
+
+  @Test
+  public void wandNormalizesWeights() {
+    QryopSlWAnd op = new QryopSlWAnd();
+    op.add(2.0, new QryopIlTerm("a"));
+    op.add(6.0, new QryopIlTerm("b"));
+    assertArrayEquals(new double[] { 0.25, 0.75 }, op.normalizedWeights(), 0.0);
+  }
+
+  @Test
+  public void wsumNormalizesWeights() {
+    QryopSlWSum op = new QryopSlWSum();
+    op.add(0.5, new QryopIlTerm("a"));
+    op.add(new QryopIlTerm("b"));
+    op.add(0.5, new QryopIlTerm("c"));
+    assertArrayEquals(new double[] { 0.25, 0.5, 0.25 }, op.normalizedWeights(), 0.0);
+  }
+
+  @Test
+  public void weightsGrow() {
+    QryopSlWAnd op = new QryopSlWAnd();
+    for (int i = 1; i <= 10; i++)
+      op.add(i, new QryopIlTerm("t" + i));
+    double[] w = op.normalizedWeights();
+    assertEquals(10, w.length);
+    for (int i = 1; i <= 10; i++)
+      assertEquals(i / 55.0, w[i - 1], 1e-15);
+  }
+
+  @Test
+  public void parserGivesEachStemTheWeight() throws IOException {
+    Qryop q = QryParser.parse("#WSUM(1 apple 3 banana)", INDRI);
+    QryopSlWSum op = (QryopSlWSum) q.args.get(0);
+    assertArrayEquals(new double[] { 0.25, 0.75 }, op.normalizedWeights(), 0.0);
+  }
+
+  @Test
+  public void zeroWeightSumIsRejected() throws IOException {
+    assertRejected("#WAND(0 apple 0 banana)", 0);
+    assertRejected("#WSUM(1 apple -1 banana)", 0);
+    assertRejected("#AND(apple #WAND(0 apple 0 banana))", 11);
+  }
+
+  @Test
+  public void stopwordsDoNotCount() throws IOException {
+    assertRejected("#WAND(1 the 0 banana)", 0);
+  }
+
+  @Test
+  public void nonFiniteWeightsAreRejected() throws IOException {
+    assertRejected("#WAND(NaN apple 1 banana)", 6);
+    assertRejected("#WSUM(1 apple Infinity banana)", 14);
+  }
+
+  private static void assertRejected(String query, int position) throws IOException {
+    try {
+      QryParser.parse(query, INDRI);
+      fail(query);
+    } catch (QrySyntaxException e) {
+      assertEquals(query, position, e.getPosition());
+    }
+  }
+}
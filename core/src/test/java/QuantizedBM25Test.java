@@ -0,0 +1,72 @@
+/**
+ *  Tests of the QuantizedBM25 length buckets.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QuantizedBM25Test {
+
+  @BeforeClass
+  public static void openIndex() throws IOException {
+    TestIndex.open();
+  }
+
+  @Test
+  public void shortLengthsAreExact() {
+    QuantizedBM25 q = new QuantizedBM25(1.2, 0.75, 8, 4);
+    for (int length = 0; length < 16; length++) {
+      assertEquals(length, q.bucket(length));
+      assertEquals(length, q.length(length), 0.0);
+    }
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    for (int lengthBits : new int[] { 0, 1, 4, 7 }) {
+      QuantizedBM25 q = new QuantizedBM25(1.2, 0.75, 8, lengthBits);
+      int prev = q.bucket(0);
+      long first = 0;
+      for (long length = 1; length < 1 << 18; length++) {
+	int bucket = q.bucket(length);
+	if (bucket == prev)
+	  continue;
+	assertEquals("length " + length, prev + 1, bucket);
+
+	//  The bucket's length is the middle of first .. length-1.
+
+	assertEquals("bucket " + prev, (first + length - 1) / 2.0, q.length(prev), 0.0);
+	prev = bucket;
+	first = length;
+      }
+    }
+  }
+
+  @Test
+  public void bucketsAreRelativelyNarrow() {
+    QuantizedBM25 q = new QuantizedBM25(1.2, 0.75, 8, 4);
+    for (long length = 1; length < 1L << 40; length = length * 3 + 1) {
+      double mid = q.length(q.bucket(length));
+      assertTrue("length " + length, Math.abs(mid - length) <= length / 16.0);
+    }
+  }
+
+  @Test
+  public void negativeLengthsUseTheFirstBucket() {
+    assertEquals(0, new QuantizedBM25(1.2, 0.75, 8, 4).bucket(-5));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void impactBitsAreChecked() {
+    new QuantizedBM25(1.2, 0.75, 25, 4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void lengthBitsAreChecked() {
+    new QuantizedBM25(1.2, 0.75, 8, 17);
+  }
+}
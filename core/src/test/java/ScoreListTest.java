@@ -0,0 +1,89 @@
+/**
+ *  Tests of ScoreList.top, which ranks by score and breaks ties by
+ *  external id.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ScoreListTest {
+
+  @BeforeClass
+  public static void openIndex() throws IOException {
+    TestIndex.open();
+  }
+
+  /**
+   *  The docids of the top entries, best first.
+   */
+  private static List<Integer> top(ScoreList list, int max) {
+    int[] heap = list.top(max, QryEval.eids, null);
+    List<Integer> docids = new ArrayList<Integer>();
+    for (int i = 0; i < Math.min(max, list.scores.size()); i++)
+      docids.add(list.getDocid(heap[i]));
+    return docids;
+  }
+
+  @Test
+  public void ranksByScore() {
+    ScoreList list = new ScoreList();
+    list.add(0, 1.0);
+    list.add(1, 3.0);
+    list.add(2, 2.0);
+    list.add(3, -1.0);
+    assertEquals(Arrays.asList(1, 2, 0, 3), top(list, 10));
+    assertEquals(Arrays.asList(1, 2), top(list, 2));
+  }
+
+  @Test
+  public void tiesAreBrokenByExternalId() {
+
+    //  "doc-10" < "doc-100" < "doc-2" < "doc-20"
+
+    ScoreList list = new ScoreList();
+    list.add(2, 1.0);
+    list.add(20, 1.0);
+    list.add(100, 1.0);
+    list.add(10, 1.0);
+    list.add(5, 2.0);
+    assertEquals(Arrays.asList(5, 10, 100, 2, 20), top(list, 10));
+    assertEquals(Arrays.asList(5, 10, 100), top(list, 3));
+  }
+
+  @Test
+  public void heapIsReused() {
+    ScoreList list = new ScoreList();
+    for (int d = 0; d < 50; d++)
+      list.add(d, d % 7);
+    int[] heap = new int[10];
+    assertSame(heap, list.top(10, QryEval.eids, heap));
+    assertNotSame(heap, list.top(11, QryEval.eids, heap));
+  }
+
+  @Test
+  public void topMatchesSort() {
+    Random random = new Random(7);
+    ScoreList list = new ScoreList();
+    for (int d = 0; d < TestIndex.DOCS; d++)
+      list.add(d, random.nextInt(20));
+
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int d = 0; d < TestIndex.DOCS; d++)
+      expected.add(d);
+    final ScoreList l = list;
+    Collections.sort(expected, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+	int c = Double.compare(l.getDocidScore(b), l.getDocidScore(a));
+	return (c != 0) ? c : QryEval.eids.get(a).compareTo(QryEval.eids.get(b));
+      }
+    });
+
+    for (int max : new int[] { 1, 10, 100, TestIndex.DOCS })
+      assertEquals(expected.subList(0, max), top(list, max));
+  }
+}
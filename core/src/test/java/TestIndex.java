@@ -0,0 +1,46 @@
+/**
+ *  TestIndex builds a small synthetic index once per test run and
+ *  opens it the way QryEval does, for the tests that need
+ *  QryEval.READER or an ExternalIdStore.
+ */
+
+import java.io.*;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.FSDirectory;
+
+class TestIndex {
+
+  static final int DOCS = 3000;
+
+  private static File dir;
+
+  /**
+   *  Build the index if it hasn't been built yet, and make it
+   *  QryEval's index.
+   *  @return The index directory.
+   */
+  static synchronized File open() throws IOException {
+    if (dir != null)
+      return dir;
+
+    File d = File.createTempFile("search-test", "");
+    d.delete();
+    d.mkdirs();
+    new SyntheticIndex(DOCS, 500, 1.0, 40, 1).build(d);
+
+    QryEval.READER = DirectoryReader.open(FSDirectory.open(d));
+    QryEval.dls = new DocLengthStore(QryEval.READER);
+    QryEval.eids = ExternalIdStore.open(QryEval.READER, new File(d, "externalIds"));
+    dir = d;
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+	for (File f : dir.listFiles())
+	  f.delete();
+	dir.delete();
+      }
+    });
+    return dir;
+  }
+}
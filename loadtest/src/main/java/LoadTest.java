@@ -0,0 +1,225 @@
+/**
+ *  LoadTest replays a query file against a running {@link QryServer}
+ *  (server=<port>) and reports throughput and latency.  Each client
+ *  has its own connection and sends its next query as soon as the
+ *  previous response ends, cycling through the query file from its
+ *  own starting point.  Queries answered during the warmup are not
+ *  counted.
+ *
+ *  Latency is measured at the client, from sending the request to
+ *  reading the "." that ends the response, so it includes the time
+ *  a query waits for one of the server's maxConcurrentQueries turns.
+ *
+ *  Usage:  java LoadTest port=N queryFilePath=FILE [host=H]
+ *            [clients=N] [duration=SECONDS] [warmup=SECONDS]
+ */
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadTest {
+
+  private final String host;
+  private final int port;
+  private final List<String> queries;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong partial = new AtomicLong();
+
+  //  Set once the warmup is over, and once the run is over.
+
+  private volatile boolean measuring = false;
+  private volatile boolean stopped = false;
+
+  /**
+   *  @param host The server's host.
+   *  @param port The server's port.
+   *  @param queries The requests, "queryno: query".
+   */
+  public LoadTest(String host, int port, List<String> queries) {
+    this.host = host;
+    this.port = port;
+    this.queries = queries;
+  }
+
+  /**
+   *  Run the clients.
+   *  @param clients The number of concurrent clients.
+   *  @param warmupMillis How long to run before measuring.
+   *  @param durationMillis How long to measure.
+   *  @return The measured time in nanoseconds.
+   *  @throws Exception
+   */
+  public long run(int clients, long warmupMillis, long durationMillis) throws Exception {
+
+    final IOException[] failure = new IOException[1];
+    Thread[] threads = new Thread[clients];
+    for (int i = 0; i < clients; i++) {
+      final int first = (int) ((long) i * this.queries.size() / clients);
+      threads[i] = new Thread("client-" + i) {
+	public void run() {
+	  try {
+	    client(first);
+	  } catch (IOException e) {
+	    synchronized (failure) {
+	      failure[0] = e;
+	    }
+	    stopped = true;
+	  }
+	}
+      };
+      threads[i].start();
+    }
+
+    Thread.sleep(warmupMillis);
+    this.measuring = true;
+    long start = System.nanoTime();
+    long end = start + durationMillis * 1000000L;
+    while (! this.stopped && System.nanoTime() < end)
+      Thread.sleep(Math.min(100, Math.max(1, (end - System.nanoTime()) / 1000000L)));
+    this.measuring = false;
+    long elapsed = System.nanoTime() - start;
+    this.stopped = true;
+
+    for (Thread t : threads)
+      t.join();
+    synchronized (failure) {
+      if (failure[0] != null)
+	throw failure[0];
+    }
+    return elapsed;
+  }
+
+  /**
+   *  Send queries on one connection until the run is over.
+   */
+  private void client(int next) throws IOException {
+    Socket socket = new Socket(this.host, this.port);
+    try {
+      socket.setTcpNoDelay(true);
+      BufferedReader in =
+	new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+      Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+
+      while (! this.stopped) {
+	String query = this.queries.get(next);
+	next = (next + 1) % this.queries.size();
+
+	long start = System.nanoTime();
+	out.write(query);
+	out.write('\n');
+	out.flush();
+
+	boolean error = false;
+	boolean truncated = false;
+	String line;
+	while ((line = in.readLine()) != null && ! line.equals(QryServer.END)) {
+	  if (line.startsWith("ERROR"))
+	    error = true;
+	  else if (line.equals("PARTIAL"))
+	    truncated = true;
+	}
+	if (line == null)
+	  throw new EOFException("The server closed the connection");
+	long nanos = System.nanoTime() - start;
+
+	if (this.measuring) {
+	  this.latency.record(nanos);
+	  if (error)
+	    this.errors.incrementAndGet();
+	  if (truncated)
+	    this.partial.incrementAndGet();
+	}
+      }
+
+      out.write("quit\n");
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   *  Print throughput and latency percentiles.
+   *  @param out Where to print.
+   *  @param nanos The measured time.
+   */
+  public void printSummary(PrintStream out, long nanos) {
+    long n = this.latency.getCount();
+    double seconds = nanos / 1e9;
+
+    out.println("Queries: " + n + " in " + round(seconds) + " s, " +
+		round(n / Math.max(seconds, 1e-9)) + " QPS, " +
+		this.errors.get() + " errors, " + this.partial.get() + " partial");
+    out.println("  latency ms   p50 " + ms(this.latency.getPercentile(50)) +
+		"  p90 " + ms(this.latency.getPercentile(90)) +
+		"  p99 " + ms(this.latency.getPercentile(99)) +
+		"  p99.9 " + ms(this.latency.getPercentile(99.9)) +
+		"  max " + ms(this.latency.getMax()) +
+		"  mean " + round(this.latency.getMean() / 1e6));
+  }
+
+  /**
+   *  Read the requests of a query file, one "queryno: query" per line.
+   */
+  static List<String> readQueries(File file) throws IOException {
+    List<String> queries = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+	line = line.trim();
+	if (line.length() > 0)
+	  queries.add(line);
+      }
+    } finally {
+      in.close();
+    }
+    return queries;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    for (String arg : args) {
+      String[] pair = arg.split("=", 2);
+      if (pair.length == 2)
+	params.put(pair[0].trim(), pair[1].trim());
+    }
+
+    if (! params.containsKey("port") || ! params.containsKey("queryFilePath")) {
+      System.err.println("Usage:  java LoadTest port=N queryFilePath=FILE [host=H]" +
+			 " [clients=N] [duration=SECONDS] [warmup=SECONDS]");
+      System.exit(1);
+    }
+
+    List<String> queries = readQueries(new File(params.get("queryFilePath")));
+    if (queries.isEmpty()) {
+      System.err.println("Error: The query file is empty.");
+      System.exit(1);
+    }
+
+    LoadTest test = new LoadTest(params.containsKey("host") ? params.get("host") : "localhost",
+				 Integer.parseInt(params.get("port")), queries);
+    int clients = intParam(params, "clients", 4);
+    long nanos = test.run(clients,
+			  intParam(params, "warmup", 5) * 1000L,
+			  intParam(params, "duration", 30) * 1000L);
+    System.out.println(clients + " clients, " + queries.size() + " distinct queries");
+    test.printSummary(System.out, nanos);
+  }
+
+  private static int intParam(Map<String, String> params, String key, int defaultValue) {
+    return params.containsKey(key) ? Integer.parseInt(params.get(key)) : defaultValue;
+  }
+
+  private static double ms(long nanos) {
+    return round(nanos / 1e6);
+  }
+
+  private static double round(double v) {
+    return Math.round(v * 1000) / 1000.0;
+  }
+}